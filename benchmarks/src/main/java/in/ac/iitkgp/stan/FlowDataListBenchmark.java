@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+import java.util.concurrent.TimeUnit;
+
+import org.onosproject.core.CoreServiceAdapter;
+import org.onosproject.fwd.BenchmarkNetwork;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.PacketContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sampling of packet-ins by {@link FlowDataList#add(PacketContext, TrafficSelector, PortNumber)}.
+ * <p>
+ * The packets of the given number of flows are added in turn. With
+ * {@code tracked} the table has room for every flow, so after the first k
+ * rounds each packet finds its flow already sampled. With {@code churn} the
+ * table holds half of the flows, so every packet starts a new flow that
+ * evicts the least recently seen one. The embedded classifier is used and
+ * never trained, so sampled flows are not tested.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowDataListBenchmark
+{
+    @Param({"1000", "10000", "100000", "1000000"})
+    int flows;
+
+    @Param({"5", "10", "20"})
+    int k;
+
+    @Param({"tracked", "churn"})
+    String mode;
+
+    private FlowSeer flowSeer;
+    private FlowDataList flowDataList;
+    private PacketContext contexts[];
+    private TrafficSelector selectors[];
+    private PortNumber outPort;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        int maxFlows = "churn".equals(mode) ? flows / 2 : flows;
+        flowSeer = new FlowSeer(k, 1, 1, "localhost", 0, 0, maxFlows, 3600, 36000, true,
+                                1024, 64, false, false, true, 200,
+                                new CoreServiceAdapter(), new FlowRuleServiceAdapter(),
+                                LoggerFactory.getLogger(getClass()));
+        if (!flowSeer.start())
+        {
+            throw new IllegalStateException("FlowSeer did not start");
+        }
+        flowDataList = flowSeer.getFlowDataList();
+
+        BenchmarkNetwork network = new BenchmarkNetwork(2);
+        InboundPacket packets[] = network.packets(flows, network.egress());
+        contexts = new PacketContext[flows];
+        selectors = new TrafficSelector[flows];
+        for (int i=0; i<flows; i++)
+        {
+            contexts[i] = BenchmarkNetwork.context(packets[i]);
+            selectors[i] = BenchmarkNetwork.selector(packets[i]);
+        }
+        outPort = network.destination().port();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        flowSeer.stop();
+    }
+
+    @Benchmark
+    public boolean add()
+    {
+        int i = next;
+        next = (i + 1 == flows) ? 0 : i + 1;
+        return flowDataList.add(contexts[i], selectors[i], outPort);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import org.onosproject.core.CoreServiceAdapter;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Turning a sampled flow into a classifier record, and streaming records
+ * to a classifier.
+ * <p>
+ * {@code toRecord} fills a record from the packet samples of a flow, the
+ * step that used to format the flow as an ARFF line. {@code sendRecord}
+ * encodes a record into the stream of an {@link ArffNetworkStreamGenerator}
+ * connected to a {@link LocalClassifierServer} on this host; records that
+ * arrive while every buffer is waiting to be written are dropped, as they
+ * are in ONOS, so the score is the cost to the caller.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowRecordBenchmark
+{
+    private static final int FLOWS = 1024;
+
+    @Param({"5", "10", "20"})
+    int k;
+
+    @Param({"false", "true"})
+    boolean binary;
+
+    private FlowSeer flowSeer;
+    private FlowData flowData[];
+    private FlowRecord record;
+    private LocalClassifierServer server;
+    private ArffNetworkStreamGenerator stream;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        flowSeer = new FlowSeer(k, 1, 1, "localhost", 0, 0, FLOWS, 3600, 36000, true,
+                                1024, 64, false, binary, true, 200,
+                                new CoreServiceAdapter(), new FlowRuleServiceAdapter(),
+                                LoggerFactory.getLogger(getClass()));
+
+        PacketSampleSlab slab = new PacketSampleSlab(k);
+        flowData = new FlowData[FLOWS];
+        for (int i=0; i<FLOWS; i++)
+        {
+            flowData[i] = new FlowData(0, 0, 0, 0, k, 0, 0, 0, 0, 0, 0, 6, 0, i, 1, 1024 + i, 80);
+            flowData[i].attach(slab);
+            for (int j=0; j<k; j++)
+            {
+                flowData[i].addSample(64 + (i * 31 + j * 17) % 1400, 1000L * j + i);
+            }
+        }
+        record = flowSeer.toRecord(flowData[0], new FlowRecord(k));
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0))
+        {
+            port = socket.getLocalPort();
+        }
+        server = new LocalClassifierServer(port, false, false, new PrintStream(new OutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+                // discard
+            }
+        }));
+        server.start();
+
+        stream = new ArffNetworkStreamGenerator("localhost", port, "flowseer", FlowSeer.attributes(k), binary);
+        if (!stream.connect(record))
+        {
+            throw new IllegalStateException("Unable to connect to the classifier");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        stream.printStats(System.out, "Benchmark");
+        stream.disconnect();
+        server.stop();
+    }
+
+    @Benchmark
+    public FlowRecord toRecord()
+    {
+        int i = next;
+        next = (i + 1 == FLOWS) ? 0 : i + 1;
+        return flowSeer.toRecord(flowData[i], record);
+    }
+
+    @Benchmark
+    public void sendRecord()
+    {
+        stream.sendRecord(record);
+    }
+}
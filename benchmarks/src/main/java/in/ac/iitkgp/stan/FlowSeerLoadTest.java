@@ -0,0 +1,334 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreServiceAdapter;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.fwd.BenchmarkNetwork;
+import org.onosproject.fwd.Histogram;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.packet.InboundPacket;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives synthetic flows through FlowSeer against a {@link LocalClassifierServer}
+ * on this host, to see how many flows it keeps up with and how it behaves
+ * when the classifier is slow, stalls or drops its connections.
+ * <p>
+ * Each flow is sampled k times through {@link FlowDataList#add}, then its
+ * rule is reported removed to the {@link FlowStatisticsListener}, so every
+ * flow is tested by the classifier when its k-th packet is sampled and
+ * trained on when its rule goes. Every tenth flow by default carries large
+ * packets and lives long enough to be labelled an elephant.
+ * <pre>
+ *   java -cp benchmarks.jar in.ac.iitkgp.stan.FlowSeerLoadTest [--flows n] [--k n] [--threads n]
+ *        [--binary] [--block] [--queue n] [--batch n] [--elephants every]
+ *        [--latency ms] [--stall records:ms] [--disconnect records] [--drain s]
+ * </pre>
+ */
+public class FlowSeerLoadTest
+{
+    private static final String APP_NAME = "org.onosproject.fwd";
+    private static final ApplicationId APP_ID = new DefaultApplicationId(1, APP_NAME);
+    private static final int PRIORITY = 10;
+    private static final int MICE_PAYLOAD = 64;
+    private static final int ELEPHANT_PAYLOAD = 1400;
+
+    private int flows = 10000;
+    private int k = 10;
+    private int threads = 1;
+    private boolean binary;
+    private boolean blockWhenFull;
+    private int queueSize = 1024;
+    private int batchSize = 64;
+    private int elephantEvery = 10;
+    private long latency;
+    private long stallEvery, stallTime;
+    private long disconnectAfter;
+    private int drain = 2;
+
+    private final List<FlowRuleListener> listeners = new CopyOnWriteArrayList<FlowRuleListener>();
+    private final Histogram addLatency = new Histogram();
+    private final Histogram removeLatency = new Histogram();
+    private final AtomicLong packetIns = new AtomicLong();
+    private final AtomicLong installable = new AtomicLong();
+
+    public static void main(String args[]) throws IOException, InterruptedException
+    {
+        FlowSeerLoadTest test = new FlowSeerLoadTest();
+        try
+        {
+            test.parse(args);
+        }
+        catch (RuntimeException e)
+        {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: FlowSeerLoadTest [--flows n] [--k n] [--threads n] [--binary] [--block] "
+                    + "[--queue n] [--batch n] [--elephants every] [--latency ms] [--stall records:ms] "
+                    + "[--disconnect records] [--drain s]");
+            System.exit(2);
+        }
+        test.run();
+        System.exit(0);
+    }
+
+    private void parse(String args[])
+    {
+        for (int i=0; i<args.length; i++)
+        {
+            String value = (i + 1 < args.length) ? args[i + 1] : null;
+            switch (args[i])
+            {
+                case "--binary":
+                    binary = true;
+                    continue;
+                case "--block":
+                    blockWhenFull = true;
+                    continue;
+                default:
+                    break;
+            }
+            if (value == null)
+            {
+                throw new IllegalArgumentException("Missing value of " + args[i]);
+            }
+            i++;
+            switch (args[i - 1])
+            {
+                case "--flows":
+                    flows = Integer.parseInt(value);
+                    break;
+                case "--k":
+                    k = Integer.parseInt(value);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--queue":
+                    queueSize = Integer.parseInt(value);
+                    break;
+                case "--batch":
+                    batchSize = Integer.parseInt(value);
+                    break;
+                case "--elephants":
+                    elephantEvery = Integer.parseInt(value);
+                    break;
+                case "--latency":
+                    latency = Long.parseLong(value);
+                    break;
+                case "--stall":
+                    String stall[] = value.split(":");
+                    stallEvery = Long.parseLong(stall[0]);
+                    stallTime = Long.parseLong(stall[1]);
+                    break;
+                case "--disconnect":
+                    disconnectAfter = Long.parseLong(value);
+                    break;
+                case "--drain":
+                    drain = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unexpected argument " + args[i - 1]);
+            }
+        }
+        if (flows < 1 || k < 2 || threads < 1)
+        {
+            throw new IllegalArgumentException("At least one flow, two samples and one thread are needed");
+        }
+    }
+
+    private void run() throws IOException, InterruptedException
+    {
+        PrintStream quiet = new PrintStream(new OutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+                // discard
+            }
+        });
+        LocalClassifierServer training = server(freePort(), false, quiet);
+        LocalClassifierServer testing = server(freePort(), true, quiet);
+
+        FlowSeer flowSeer = new FlowSeer(k, 1, 1, "localhost", training.port(), testing.port(),
+                flows, 3600, 36000, true, queueSize, batchSize, blockWhenFull, binary, false, 200,
+                new CoreServiceAdapter()
+                {
+                    @Override
+                    public ApplicationId getAppId(String name)
+                    {
+                        return APP_NAME.equals(name) ? APP_ID : null;
+                    }
+                },
+                new FlowRuleServiceAdapter()
+                {
+                    @Override
+                    public void addListener(FlowRuleListener listener)
+                    {
+                        listeners.add(listener);
+                    }
+
+                    @Override
+                    public void removeListener(FlowRuleListener listener)
+                    {
+                        listeners.remove(listener);
+                    }
+                },
+                LoggerFactory.getLogger(getClass()));
+        if (!flowSeer.start())
+        {
+            throw new IllegalStateException("FlowSeer did not start");
+        }
+        FlowDataList flowDataList = flowSeer.getFlowDataList();
+
+        BenchmarkNetwork network = new BenchmarkNetwork(2);
+        ConnectPoint egress = network.egress();
+        PortNumber outPort = network.destination().port();
+        InboundPacket packets[] = network.packets(flows, egress,
+                i -> elephant(i) ? ELEPHANT_PAYLOAD : MICE_PAYLOAD);
+
+        CountDownLatch start = new CountDownLatch(1);
+        Thread workers[] = new Thread[threads];
+        for (int t=0; t<threads; t++)
+        {
+            int first = t;
+            workers[t] = new Thread(() ->
+            {
+                try
+                {
+                    start.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i=first; i<flows; i+=threads)
+                {
+                    drive(flowDataList, packets[i], outPort, elephant(i));
+                }
+            }, "load-" + t);
+            workers[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers)
+        {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        // let the pipeline write what is queued and the answers come back
+        TimeUnit.SECONDS.sleep(drain);
+
+        System.out.printf("Drove %d flows on %d threads in %.3f s (%.0f flows/s, %.0f packet-ins/s)%n",
+                flows, threads, seconds, flows / seconds, packetIns.get() / seconds);
+        System.out.println("Rules allowed     : " + installable.get());
+        System.out.println("Sample (us)       : " + addLatency.summary(1000));
+        System.out.println("Removal (us)      : " + removeLatency.summary(1000));
+        flowDataList.printStats(System.out);
+        flowSeer.getClassifier().printStats(System.out);
+        training.printStats(System.out);
+        testing.printStats(System.out);
+
+        flowSeer.stop();
+        training.stop();
+        testing.stop();
+    }
+
+    // Samples k packets of a flow, then reports its rule removed
+    private void drive(FlowDataList flowDataList, InboundPacket packet, PortNumber outPort, boolean elephant)
+    {
+        TrafficSelector selector = BenchmarkNetwork.selector(packet);
+        for (int j=0; j<k; j++)
+        {
+            long start = System.nanoTime();
+            boolean install = flowDataList.add(BenchmarkNetwork.context(packet), selector, outPort);
+            addLatency.record(System.nanoTime() - start);
+            packetIns.incrementAndGet();
+            if (install)
+            {
+                installable.incrementAndGet();
+            }
+        }
+
+        FlowRule rule = DefaultFlowRule.builder()
+                .forDevice(packet.receivedFrom().deviceId())
+                .withSelector(selector)
+                .withTreatment(DefaultTrafficTreatment.builder().setOutput(outPort).build())
+                .withPriority(PRIORITY)
+                .fromApp(APP_ID)
+                .makeTemporary(10)
+                .build();
+        // elephants stream well above the 1 Mb/s for 1 s that labels a flow an elephant
+        long life = elephant ? 30 : 11;
+        long bytes = elephant ? 100000000L : 10000L;
+        FlowRuleEvent event = new FlowRuleEvent(FlowRuleEvent.Type.RULE_REMOVED,
+                new DefaultFlowEntry(rule, FlowEntry.FlowEntryState.REMOVED, life, bytes / 1000, bytes));
+
+        long start = System.nanoTime();
+        for (FlowRuleListener listener : listeners)
+        {
+            listener.event(event);
+        }
+        removeLatency.record(System.nanoTime() - start);
+    }
+
+    private boolean elephant(int flow)
+    {
+        return elephantEvery > 0 && flow % elephantEvery == 0;
+    }
+
+    private LocalClassifierServer server(int port, boolean testing, PrintStream out) throws IOException
+    {
+        LocalClassifierServer server = new LocalClassifierServer(port, testing, false, out);
+        server.setReplyLatency(latency);
+        server.setStall(stallEvery, stallTime);
+        server.setDisconnectAfter(disconnectAfter);
+        server.start();
+        return server;
+    }
+
+    private static int freePort() throws IOException
+    {
+        try (ServerSocket socket = new ServerSocket(0))
+        {
+            return socket.getLocalPort();
+        }
+    }
+}
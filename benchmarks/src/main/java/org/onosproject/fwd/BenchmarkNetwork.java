@@ -0,0 +1,580 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.onlab.graph.ScalarWeight;
+import org.onlab.packet.Data;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.Ip4Prefix;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.TCP;
+import org.onlab.packet.TpPort;
+import org.onlab.packet.VlanId;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreServiceAdapter;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultHost;
+import org.onosproject.net.DefaultLink;
+import org.onosproject.net.DefaultPath;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.Link;
+import org.onosproject.net.Path;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flowobjective.FlowObjectiveServiceAdapter;
+import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.host.HostServiceAdapter;
+import org.onosproject.net.packet.DefaultInboundPacket;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.PacketContext;
+import org.onosproject.net.packet.PacketContextAdapter;
+import org.onosproject.net.packet.PacketProcessor;
+import org.onosproject.net.packet.PacketServiceAdapter;
+import org.onosproject.net.provider.ProviderId;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyListener;
+import org.onosproject.net.topology.TopologyServiceAdapter;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.ComponentInstance;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntUnaryOperator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A linear network of switches with one host at each end, and stubs of the
+ * ONOS services the forwarding app uses, answering from that network
+ * without any store behind them. Packets are TCP segments from the first
+ * host to the last one, one distinct flow per source address and port.
+ * Further hosts can be attached anywhere along the line, and links between
+ * switches failed and restored.
+ */
+public final class BenchmarkNetwork {
+
+    private static final ProviderId PID = new ProviderId("of", "bench");
+    private static final PortNumber HOST_PORT = PortNumber.portNumber(1);
+    private static final PortNumber DOWNSTREAM_PORT = PortNumber.portNumber(2);
+    private static final PortNumber UPSTREAM_PORT = PortNumber.portNumber(3);
+    private static final MacAddress SRC_MAC = MacAddress.valueOf("00:00:00:00:00:01");
+    private static final MacAddress DST_MAC = MacAddress.valueOf("00:00:00:00:00:02");
+    private static final int DST_IP = 0x0a010002;
+    private static final int PAYLOAD = 64;
+
+    // first port of a switch given to hosts attached by attach()
+    private static final int FIRST_ATTACHED_PORT = 4;
+
+    private final List<DeviceId> devices = new ArrayList<>();
+    private final Map<DeviceId, Integer> index = new HashMap<>();
+    // links by their source, in both directions
+    private final Map<ConnectPoint, Link> links = new ConcurrentHashMap<>();
+    private final ConcurrentMap<HostId, Host> hosts = new ConcurrentHashMap<>();
+    private final AtomicInteger[] nextPort;
+    private final ConcurrentMap<DeviceId, ConcurrentMap<DeviceId, Set<Path>>> paths =
+            new ConcurrentHashMap<>();
+    private final Host dstHost;
+    private volatile Topology topology = new StaticTopology();
+
+    final PacketServiceStub packetService = new PacketServiceStub();
+    final HostServiceStub hostService = new HostServiceStub();
+    final TopologyServiceStub topologyService = new TopologyServiceStub();
+    final FlowObjectiveServiceStub flowObjectiveService = new FlowObjectiveServiceStub();
+    final CoreServiceStub coreService = new CoreServiceStub();
+
+    /**
+     * Creates a network.
+     *
+     * @param switches number of switches between the two hosts, at least 2
+     */
+    public BenchmarkNetwork(int switches) {
+        checkArgument(switches >= 2, "At least two switches are needed");
+        nextPort = new AtomicInteger[switches];
+        for (int i = 0; i < switches; i++) {
+            DeviceId deviceId = DeviceId.deviceId(String.format("of:%016x", i + 1));
+            devices.add(deviceId);
+            index.put(deviceId, i);
+            nextPort[i] = new AtomicInteger(FIRST_ATTACHED_PORT);
+        }
+
+        for (int i = 0; i < devices.size() - 1; i++) {
+            link(new ConnectPoint(devices.get(i), DOWNSTREAM_PORT),
+                 new ConnectPoint(devices.get(i + 1), UPSTREAM_PORT));
+            link(new ConnectPoint(devices.get(i + 1), UPSTREAM_PORT),
+                 new ConnectPoint(devices.get(i), DOWNSTREAM_PORT));
+        }
+
+        Host srcHost = host(SRC_MAC, new HostLocation(devices.get(0), HOST_PORT, 0));
+        dstHost = host(DST_MAC, new HostLocation(devices.get(devices.size() - 1), HOST_PORT, 0));
+        hosts.put(srcHost.id(), srcHost);
+        hosts.put(dstHost.id(), dstHost);
+    }
+
+    private void link(ConnectPoint src, ConnectPoint dst) {
+        links.put(src, DefaultLink.builder()
+                .providerId(PID)
+                .src(src)
+                .dst(dst)
+                .type(Link.Type.DIRECT)
+                .build());
+    }
+
+    private static Host host(MacAddress mac, HostLocation location) {
+        return new DefaultHost(PID, HostId.hostId(mac), mac, VlanId.NONE, location, Collections.emptySet());
+    }
+
+    /**
+     * Attaches a host to a port of its own, on a switch picked by its address.
+     * A host that is attached already stays where it is.
+     *
+     * @param mac address of the host
+     * @return where the host is attached
+     */
+    public HostLocation attach(MacAddress mac) {
+        Host host = hosts.computeIfAbsent(HostId.hostId(mac), id -> {
+            int i = (int) ((mac.toLong() * 0x9E3779B97F4A7C15L) >>> 33) % devices.size();
+            PortNumber port = PortNumber.portNumber(nextPort[i].getAndIncrement());
+            return host(mac, new HostLocation(devices.get(i), port, 0));
+        });
+        return host.location();
+    }
+
+    /**
+     * Attaches a host to a port of its own on a given switch. A host that is
+     * attached already stays where it is.
+     *
+     * @param mac    address of the host
+     * @param device index of the switch along the line, from 0
+     * @return where the host is attached
+     */
+    public HostLocation attach(MacAddress mac, int device) {
+        checkArgument(device >= 0 && device < devices.size(), "No switch %s", device);
+        Host host = hosts.computeIfAbsent(HostId.hostId(mac), id -> {
+            PortNumber port = PortNumber.portNumber(nextPort[device].getAndIncrement());
+            return host(mac, new HostLocation(devices.get(device), port, 0));
+        });
+        return host.location();
+    }
+
+    /**
+     * Returns the link leaving a switch port.
+     *
+     * @param src the switch port
+     * @return the link, or null if the port does not lead to another switch
+     */
+    public Link link(ConnectPoint src) {
+        return links.get(src);
+    }
+
+    public int switches() {
+        return devices.size();
+    }
+
+    /**
+     * Returns a switch of the line.
+     *
+     * @param device index of the switch, from 0
+     * @return the switch
+     */
+    public DeviceId device(int device) {
+        return devices.get(device);
+    }
+
+    /**
+     * Fails the link between a switch and the next one along the line, in
+     * both directions, and moves on to a topology without it.
+     *
+     * @param device index of the switch, from 0
+     * @return the failed link from the switch to the next one
+     */
+    public Link failLink(int device) {
+        checkArgument(device >= 0 && device < devices.size() - 1, "No link after switch %s", device);
+        Link link = links.remove(new ConnectPoint(devices.get(device), DOWNSTREAM_PORT));
+        links.remove(new ConnectPoint(devices.get(device + 1), UPSTREAM_PORT));
+        changeTopology();
+        return link;
+    }
+
+    /**
+     * Restores the link between a switch and the next one along the line.
+     *
+     * @param device index of the switch, from 0
+     */
+    public void restoreLink(int device) {
+        checkArgument(device >= 0 && device < devices.size() - 1, "No link after switch %s", device);
+        link(new ConnectPoint(devices.get(device), DOWNSTREAM_PORT),
+             new ConnectPoint(devices.get(device + 1), UPSTREAM_PORT));
+        link(new ConnectPoint(devices.get(device + 1), UPSTREAM_PORT),
+             new ConnectPoint(devices.get(device), DOWNSTREAM_PORT));
+        changeTopology();
+    }
+
+    private void changeTopology() {
+        paths.clear();
+        topology = new StaticTopology();
+    }
+
+    // The only path between two switches of the line
+    private Set<Path> path(DeviceId src, DeviceId dst) {
+        Integer from = index.get(src);
+        Integer to = index.get(dst);
+        if (from == null || to == null || from.equals(to)) {
+            return ImmutableSet.of();
+        }
+
+        List<Link> hops = new ArrayList<>();
+        int step = from < to ? 1 : -1;
+        for (int i = from; i != to; i += step) {
+            Link hop = links.get(new ConnectPoint(devices.get(i), step > 0 ? DOWNSTREAM_PORT : UPSTREAM_PORT));
+            if (hop == null) {
+                return ImmutableSet.of();
+            }
+            hops.add(hop);
+        }
+        return ImmutableSet.of(new DefaultPath(PID, ImmutableList.copyOf(hops),
+                                                new ScalarWeight(hops.size())));
+    }
+
+    /**
+     * Returns where the first host is attached.
+     *
+     * @return host port of the first switch
+     */
+    public ConnectPoint ingress() {
+        return new ConnectPoint(devices.get(0), HOST_PORT);
+    }
+
+    /**
+     * Returns where packets from the first host arrive at the last switch.
+     *
+     * @return the port of the last switch facing the rest of the network
+     */
+    public ConnectPoint egress() {
+        return new ConnectPoint(devices.get(devices.size() - 1), UPSTREAM_PORT);
+    }
+
+    /**
+     * Returns where the last host is attached.
+     *
+     * @return location of the destination host
+     */
+    public HostLocation destination() {
+        return dstHost.location();
+    }
+
+    /**
+     * Creates the first packet of a number of distinct flows.
+     *
+     * @param flows       number of flows
+     * @param receivedFrom where the packets are received
+     * @return one packet of each flow
+     */
+    public InboundPacket[] packets(int flows, ConnectPoint receivedFrom) {
+        return packets(flows, receivedFrom, i -> PAYLOAD);
+    }
+
+    /**
+     * Creates the first packet of a number of distinct flows, each with a
+     * payload of its own size.
+     *
+     * @param flows        number of flows
+     * @param receivedFrom where the packets are received
+     * @param payload      size of the TCP payload of each flow, by flow number
+     * @return one packet of each flow
+     */
+    public InboundPacket[] packets(int flows, ConnectPoint receivedFrom, IntUnaryOperator payload) {
+        InboundPacket[] packets = new InboundPacket[flows];
+        for (int i = 0; i < flows; i++) {
+            Ethernet eth = packet(0x0a000000 | (i >>> 14 & 0xffff), 1024 + (i & 0x3fff), payload.applyAsInt(i));
+            // serializing fills in the lengths and checksums of the parsed packet
+            packets[i] = new DefaultInboundPacket(receivedFrom, eth, ByteBuffer.wrap(eth.serialize()));
+        }
+        return packets;
+    }
+
+    private static Ethernet packet(int srcIp, int srcPort, int payload) {
+        TCP tcp = new TCP();
+        tcp.setSourcePort(srcPort);
+        tcp.setDestinationPort(80);
+        tcp.setPayload(new Data(new byte[payload]));
+
+        IPv4 ip = new IPv4();
+        ip.setSourceAddress(srcIp);
+        ip.setDestinationAddress(DST_IP);
+        ip.setProtocol(IPv4.PROTOCOL_TCP);
+        ip.setTtl((byte) 64);
+        ip.setPayload(tcp);
+
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(SRC_MAC);
+        eth.setDestinationMACAddress(DST_MAC);
+        eth.setEtherType(Ethernet.TYPE_IPV4);
+        eth.setPayload(ip);
+        return eth;
+    }
+
+    /**
+     * Builds the selector the forwarding app builds for a packet when it
+     * matches addresses and ports.
+     *
+     * @param packet the packet
+     * @return selector of the packet's flow
+     */
+    public static TrafficSelector selector(InboundPacket packet) {
+        Ethernet eth = packet.parsed();
+        IPv4 ip = (IPv4) eth.getPayload();
+        TCP tcp = (TCP) ip.getPayload();
+        return DefaultTrafficSelector.builder()
+                .matchInPort(packet.receivedFrom().port())
+                .matchEthSrc(eth.getSourceMAC())
+                .matchEthDst(eth.getDestinationMAC())
+                .matchEthType(Ethernet.TYPE_IPV4)
+                .matchIPSrc(Ip4Prefix.valueOf(ip.getSourceAddress(), Ip4Prefix.MAX_MASK_LENGTH))
+                .matchIPDst(Ip4Prefix.valueOf(ip.getDestinationAddress(), Ip4Prefix.MAX_MASK_LENGTH))
+                .matchIPProtocol(ip.getProtocol())
+                .matchTcpSrc(TpPort.tpPort(tcp.getSourcePort()))
+                .matchTcpDst(TpPort.tpPort(tcp.getDestinationPort()))
+                .build();
+    }
+
+    /**
+     * Wraps a packet into a new packet-in, as the packet service does for
+     * every packet it receives.
+     *
+     * @param packet the packet
+     * @return packet context
+     */
+    public static PacketContext context(InboundPacket packet) {
+        return new PacketContextAdapter(0, packet, null, false);
+    }
+
+    /**
+     * Component context holding configuration properties.
+     */
+    static final class Context implements ComponentContext {
+        private final Hashtable<String, Object> properties = new Hashtable<>();
+
+        Context set(String name, Object value) {
+            properties.put(name, value.toString());
+            return this;
+        }
+
+        @Override
+        public Dictionary<String, Object> getProperties() {
+            return properties;
+        }
+
+        @Override
+        public Object locateService(String name) {
+            return null;
+        }
+
+        // the interface takes a raw reference, which an override has to match
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Object locateService(String name, ServiceReference reference) {
+            return null;
+        }
+
+        @Override
+        public Object[] locateServices(String name) {
+            return null;
+        }
+
+        @Override
+        public BundleContext getBundleContext() {
+            return null;
+        }
+
+        @Override
+        public Bundle getUsingBundle() {
+            return null;
+        }
+
+        @Override
+        public ComponentInstance getComponentInstance() {
+            return null;
+        }
+
+        @Override
+        public void enableComponent(String name) {
+        }
+
+        @Override
+        public void disableComponent(String name) {
+        }
+
+        @Override
+        public ServiceReference<?> getServiceReference() {
+            return null;
+        }
+    }
+
+    // Keeps the processor the app registers, so that packets can be handed to it
+    static final class PacketServiceStub extends PacketServiceAdapter {
+        volatile PacketProcessor processor;
+
+        @Override
+        public void addProcessor(PacketProcessor processor, int priority) {
+            this.processor = processor;
+        }
+
+        @Override
+        public void removeProcessor(PacketProcessor processor) {
+            this.processor = null;
+        }
+    }
+
+    final class HostServiceStub extends HostServiceAdapter {
+        @Override
+        public int getHostCount() {
+            return hosts.size();
+        }
+
+        @Override
+        public Iterable<Host> getHosts() {
+            return ImmutableSet.copyOf(hosts.values());
+        }
+
+        @Override
+        public Host getHost(HostId hostId) {
+            return hosts.get(hostId);
+        }
+    }
+
+    final class TopologyServiceStub extends TopologyServiceAdapter {
+        volatile TopologyListener listener;
+
+        @Override
+        public void addListener(TopologyListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void removeListener(TopologyListener listener) {
+            this.listener = null;
+        }
+
+        @Override
+        public Topology currentTopology() {
+            return topology;
+        }
+
+        @Override
+        public boolean isLatest(Topology topology) {
+            return topology == BenchmarkNetwork.this.topology;
+        }
+
+        @Override
+        public Set<Path> getPaths(Topology topology, DeviceId src, DeviceId dst) {
+            return paths.computeIfAbsent(src, d -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(dst, d -> path(src, dst));
+        }
+
+        @Override
+        public boolean isBroadcastPoint(Topology topology, ConnectPoint connectPoint) {
+            return true;
+        }
+    }
+
+    // Reports every objective as installed straight away
+    static final class FlowObjectiveServiceStub extends FlowObjectiveServiceAdapter {
+        final LongAdder forwarded = new LongAdder();
+
+        @Override
+        public void forward(DeviceId deviceId, ForwardingObjective forwardingObjective) {
+            forwarded.increment();
+            forwardingObjective.context().ifPresent(c -> c.onSuccess(forwardingObjective));
+        }
+    }
+
+    static final class CoreServiceStub extends CoreServiceAdapter {
+        private volatile ApplicationId appId;
+
+        @Override
+        public ApplicationId registerApplication(String name) {
+            appId = new DefaultApplicationId(1, name);
+            return appId;
+        }
+
+        @Override
+        public ApplicationId getAppId(String name) {
+            ApplicationId id = appId;
+            return id != null && id.name().equals(name) ? id : null;
+        }
+    }
+
+    private final class StaticTopology implements Topology {
+        private final long time = System.nanoTime();
+
+        @Override
+        public long time() {
+            return time;
+        }
+
+        @Override
+        public long creationTime() {
+            return time;
+        }
+
+        @Override
+        public long computeCost() {
+            return 0;
+        }
+
+        @Override
+        public int clusterCount() {
+            return 1;
+        }
+
+        @Override
+        public int deviceCount() {
+            return devices.size();
+        }
+
+        @Override
+        public int linkCount() {
+            return links.size();
+        }
+
+        @Override
+        public ProviderId providerId() {
+            return PID;
+        }
+    }
+}
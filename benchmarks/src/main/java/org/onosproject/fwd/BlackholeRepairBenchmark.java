@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import com.google.common.collect.ImmutableList;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.Ip4Prefix;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.TpPort;
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.Link;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flowobjective.DefaultForwardingObjective;
+import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.link.LinkEvent;
+import org.onosproject.net.topology.TopologyEvent;
+import org.onosproject.store.service.TestStorageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Time the forwarding app takes to remove the rules leading into a failed
+ * link, with a given number of its rules on every switch.
+ * <p>
+ * A line of four switches carries flows between hosts on the first switch
+ * and hosts on the last one, half of them in each direction, with a rule
+ * for every flow on every switch. The link in the middle of the line then
+ * fails in both directions. Each direction leaves the rules of the flows
+ * heading into it without a path, on the two switches before the failure,
+ * so repairing it removes half of all rules. The repair runs off the
+ * topology event thread, without a window so it starts at once, and is
+ * timed until the last of the rules is gone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BlackholeRepairBenchmark {
+
+    private static final int SWITCHES = 4;
+    private static final int FAILED_LINK = 1;
+    private static final int SOURCES = 100;
+    private static final int DESTINATIONS = 10;
+    private static final PortNumber DOWNSTREAM_PORT = PortNumber.portNumber(2);
+    private static final PortNumber UPSTREAM_PORT = PortNumber.portNumber(3);
+
+    private static final long REPAIR_TIMEOUT = TimeUnit.MINUTES.toNanos(1);
+    private static final long POLL_INTERVAL = TimeUnit.MICROSECONDS.toNanos(50);
+
+    @Param({"10000", "100000"})
+    int rulesPerSwitch;
+
+    @Param({"1", "4"})
+    int repairThreads;
+
+    private final EmulatedDataPlane dataPlane = new EmulatedDataPlane();
+    private ReactiveForwarding fwd;
+    private BenchmarkNetwork network;
+    // objectives of all rules, and the switches they go to
+    private final List<ForwardingObjective> objectives = new ArrayList<>();
+    private final List<DeviceId> devices = new ArrayList<>();
+    private List<LinkEvent> failure;
+    private TopologyEvent event;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        network = new BenchmarkNetwork(SWITCHES);
+        fwd = new ReactiveForwarding();
+        fwd.topologyService = network.topologyService;
+        fwd.packetService = network.packetService;
+        fwd.hostService = network.hostService;
+        fwd.flowObjectiveService = dataPlane.flowObjectiveService;
+        fwd.flowRuleService = dataPlane.flowRuleService;
+        fwd.coreService = network.coreService;
+        fwd.cfgService = new ComponentConfigAdapter();
+        fwd.storageService = new TestStorageService();
+        fwd.activate(new BenchmarkNetwork.Context()
+                             .set("matchIpv4Address", true)
+                             .set("matchTcpUdpPorts", true)
+                             .set("objectiveBatchWindow", 0)
+                             .set("blackholeRepairWindow", 0)
+                             .set("blackholeRepairThreads", repairThreads));
+        ApplicationId appId = network.coreService.getAppId("org.onosproject.fwd");
+
+        List<MacAddress> sources = new ArrayList<>();
+        List<MacAddress> destinations = new ArrayList<>();
+        for (int i = 0; i < SOURCES; i++) {
+            sources.add(MacAddress.valueOf(0x020000000000L + i));
+            network.attach(sources.get(i), 0);
+        }
+        for (int i = 0; i < DESTINATIONS; i++) {
+            destinations.add(MacAddress.valueOf(0x040000000000L + i));
+            network.attach(destinations.get(i), SWITCHES - 1);
+        }
+
+        for (int flow = 0; flow < rulesPerSwitch; flow++) {
+            int pair = flow % (SOURCES * DESTINATIONS);
+            MacAddress src = sources.get(pair % SOURCES);
+            MacAddress dst = destinations.get(pair / SOURCES);
+            // every other flow runs the other way
+            boolean downstream = flow % 2 == 0;
+            MacAddress from = downstream ? src : dst;
+            MacAddress to = downstream ? dst : src;
+            HostLocation fromLocation = network.attach(from, 0);
+            HostLocation toLocation = network.attach(to, 0);
+            for (int i = 0; i < SWITCHES; i++) {
+                DeviceId device = network.device(i);
+                PortNumber inPort = device.equals(fromLocation.deviceId()) ? fromLocation.port()
+                        : downstream ? UPSTREAM_PORT : DOWNSTREAM_PORT;
+                PortNumber outPort = device.equals(toLocation.deviceId()) ? toLocation.port()
+                        : downstream ? DOWNSTREAM_PORT : UPSTREAM_PORT;
+                devices.add(device);
+                objectives.add(objective(appId, flow, from, to, inPort, outPort));
+            }
+        }
+
+        Link link = network.link(new ConnectPoint(network.device(FAILED_LINK), DOWNSTREAM_PORT));
+        Link reverse = network.link(link.dst());
+        failure = ImmutableList.of(new LinkEvent(LinkEvent.Type.LINK_REMOVED, link),
+                                   new LinkEvent(LinkEvent.Type.LINK_REMOVED, reverse));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fwd.deactivate();
+    }
+
+    /**
+     * Installs every rule again over a network whose middle link has just
+     * failed, and announces the new topology.
+     */
+    @Setup(Level.Invocation)
+    public void install() {
+        dataPlane.removeAll();
+        network.restoreLink(FAILED_LINK);
+        for (int i = 0; i < objectives.size(); i++) {
+            dataPlane.flowObjectiveService.forward(devices.get(i), objectives.get(i));
+        }
+        network.failLink(FAILED_LINK);
+        event = new TopologyEvent(TopologyEvent.Type.TOPOLOGY_CHANGED,
+                                  network.topologyService.currentTopology(), ImmutableList.copyOf(failure));
+    }
+
+    @TearDown(Level.Invocation)
+    public void check() {
+        checkState(dataPlane.size() == objectives.size() / 2,
+                   "%s of %s rules left after the repair", dataPlane.size(), objectives.size());
+    }
+
+    /**
+     * Hands the failure of the link to the app's topology listener, and
+     * waits for the rules leading into it to be removed.
+     *
+     * @return number of rules left
+     */
+    @Benchmark
+    public int repair() {
+        network.topologyService.listener.event(event);
+        int left = objectives.size() / 2;
+        long deadline = System.nanoTime() + REPAIR_TIMEOUT;
+        while (dataPlane.size() > left && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(POLL_INTERVAL);
+        }
+        return dataPlane.size();
+    }
+
+    // Rule of one flow on one switch, the way the app installs it
+    private static ForwardingObjective objective(ApplicationId appId, int flow, MacAddress from,
+                                                 MacAddress to, PortNumber inPort, PortNumber outPort) {
+        return DefaultForwardingObjective.builder()
+                .withSelector(DefaultTrafficSelector.builder()
+                                      .matchInPort(inPort)
+                                      .matchEthSrc(from)
+                                      .matchEthDst(to)
+                                      .matchEthType(Ethernet.TYPE_IPV4)
+                                      .matchIPSrc(Ip4Prefix.valueOf(0x0a000000 | flow >>> 14,
+                                                                    Ip4Prefix.MAX_MASK_LENGTH))
+                                      .matchIPDst(Ip4Prefix.valueOf(0x0b000001, Ip4Prefix.MAX_MASK_LENGTH))
+                                      .matchIPProtocol(IPv4.PROTOCOL_TCP)
+                                      .matchTcpSrc(TpPort.tpPort(1024 + (flow & 0x3fff)))
+                                      .matchTcpDst(TpPort.tpPort(80))
+                                      .build())
+                .withTreatment(DefaultTrafficTreatment.builder().setOutput(outPort).build())
+                .withPriority(10)
+                .withFlag(ForwardingObjective.Flag.VERSATILE)
+                .fromApp(appId)
+                .makeTemporary(10)
+                .add();
+    }
+}
@@ -0,0 +1,586 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.ICMP;
+import org.onlab.packet.ICMP6;
+import org.onlab.packet.IPacket;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.IPv6;
+import org.onlab.packet.Ip4Prefix;
+import org.onlab.packet.Ip6Prefix;
+import org.onlab.packet.IpPrefix;
+import org.onlab.packet.TCP;
+import org.onlab.packet.TpPort;
+import org.onlab.packet.UDP;
+import org.onlab.packet.VlanId;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleOperation;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.flow.criteria.Criteria;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.criteria.IPCriterion;
+import org.onosproject.net.flow.instructions.Instruction;
+import org.onosproject.net.flow.instructions.Instructions;
+import org.onosproject.net.flowobjective.FlowObjectiveServiceAdapter;
+import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.flowobjective.Objective;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Flow tables of emulated switches, filled by the forwarding objectives of
+ * the app. A packet that matches a rule is forwarded by the switch and
+ * never reaches the app. Rules expire after their idle timeout, measured
+ * in the time of the replayed trace, and are reported to flow rule
+ * listeners as added and removed, with their packet and byte counts, so
+ * FlowSeer learns from them as it would from real switches.
+ */
+final class EmulatedDataPlane {
+
+    private final ConcurrentMap<DeviceId, Table> tables = new ConcurrentHashMap<>();
+    private final ConcurrentMap<FlowRuleKey, Rule> byRule = new ConcurrentHashMap<>();
+    private final List<FlowRuleListener> listeners = new CopyOnWriteArrayList<>();
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    // trace time of the packets each thread replays, in nanoseconds; a rule
+    // is stamped with the time of the thread installing it, or of the latest
+    // packet of any thread if that thread replays none
+    private final ThreadLocal<long[]> threadClock = new ThreadLocal<>();
+    private volatile long clock;
+
+    final ObjectiveService flowObjectiveService = new ObjectiveService();
+    final RuleService flowRuleService = new RuleService();
+
+    // fields the forwarding app matches, the only ones the switches know
+    private static final Set<Criterion.Type> MATCHED = EnumSet.of(
+            Criterion.Type.IN_PORT, Criterion.Type.ETH_SRC, Criterion.Type.ETH_DST, Criterion.Type.ETH_TYPE,
+            Criterion.Type.VLAN_VID, Criterion.Type.IPV4_SRC, Criterion.Type.IPV4_DST, Criterion.Type.IPV6_SRC,
+            Criterion.Type.IPV6_DST, Criterion.Type.IPV6_FLABEL, Criterion.Type.IP_PROTO, Criterion.Type.IP_DSCP,
+            Criterion.Type.IP_ECN, Criterion.Type.TCP_SRC, Criterion.Type.TCP_DST, Criterion.Type.UDP_SRC,
+            Criterion.Type.UDP_DST, Criterion.Type.ICMPV4_TYPE, Criterion.Type.ICMPV4_CODE,
+            Criterion.Type.ICMPV6_TYPE, Criterion.Type.ICMPV6_CODE);
+
+    private final AtomicLong installed = new AtomicLong();
+    private final AtomicLong replaced = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+    private final AtomicLong listenerErrors = new AtomicLong();
+
+    // Rules of one switch. Rules matching exact values are grouped by the
+    // fields they match and found by hashing the values of those fields in
+    // the packet; rules matching a prefix are checked one by one.
+    private static final class Table {
+        final ConcurrentMap<Set<Criterion.Type>, ConcurrentMap<Match, List<Rule>>> exact =
+                new ConcurrentHashMap<>();
+        final ConcurrentMap<Match, List<Rule>> other = new ConcurrentHashMap<>();
+
+        ConcurrentMap<Match, List<Rule>> bucket(TrafficSelector selector) {
+            if (!isExact(selector)) {
+                return other;
+            }
+            Set<Criterion.Type> fields = EnumSet.noneOf(Criterion.Type.class);
+            selector.criteria().forEach(c -> fields.add(c.type()));
+            return exact.computeIfAbsent(fields, f -> new ConcurrentHashMap<>());
+        }
+    }
+
+    // Values a rule matches. A set of criteria hashes to the sum of their
+    // hash codes, which collide for flows differing only in addresses and
+    // ports; this mixes each one before adding it up.
+    private static final class Match {
+        final Set<Criterion> criteria;
+        final int hash;
+
+        Match(Set<Criterion> criteria) {
+            this.criteria = criteria;
+            int h = 0;
+            for (Criterion c : criteria) {
+                h += Integer.rotateLeft(c.hashCode() * 0x9E3779B9, 15) * 0x85EBCA6B;
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof Match && hash == ((Match) o).hash
+                    && criteria.equals(((Match) o).criteria));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Rule {
+        final FlowRule rule;
+        final Match match;
+        final ConcurrentMap<Match, List<Rule>> bucket;
+        final PortNumber output;
+        final long created;
+        final long timeoutNanos;
+        final AtomicLong packets = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicBoolean removed = new AtomicBoolean();
+        volatile long lastHit;
+
+        Rule(FlowRule rule, Match match, ConcurrentMap<Match, List<Rule>> bucket, PortNumber output,
+             long created) {
+            this.rule = rule;
+            this.match = match;
+            this.bucket = bucket;
+            this.output = output;
+            this.created = created;
+            this.lastHit = created;
+            this.timeoutNanos = rule.isPermanent() ? 0 : TimeUnit.SECONDS.toNanos(rule.timeout());
+        }
+
+        boolean idle(long time) {
+            return timeoutNanos > 0 && time - lastHit > timeoutNanos;
+        }
+    }
+
+    /**
+     * Moves the trace clock of the calling thread on.
+     *
+     * @param time trace time in nanoseconds
+     */
+    void advance(long time) {
+        long[] now = threadClock.get();
+        if (now == null) {
+            now = new long[1];
+            threadClock.set(now);
+        }
+        now[0] = time;
+        clock = time;
+    }
+
+    private long now() {
+        long[] now = threadClock.get();
+        return now != null ? now[0] : clock;
+    }
+
+    /**
+     * Looks a packet up in the flow table of a switch, counting it against
+     * the rule it matches.
+     *
+     * @param at     switch port the packet arrives on
+     * @param eth    the packet
+     * @param length length of the packet in bytes
+     * @param time   trace time of the packet in nanoseconds
+     * @return port the matching rule sends the packet to, or null if no rule matches
+     */
+    PortNumber forward(ConnectPoint at, Ethernet eth, int length, long time) {
+        Table table = tables.get(at.deviceId());
+        if (table == null) {
+            return null;
+        }
+
+        Rule best = null;
+        for (Map.Entry<Set<Criterion.Type>, ConcurrentMap<Match, List<Rule>>> group
+                : table.exact.entrySet()) {
+            Match key = key(group.getKey(), at.port(), eth);
+            if (key != null) {
+                best = best(group.getValue().get(key), best, null, null, time);
+            }
+        }
+        for (List<Rule> rules : table.other.values()) {
+            best = best(rules, best, at.port(), eth, time);
+        }
+        if (best == null) {
+            return null;
+        }
+        best.packets.incrementAndGet();
+        best.bytes.addAndGet(length);
+        if (time > best.lastHit) {
+            best.lastHit = time;
+        }
+        return best.output;
+    }
+
+    // Picks the rule of highest priority, checking each against the packet
+    // unless the packet is null because they all match it
+    private Rule best(List<Rule> rules, Rule best, PortNumber inPort, Ethernet eth, long time) {
+        if (rules == null) {
+            return best;
+        }
+        for (Rule r : rules) {
+            if ((best != null && r.rule.priority() <= best.rule.priority())
+                    || (eth != null && !matches(r.rule.selector(), inPort, eth))) {
+                continue;
+            }
+            // a rule that timed out before this packet came is gone already
+            if (r.idle(time)) {
+                if (remove(r)) {
+                    expired.incrementAndGet();
+                }
+            } else {
+                best = r;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Removes the rules that have been idle for longer than their timeout.
+     * Does nothing if another thread is sweeping already.
+     *
+     * @param time trace time in nanoseconds that every thread has reached
+     */
+    void expire(long time) {
+        if (!sweepLock.tryLock()) {
+            return;
+        }
+        try {
+            for (Rule r : rules()) {
+                if (r.idle(time) && remove(r)) {
+                    expired.incrementAndGet();
+                }
+            }
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    /**
+     * Removes every rule, as if they all timed out.
+     */
+    void removeAll() {
+        for (Rule r : rules()) {
+            remove(r);
+        }
+    }
+
+    private List<Rule> rules() {
+        List<Rule> rules = new ArrayList<>();
+        for (Table table : tables.values()) {
+            table.exact.values().forEach(bucket -> bucket.values().forEach(rules::addAll));
+            table.other.values().forEach(rules::addAll);
+        }
+        return rules;
+    }
+
+    private boolean remove(Rule r) {
+        if (!r.removed.compareAndSet(false, true)) {
+            return false;
+        }
+        r.bucket.computeIfPresent(r.match, (key, rules) -> {
+            rules.remove(r);
+            return rules.isEmpty() ? null : rules;
+        });
+        byRule.remove(new FlowRuleKey(r.rule), r);
+        removed.incrementAndGet();
+
+        long life = TimeUnit.NANOSECONDS.toSeconds(Math.max(0, r.lastHit - r.created));
+        post(new FlowRuleEvent(FlowRuleEvent.Type.RULE_REMOVED,
+                               new DefaultFlowEntry(r.rule, FlowEntry.FlowEntryState.REMOVED, life,
+                                                    r.packets.get(), r.bytes.get())));
+        return true;
+    }
+
+    private void install(DeviceId deviceId, ForwardingObjective objective) {
+        FlowRule.Builder builder = DefaultFlowRule.builder()
+                .forDevice(deviceId)
+                .withSelector(objective.selector())
+                .withTreatment(objective.treatment())
+                .withPriority(objective.priority())
+                .fromApp(objective.appId());
+        if (objective.permanent()) {
+            builder.makePermanent();
+        } else {
+            builder.makeTemporary(objective.timeout());
+        }
+        install(builder.build(), objective.op() != Objective.Operation.REMOVE);
+    }
+
+    // Adds a rule, replacing any with the same match and priority, or only removes that one
+    private void install(FlowRule flowRule, boolean add) {
+        Table table = tables.computeIfAbsent(flowRule.deviceId(), d -> new Table());
+        ConcurrentMap<Match, List<Rule>> bucket = table.bucket(flowRule.selector());
+        Match key = new Match(flowRule.selector().criteria());
+
+        // a rule with the same match and priority replaces the one in the table
+        List<Rule> existing = bucket.get(key);
+        if (existing != null) {
+            for (Rule r : existing) {
+                if (r.rule.priority() == flowRule.priority() && remove(r)) {
+                    replaced.incrementAndGet();
+                }
+            }
+        }
+        if (!add) {
+            return;
+        }
+
+        Rule rule = new Rule(flowRule, key, bucket, output(flowRule.treatment()), now());
+        bucket.compute(key, (k, rules) -> {
+            List<Rule> list = rules == null ? new CopyOnWriteArrayList<>() : rules;
+            list.add(rule);
+            return list;
+        });
+        byRule.put(new FlowRuleKey(flowRule), rule);
+        installed.incrementAndGet();
+        post(new FlowRuleEvent(FlowRuleEvent.Type.RULE_ADDED, flowRule));
+    }
+
+    private void post(FlowRuleEvent event) {
+        for (FlowRuleListener listener : listeners) {
+            try {
+                listener.event(event);
+            } catch (RuntimeException e) {
+                listenerErrors.incrementAndGet();
+            }
+        }
+    }
+
+    static PortNumber output(TrafficTreatment treatment) {
+        PortNumber output = null;
+        for (Instruction instruction : treatment.allInstructions()) {
+            if (instruction.type() == Instruction.Type.OUTPUT) {
+                output = ((Instructions.OutputInstruction) instruction).port();
+            }
+        }
+        return output;
+    }
+
+    // Whether a selector only matches values the packet has to equal exactly
+    private static boolean isExact(TrafficSelector selector) {
+        for (Criterion c : selector.criteria()) {
+            if (!MATCHED.contains(c.type())) {
+                return false;
+            }
+            if (c instanceof IPCriterion) {
+                IpPrefix prefix = ((IPCriterion) c).ip();
+                if (prefix.prefixLength() != (prefix.isIp4() ? Ip4Prefix.MAX_MASK_LENGTH
+                        : Ip6Prefix.MAX_MASK_LENGTH)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // The packet's values of the given fields, or null if it lacks one of them
+    private static Match key(Set<Criterion.Type> fields, PortNumber inPort, Ethernet eth) {
+        Set<Criterion> key = new HashSet<>(fields.size() * 2);
+        for (Criterion.Type type : fields) {
+            Criterion c = criterion(type, inPort, eth);
+            if (c == null) {
+                return null;
+            }
+            key.add(c);
+        }
+        return new Match(key);
+    }
+
+    private static boolean matches(TrafficSelector selector, PortNumber inPort, Ethernet eth) {
+        for (Criterion c : selector.criteria()) {
+            Criterion value = criterion(c.type(), inPort, eth);
+            if (value == null) {
+                return false;
+            }
+            boolean match = c instanceof IPCriterion
+                    ? ((IPCriterion) c).ip().contains(((IPCriterion) value).ip())
+                    : c.equals(value);
+            if (!match) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Criterion matching the packet's value of a field the way the forwarding
+    // app builds it, or null if the packet has no such field or the field is
+    // not one the app matches
+    private static Criterion criterion(Criterion.Type type, PortNumber inPort, Ethernet eth) {
+        IPacket l3 = eth.getPayload();
+        IPv4 ip4 = l3 instanceof IPv4 ? (IPv4) l3 : null;
+        IPv6 ip6 = l3 instanceof IPv6 ? (IPv6) l3 : null;
+        IPacket l4 = ip4 != null ? ip4.getPayload() : ip6 != null ? ip6.getPayload() : null;
+
+        switch (type) {
+            case IN_PORT:
+                return Criteria.matchInPort(inPort);
+            case ETH_SRC:
+                return Criteria.matchEthSrc(eth.getSourceMAC());
+            case ETH_DST:
+                return Criteria.matchEthDst(eth.getDestinationMAC());
+            case ETH_TYPE:
+                return Criteria.matchEthType(eth.getEtherType());
+            case VLAN_VID:
+                return Criteria.matchVlanId(VlanId.vlanId(eth.getVlanID()));
+            case IPV4_SRC:
+                return ip4 == null ? null : Criteria.matchIPSrc(
+                        Ip4Prefix.valueOf(ip4.getSourceAddress(), Ip4Prefix.MAX_MASK_LENGTH));
+            case IPV4_DST:
+                return ip4 == null ? null : Criteria.matchIPDst(
+                        Ip4Prefix.valueOf(ip4.getDestinationAddress(), Ip4Prefix.MAX_MASK_LENGTH));
+            case IPV6_SRC:
+                return ip6 == null ? null : Criteria.matchIPv6Src(
+                        Ip6Prefix.valueOf(ip6.getSourceAddress(), Ip6Prefix.MAX_MASK_LENGTH));
+            case IPV6_DST:
+                return ip6 == null ? null : Criteria.matchIPv6Dst(
+                        Ip6Prefix.valueOf(ip6.getDestinationAddress(), Ip6Prefix.MAX_MASK_LENGTH));
+            case IPV6_FLABEL:
+                return ip6 == null ? null : Criteria.matchIPv6FlowLabel(ip6.getFlowLabel());
+            case IP_PROTO:
+                return ip4 != null ? Criteria.matchIPProtocol(ip4.getProtocol())
+                        : ip6 != null ? Criteria.matchIPProtocol(ip6.getNextHeader()) : null;
+            case IP_DSCP:
+                return ip4 == null ? null : Criteria.matchIPDscp(ip4.getDscp());
+            case IP_ECN:
+                return ip4 == null ? null : Criteria.matchIPEcn(ip4.getEcn());
+            case TCP_SRC:
+                return l4 instanceof TCP ? Criteria.matchTcpSrc(TpPort.tpPort(((TCP) l4).getSourcePort())) : null;
+            case TCP_DST:
+                return l4 instanceof TCP ? Criteria.matchTcpDst(TpPort.tpPort(((TCP) l4).getDestinationPort()))
+                        : null;
+            case UDP_SRC:
+                return l4 instanceof UDP ? Criteria.matchUdpSrc(TpPort.tpPort(((UDP) l4).getSourcePort())) : null;
+            case UDP_DST:
+                return l4 instanceof UDP ? Criteria.matchUdpDst(TpPort.tpPort(((UDP) l4).getDestinationPort()))
+                        : null;
+            case ICMPV4_TYPE:
+                return l4 instanceof ICMP ? Criteria.matchIcmpType(((ICMP) l4).getIcmpType()) : null;
+            case ICMPV4_CODE:
+                return l4 instanceof ICMP ? Criteria.matchIcmpCode(((ICMP) l4).getIcmpCode()) : null;
+            case ICMPV6_TYPE:
+                return l4 instanceof ICMP6 ? Criteria.matchIcmpv6Type(((ICMP6) l4).getIcmpType()) : null;
+            case ICMPV6_CODE:
+                return l4 instanceof ICMP6 ? Criteria.matchIcmpv6Code(((ICMP6) l4).getIcmpCode()) : null;
+            default:
+                return null;
+        }
+    }
+
+    long installed() {
+        return installed.get();
+    }
+
+    /**
+     * Returns the number of rules in the tables of all switches.
+     *
+     * @return number of rules
+     */
+    int size() {
+        return byRule.size();
+    }
+
+    void printStats(PrintStream out) {
+        out.println("Rules installed          : " + installed.get());
+        out.println("Rules replaced           : " + replaced.get());
+        out.println("Rules expired            : " + expired.get());
+        out.println("Rules removed            : " + removed.get());
+        if (listenerErrors.get() > 0) {
+            out.println("Listener errors          : " + listenerErrors.get());
+        }
+    }
+
+    // Installs forwarding objectives straight away and reports them done
+    final class ObjectiveService extends FlowObjectiveServiceAdapter {
+        @Override
+        public void forward(DeviceId deviceId, ForwardingObjective forwardingObjective) {
+            install(deviceId, forwardingObjective);
+            forwardingObjective.context().ifPresent(c -> c.onSuccess(forwardingObjective));
+        }
+    }
+
+    final class RuleService extends FlowRuleServiceAdapter {
+        @Override
+        public void addListener(FlowRuleListener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removeListener(FlowRuleListener listener) {
+            listeners.remove(listener);
+        }
+
+        @Override
+        public Iterable<FlowEntry> getFlowEntries(DeviceId deviceId) {
+            List<FlowEntry> entries = new ArrayList<>();
+            for (Rule r : rules()) {
+                if (r.rule.deviceId().equals(deviceId)) {
+                    long life = TimeUnit.NANOSECONDS.toSeconds(Math.max(0, r.lastHit - r.created));
+                    entries.add(new DefaultFlowEntry(r.rule, FlowEntry.FlowEntryState.ADDED, life,
+                                                     r.packets.get(), r.bytes.get()));
+                }
+            }
+            return entries;
+        }
+
+        @Override
+        public void removeFlowRules(FlowRule... flowRules) {
+            for (FlowRule flowRule : flowRules) {
+                Rule r = byRule.get(new FlowRuleKey(flowRule));
+                if (r != null) {
+                    remove(r);
+                }
+            }
+        }
+
+        @Override
+        public void apply(FlowRuleOperations ops) {
+            for (Set<FlowRuleOperation> stage : ops.stages()) {
+                for (FlowRuleOperation op : stage) {
+                    if (op.type() == FlowRuleOperation.Type.REMOVE) {
+                        removeFlowRules(op.rule());
+                    } else {
+                        install(op.rule(), true);
+                    }
+                }
+            }
+            if (ops.callback() != null) {
+                ops.callback().onSuccess(ops);
+            }
+        }
+
+        @Override
+        public void removeFlowRulesById(ApplicationId appId) {
+            for (Rule r : rules()) {
+                if (r.rule.appId() == appId.id()) {
+                    remove(r);
+                }
+            }
+        }
+    }
+}
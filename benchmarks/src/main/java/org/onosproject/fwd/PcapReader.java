@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the frames of a classic libpcap capture of an Ethernet link.
+ * Captures in the pcapng format have to be converted first, e.g. with
+ * {@code editcap -F pcap}.
+ */
+final class PcapReader {
+
+    private static final int MAGIC_MICROS = 0xa1b2c3d4;
+    private static final int MAGIC_NANOS = 0xa1b23c4d;
+    private static final int MAGIC_PCAPNG = 0x0a0d0d0a;
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int RECORD_HEADER = 16;
+
+    /**
+     * One captured frame.
+     */
+    static final class Frame {
+        final long time;
+        final int length;
+        final byte[] data;
+
+        Frame(long time, int length, byte[] data) {
+            this.time = time;
+            this.length = length;
+            this.data = data;
+        }
+    }
+
+    private PcapReader() {
+    }
+
+    /**
+     * Reads every frame of a capture into memory.
+     *
+     * @param file path of the capture
+     * @return the frames, in the order they were captured
+     * @throws IOException if the file cannot be read or is not a pcap capture of Ethernet frames
+     */
+    static List<Frame> read(String file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            byte[] header = new byte[24];
+            in.readFully(header);
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+
+            int magic = buffer.getInt(0);
+            if (magic == MAGIC_PCAPNG) {
+                throw new IOException(file + " is a pcapng capture; convert it with editcap -F pcap");
+            }
+            if (magic != MAGIC_MICROS && magic != MAGIC_NANOS) {
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                magic = buffer.getInt(0);
+                if (magic != MAGIC_MICROS && magic != MAGIC_NANOS) {
+                    throw new IOException(file + " is not a pcap capture");
+                }
+            }
+            long fractionNanos = magic == MAGIC_NANOS ? 1 : TimeUnit.MICROSECONDS.toNanos(1);
+            int linkType = buffer.getInt(20);
+            if (linkType != LINKTYPE_ETHERNET) {
+                throw new IOException(file + " has link type " + linkType + "; only Ethernet (1) is supported");
+            }
+
+            List<Frame> frames = new ArrayList<>();
+            byte[] recordHeader = new byte[RECORD_HEADER];
+            ByteBuffer record = ByteBuffer.wrap(recordHeader).order(buffer.order());
+            while (true) {
+                try {
+                    in.readFully(recordHeader);
+                } catch (EOFException e) {
+                    break;
+                }
+                long seconds = record.getInt(0) & 0xffffffffL;
+                long fraction = record.getInt(4) & 0xffffffffL;
+                int captured = record.getInt(8);
+                int length = record.getInt(12);
+                if (captured < 0 || captured > (1 << 18)) {
+                    throw new IOException(file + " has a frame of " + captured + " bytes at frame " + frames.size());
+                }
+
+                byte[] data = new byte[captured];
+                in.readFully(data);
+                frames.add(new Frame(TimeUnit.SECONDS.toNanos(seconds) + fraction * fractionNanos, length, data));
+            }
+            return frames;
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import in.ac.iitkgp.stan.FlowSeer;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPacket;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.IPv6;
+import org.onlab.packet.TCP;
+import org.onlab.packet.UDP;
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.Link;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.packet.DefaultInboundPacket;
+import org.onosproject.net.packet.DefaultPacketContext;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.PacketProcessor;
+import org.onosproject.store.service.TestStorageService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replays a packet capture through the forwarding app as fast as it can
+ * process it.
+ * <p>
+ * Every host seen in the capture is attached to a switch of a
+ * {@link BenchmarkNetwork}, and the packets are walked from their source's
+ * switch towards their destination. Switches forward the packets that match
+ * a rule of their {@link EmulatedDataPlane}; any other packet is handed to
+ * the app's packet processor as a packet-in, and sent on wherever the app
+ * sends it. Rules are installed as soon as the app asks for them and time
+ * out in the time of the capture, so after the first packets of a flow the
+ * rest never reach the app, and FlowSeer trains on the rules that time out.
+ * <p>
+ * The packets are split among the threads by the pair of hosts they are
+ * between, so each conversation is replayed in order. The replay reports
+ * the rate of packets, packet-ins and flows, the latency of packet-ins and
+ * the counters of the app and of FlowSeer.
+ */
+public final class PcapReplay {
+
+    private static final String USAGE =
+            "Usage: PcapReplay [--threads n] [--switches n] [--flowseer k] [--set name=value]... capture.pcap";
+
+    // packets are looked at by no more than this many switches per switch of the network
+    private static final int HOPS_PER_SWITCH = 2;
+    // frames each thread replays between sweeps of idle rules
+    private static final int SWEEP_INTERVAL = 4096;
+
+    private final BenchmarkNetwork network;
+    private final EmulatedDataPlane dataPlane = new EmulatedDataPlane();
+    private final ReactiveForwarding fwd = new ReactiveForwarding();
+    private final Histogram packetInLatency = new Histogram();
+
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder packetIns = new LongAdder();
+    private final LongAdder switched = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder flooded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    // trace time each thread has reached, so that idle rules are only swept
+    // once every thread is past them
+    private AtomicLongArray progress;
+
+    private PcapReplay(int switches) {
+        network = new BenchmarkNetwork(switches);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = 1;
+        int switches = 4;
+        int flowSeerK = 0;
+        BenchmarkNetwork.Context context = new BenchmarkNetwork.Context()
+                .set("objectiveBatchWindow", 0)
+                .set("flowSeerClassifier", "embedded");
+        String file = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--switches":
+                        switches = Integer.parseInt(args[++i]);
+                        break;
+                    case "--flowseer":
+                        flowSeerK = Integer.parseInt(args[++i]);
+                        break;
+                    case "--set":
+                        String[] property = args[++i].split("=", 2);
+                        if (property.length != 2) {
+                            throw new IllegalArgumentException("Expected name=value: " + args[i]);
+                        }
+                        context.set(property[0], property[1]);
+                        break;
+                    default:
+                        if (file != null || args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+                        file = args[i];
+                        break;
+                }
+            }
+            if (file == null || threads < 1 || switches < 2) {
+                throw new IllegalArgumentException("A capture, at least one thread and two switches are needed");
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.err.println("Missing value of " + args[args.length - 1]);
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        new PcapReplay(switches).run(file, threads, flowSeerK, context);
+        System.exit(0);
+    }
+
+    private void run(String file, int threads, int flowSeerK, BenchmarkNetwork.Context context)
+            throws IOException, InterruptedException {
+        List<PcapReader.Frame> frames = PcapReader.read(file);
+
+        // parse the capture up front, so that the replay only measures the app
+        List<List<Packet>> partitions = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        Set<Long> flows = new HashSet<>();
+        long unparsed = 0;
+        for (PcapReader.Frame frame : frames) {
+            Ethernet eth;
+            try {
+                eth = Ethernet.deserializer().deserialize(frame.data, 0, frame.data.length);
+            } catch (Exception e) {
+                unparsed++;
+                continue;
+            }
+            if (eth.getSourceMAC().isMulticast()) {
+                unparsed++;
+                continue;
+            }
+            ConnectPoint source = network.attach(eth.getSourceMAC());
+            if (!eth.getDestinationMAC().isMulticast()) {
+                network.attach(eth.getDestinationMAC());
+            }
+            flows.add(flowHash(eth, true));
+            int thread = (int) ((flowHash(eth, false) >>> 1) % threads);
+            partitions.get(thread).add(new Packet(frame, eth, source));
+        }
+        long packetCount = frames.size() - unparsed;
+        System.out.printf("Read %d frames (%d skipped), %d flows between %d hosts%n",
+                          frames.size(), unparsed, flows.size(), network.hostService.getHostCount());
+
+        if (context.getProperties().get("flowSeerMaxFlows") == null) {
+            context.set("flowSeerMaxFlows", Math.max(flows.size(), 1));
+        }
+        activate(context, flowSeerK);
+        PacketProcessor processor = network.packetService.processor;
+        progress = new AtomicLongArray(threads);
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (List<Packet> partition : partitions) {
+            int slot = workers.size();
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                replay(partition, processor, slot);
+            }, "replay-" + slot);
+            workers.add(worker);
+            worker.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        // the rules left in the tables time out after the capture ends
+        dataPlane.removeAll();
+
+        System.out.printf("Replayed %d packets on %d threads in %.3f s%n", packetCount, threads, seconds);
+        System.out.printf("Packets                  : %d (%.0f/s)%n", packets.sum(), packets.sum() / seconds);
+        System.out.printf("Packet-ins               : %d (%.0f/s)%n", packetIns.sum(), packetIns.sum() / seconds);
+        System.out.printf("Flows                    : %d (%.0f/s)%n", flows.size(), flows.size() / seconds);
+        System.out.printf("Rules installed          : %d (%.0f/s)%n",
+                          dataPlane.installed(), dataPlane.installed() / seconds);
+        System.out.println("Switched by rules        : " + switched.sum());
+        System.out.println("Delivered                : " + delivered.sum());
+        System.out.println("Flooded                  : " + flooded.sum());
+        System.out.println("Dropped                  : " + dropped.sum());
+        System.out.println("Packet-in latency (us)   : " + packetInLatency.summary(1000));
+        dataPlane.printStats(System.out);
+        fwd.printStats(System.out);
+
+        FlowSeer seer = fwd.flowSeer;
+        if (seer != null) {
+            seer.getFlowDataList().printStats(System.out);
+            seer.getClassifier().printStats(System.out);
+            fwd.stopFlowSeer();
+        }
+        fwd.deactivate();
+    }
+
+    private void activate(BenchmarkNetwork.Context context, int flowSeerK) {
+        fwd.topologyService = network.topologyService;
+        fwd.packetService = network.packetService;
+        fwd.hostService = network.hostService;
+        fwd.flowObjectiveService = dataPlane.flowObjectiveService;
+        fwd.flowRuleService = dataPlane.flowRuleService;
+        fwd.coreService = network.coreService;
+        fwd.cfgService = new ComponentConfigAdapter();
+        fwd.storageService = new TestStorageService();
+        fwd.activate(context);
+
+        if (flowSeerK > 0 && !fwd.startFlowSeer(flowSeerK, 1, 1, "localhost", 0, 0)) {
+            throw new IllegalStateException("FlowSeer did not start");
+        }
+    }
+
+    private void replay(List<Packet> partition, PacketProcessor processor, int slot) {
+        int maxHops = HOPS_PER_SWITCH * network.switches();
+        int sinceSweep = 0;
+        for (Packet packet : partition) {
+            long time = packet.frame.time;
+            dataPlane.advance(time);
+            if (++sinceSweep == SWEEP_INTERVAL) {
+                sinceSweep = 0;
+                progress.set(slot, time);
+                dataPlane.expire(slowest());
+            }
+            packets.increment();
+            walk(packet, processor, maxHops, time);
+        }
+        // a thread that is done holds back no sweeps
+        progress.set(slot, Long.MAX_VALUE);
+    }
+
+    private long slowest() {
+        long time = Long.MAX_VALUE;
+        for (int i = 0; i < progress.length(); i++) {
+            time = Math.min(time, progress.get(i));
+        }
+        return time;
+    }
+
+    // Forwards one packet switch by switch until it leaves the network
+    private void walk(Packet packet, PacketProcessor processor, int maxHops, long time) {
+        ConnectPoint at = packet.source;
+        for (int hop = 0; hop < maxHops; hop++) {
+            PortNumber output = dataPlane.forward(at, packet.eth, packet.frame.length, time);
+            if (output != null) {
+                switched.increment();
+            } else {
+                output = packetIn(at, packet, processor, time);
+                if (PortNumber.TABLE.equals(output)) {
+                    output = dataPlane.forward(at, packet.eth, packet.frame.length, time);
+                }
+            }
+
+            if (output == null || PortNumber.TABLE.equals(output)) {
+                dropped.increment();
+                return;
+            }
+            if (PortNumber.FLOOD.equals(output)) {
+                flooded.increment();
+                return;
+            }
+            Link link = network.link(new ConnectPoint(at.deviceId(), output));
+            if (link == null) {
+                delivered.increment();
+                return;
+            }
+            at = link.dst();
+        }
+        // caught in a loop
+        dropped.increment();
+    }
+
+    private PortNumber packetIn(ConnectPoint at, Packet packet, PacketProcessor processor, long time) {
+        InboundPacket inbound = new DefaultInboundPacket(at, packet.eth, ByteBuffer.wrap(packet.frame.data));
+        ReplayContext context = new ReplayContext(TimeUnit.NANOSECONDS.toMillis(time), inbound);
+
+        long start = System.nanoTime();
+        processor.process(context);
+        packetInLatency.record(System.nanoTime() - start);
+        packetIns.increment();
+        return context.output;
+    }
+
+    // Hashes the addresses and ports of a packet, either as sent or regardless of direction
+    private static long flowHash(Ethernet eth, boolean directional) {
+        long src = eth.getSourceMAC().toLong();
+        long dst = eth.getDestinationMAC().toLong();
+        long protocol = eth.getEtherType();
+
+        IPacket l3 = eth.getPayload();
+        IPacket l4 = null;
+        if (l3 instanceof IPv4) {
+            IPv4 ip = (IPv4) l3;
+            src = src * 31 + ip.getSourceAddress();
+            dst = dst * 31 + ip.getDestinationAddress();
+            protocol = protocol * 31 + ip.getProtocol();
+            l4 = ip.getPayload();
+        } else if (l3 instanceof IPv6) {
+            IPv6 ip = (IPv6) l3;
+            src = src * 31 + Arrays.hashCode(ip.getSourceAddress());
+            dst = dst * 31 + Arrays.hashCode(ip.getDestinationAddress());
+            protocol = protocol * 31 + ip.getNextHeader();
+            l4 = ip.getPayload();
+        }
+        if (l4 instanceof TCP) {
+            src = src * 31 + ((TCP) l4).getSourcePort();
+            dst = dst * 31 + ((TCP) l4).getDestinationPort();
+        } else if (l4 instanceof UDP) {
+            src = src * 31 + ((UDP) l4).getSourcePort();
+            dst = dst * 31 + ((UDP) l4).getDestinationPort();
+        }
+
+        long hash = directional ? src * 0x9E3779B97F4A7C15L + dst : (src ^ dst) + src * dst;
+        return (hash ^ protocol) * 0xC2B2AE3D27D4EB4FL;
+    }
+
+    private static final class Packet {
+        final PcapReader.Frame frame;
+        final Ethernet eth;
+        final ConnectPoint source;
+
+        Packet(PcapReader.Frame frame, Ethernet eth, ConnectPoint source) {
+            this.frame = frame;
+            this.eth = eth;
+            this.source = source;
+        }
+    }
+
+    // Keeps the port the app sends the packet out of
+    private static final class ReplayContext extends DefaultPacketContext {
+        private PortNumber output;
+
+        ReplayContext(long time, InboundPacket inPkt) {
+            super(time, inPkt, null, false);
+        }
+
+        @Override
+        public void send() {
+            if (!block()) {
+                output = EmulatedDataPlane.output(treatmentBuilder().build());
+            }
+        }
+    }
+}
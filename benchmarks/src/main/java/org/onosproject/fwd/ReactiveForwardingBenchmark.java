@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.Link;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.net.packet.DefaultInboundPacket;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.PacketContext;
+import org.onosproject.store.service.TestStorageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packet-in processing of the forwarding app against stub services.
+ * <p>
+ * The app is configured to match addresses and ports, so every packet is a
+ * flow of its own, and to submit objectives straight away without waiting
+ * for their rules, so that every packet goes all the way through
+ * {@code installRule}. With the {@code egress} scenario packets arrive at
+ * the destination's switch, which forwards them without looking up a path;
+ * this measures {@code installRule} on its own. The {@code path} scenario
+ * adds the path lookup of a packet arriving at the first switch, and then
+ * takes the packet on along the line of switches to the destination,
+ * through the flow tables of an {@link EmulatedDataPlane}. Every switch
+ * without a rule for the flow hands the packet to the app again, so one
+ * operation is the whole first packet of a flow. With
+ * {@code installPathRules} the first switch installs the rules of the
+ * switches after it, which the packet then matches. The packet-ins taken
+ * per flow are printed at the end of each trial; {@code installPathRules}
+ * only makes a difference to the {@code path} scenario.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReactiveForwardingBenchmark {
+
+    @Param({"1", "1000", "100000"})
+    int flows;
+
+    @Param({"egress", "path"})
+    String scenario;
+
+    @Param({"0", "10"})
+    int flowSeerK;
+
+    @Param({"4"})
+    int switches;
+
+    @Param({"false", "true"})
+    boolean installPathRules;
+
+    // time a rule stays in an emulated switch without matching a packet
+    private static final long RULE_TIMEOUT = TimeUnit.SECONDS.toNanos(ReactiveForwarding.DEFAULT_TIMEOUT);
+
+    private ReactiveForwarding fwd;
+    private BenchmarkNetwork network;
+    private EmulatedDataPlane dataPlane;
+    private InboundPacket[] packets;
+    private int next;
+    // trace time of the emulated switches, moved past the timeout of every
+    // rule whenever the packets start over, so that each flow starts afresh
+    private long clock;
+    private long walked;
+    private long packetIns;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        network = new BenchmarkNetwork(switches);
+        packets = network.packets(flows, "path".equals(scenario) ? network.ingress() : network.egress());
+
+        fwd = new ReactiveForwarding();
+        fwd.topologyService = network.topologyService;
+        fwd.packetService = network.packetService;
+        fwd.hostService = network.hostService;
+        if ("path".equals(scenario)) {
+            dataPlane = new EmulatedDataPlane();
+            fwd.flowObjectiveService = dataPlane.flowObjectiveService;
+            fwd.flowRuleService = dataPlane.flowRuleService;
+        } else {
+            fwd.flowObjectiveService = network.flowObjectiveService;
+            fwd.flowRuleService = new FlowRuleServiceAdapter();
+        }
+        fwd.coreService = network.coreService;
+        fwd.cfgService = new ComponentConfigAdapter();
+        fwd.storageService = new TestStorageService();
+
+        fwd.activate(new BenchmarkNetwork.Context()
+                             .set("matchIpv4Address", true)
+                             .set("matchTcpUdpPorts", true)
+                             .set("objectiveBatchWindow", 0)
+                             .set("pendingInstallTimeout", 0)
+                             .set("installPathRules", installPathRules)
+                             .set("flowSeerMaxFlows", Math.max(flows, 1))
+                             .set("flowSeerEvictOldest", true)
+                             .set("flowSeerClassifier", "embedded"));
+
+        if (flowSeerK > 0 && !fwd.startFlowSeer(flowSeerK, 1, 1, "localhost", 0, 0)) {
+            throw new IllegalStateException("FlowSeer did not start");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (walked > 0) {
+            System.out.printf("Packet-ins per flow: %.2f over %d switches%n",
+                              (double) packetIns / walked, switches);
+        }
+        if (flowSeerK > 0) {
+            fwd.stopFlowSeer();
+        }
+        fwd.deactivate();
+    }
+
+    private InboundPacket nextPacket() {
+        if (next == 0 && dataPlane != null) {
+            // the rules of the previous round are idle by now
+            clock += RULE_TIMEOUT + 1;
+            dataPlane.advance(clock);
+        }
+        InboundPacket packet = packets[next];
+        next = next + 1 == packets.length ? 0 : next + 1;
+        return packet;
+    }
+
+    /**
+     * Hands one packet-in to the app's packet processor, and in the path
+     * scenario to every further switch that has no rule for it.
+     *
+     * @return the last packet-in, so that it is not optimised away
+     */
+    @Benchmark
+    public PacketContext process() {
+        InboundPacket packet = nextPacket();
+        if (dataPlane != null) {
+            return walk(packet);
+        }
+        PacketContext context = BenchmarkNetwork.context(packet);
+        network.packetService.processor.process(context);
+        return context;
+    }
+
+    // Takes a packet from switch to switch until it leaves the network
+    private PacketContext walk(InboundPacket packet) {
+        int length = packet.unparsed().remaining();
+        ConnectPoint at = packet.receivedFrom();
+        PacketContext context = null;
+        walked++;
+        for (int hop = 0; hop < switches; hop++) {
+            PortNumber output = dataPlane.forward(at, packet.parsed(), length, clock);
+            if (output == null) {
+                context = BenchmarkNetwork.context(
+                        new DefaultInboundPacket(at, packet.parsed(), packet.unparsed()));
+                network.packetService.processor.process(context);
+                packetIns++;
+                output = EmulatedDataPlane.output(context.treatmentBuilder().build());
+            }
+            Link link = output == null ? null : network.link(new ConnectPoint(at.deviceId(), output));
+            if (link == null) {
+                break;
+            }
+            at = link.dst();
+        }
+        return context;
+    }
+}
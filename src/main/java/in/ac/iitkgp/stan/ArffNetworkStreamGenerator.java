@@ -1,20 +1,163 @@
 package in.ac.iitkgp.stan;
 
+import org.slf4j.Logger;
+
 import java.io.*;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.onlab.util.Tools.groupedThreads;
+import static org.slf4j.LoggerFactory.getLogger;
 
+/**
+ * Stream of training or testing records to the classifier.
+ * <p>
+ * Records are encoded into pooled direct buffers by the caller and written to
+ * a non-blocking socket channel by a dedicated I/O thread, so a slow or
+ * restarting classifier never blocks the caller. When the connection is lost
+ * the I/O thread reconnects with exponential backoff and sends the headers
+ * again; records that arrive while there is no connection, or when every
+ * buffer is waiting to be written, are dropped and counted.
+ * <p>
+ * If a {@link ReplyListener} is set, the classifier's answers are read by the
+ * same I/O thread and matched to the records they answer, so any number of
+ * records can await an answer without holding up the caller.
+ */
 public class ArffNetworkStreamGenerator
 {
+    /**
+     * State of the connection to the classifier.
+     */
+    public enum State
+    {
+        /** Not connected, waiting for the next connection attempt. */
+        DISCONNECTED,
+        /** Connection attempt in progress. */
+        CONNECTING,
+        /** Waiting for the classifier to accept binary framing. */
+        NEGOTIATING,
+        /** Headers sent, records are being written. */
+        CONNECTED,
+        /** Disconnected for good. */
+        CLOSED
+    }
+
+    /**
+     * Receives the classifier's answers to the records sent on a stream.
+     */
+    public interface ReplyListener
+    {
+        /**
+         * Called on the I/O thread for every answer that matches a record.
+         *
+         * @param tag     the tag the record was sent with
+         * @param label   class predicted by the classifier
+         * @param latency time from sending the record to receiving the answer (ns)
+         */
+        void reply(Object tag, char label, long latency);
+    }
+
+    // size of each pooled write buffer
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // write buffers per stream; records are dropped once all of them are waiting to be written
+    private static final int MAX_BUFFERS = 32;
+    // buffered bytes after which the buffer is handed to the I/O thread
+    private static final int FLUSH_BYTES = 32 * 1024;
+    // time after which buffered records are flushed (ns)
+    private static final long FLUSH_INTERVAL = 10 * 1000 * 1000;
+    // time to wait for the classifier to accept binary framing (ms)
+    private static final int NEGOTIATION_TIMEOUT = 1000;
+    // time allowed for a connection attempt (ms)
+    private static final int CONNECT_TIMEOUT = 5000;
+    // delay before reconnecting, doubled after every failed attempt up to the maximum (ms)
+    private static final long INITIAL_BACKOFF = 100;
+    private static final long MAX_BACKOFF = 30 * 1000;
+    // how often the I/O thread checks its timers (ms)
+    private static final long SELECT_INTERVAL = 100;
+    // time allowed for buffered records to be written on disconnect (ms)
+    private static final long DRAIN_TIMEOUT = 1000;
+    // records awaiting an answer; older ones are forgotten (power of 2)
+    private static final int MAX_IN_FLIGHT = 1 << 16;
+
+    private final Logger log = getLogger(getClass());
+
     private String host;
     private int port;
     private String relationName;
     private String attributes[][];
     private char lineEnding;
-    private boolean hasSentHeaders;
-    private Socket socket;
-    private DataInputStream in;
-    private DataOutputStream out;
-    private BufferedReader br;
+    // binary framing is offered when requested and used once the classifier accepts it
+    private boolean binaryRequested;
+    private volatile boolean binary;
+    private volatile State state = State.DISCONNECTED;
+    // sent after the headers on every connection
+    private FlowRecord dummyRecord;
+
+    // owned by the I/O thread
+    private Thread ioThread;
+    private volatile boolean running;
+    private Selector selector;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private ByteBuffer control;     // offer or headers, written before any record
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(4096);
+    private final StringBuilder reply = new StringBuilder();
+    private long deadline;
+    private long nextAttempt;
+    private long backoff = INITIAL_BACKOFF;
+    private boolean wasConnected;
+    private CountDownLatch firstAttempt;
+
+    // filled buffers waiting for the I/O thread, guarded by itself
+    private final DirectBufferPool pool = new DirectBufferPool(BUFFER_SIZE, MAX_BUFFERS);
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<ByteBuffer>();
+    // incremented on every connection, so that buffers encoded for an earlier one are never sent
+    private volatile int epoch;
+
+    // buffer being filled by the caller, guarded by this
+    private ByteBuffer current;
+    private int currentEpoch;
+    private boolean currentBinary;
+    private int currentRecords;
+    private final StringBuilder record = new StringBuilder(256);
+    private long lastFlush;
+
+    // records sent on the current connection that await an answer, guarded by inFlightLock
+    private ReplyListener replyListener;
+    private final Object inFlightLock = new Object();
+    private Object inFlightTags[];
+    private long inFlightSent[];
+    private int nextRecord;
+
+    // partly received answer, owned by the I/O thread
+    private final byte replyFrame[] = new byte[BinaryRecordFormat.VERDICT_SIZE];
+    private int replyLength;
+    // ARFF answers arrive in the order of the records
+    private int nextReply;
+
+    private final AtomicLong recordsSent = new AtomicLong();
+    private final AtomicLong recordsDropped = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong bytesDiscarded = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong replies = new AtomicLong();
+    private final AtomicLong elephants = new AtomicLong();
+    private final AtomicLong unmatchedReplies = new AtomicLong();
+    private final AtomicLong abandonedRecords = new AtomicLong();
+    private final AtomicLong totalReplyLatency = new AtomicLong();
+    private final AtomicLong maxReplyLatency = new AtomicLong();
+    private volatile String lastError;
 
     public ArffNetworkStreamGenerator(String host, int port, String relationName, String attributes[][])
     {
@@ -23,7 +166,6 @@ public class ArffNetworkStreamGenerator
         this.relationName = relationName;
         this.attributes = attributes;
         this.lineEnding = (char)10;     // LF character '\n'
-        this.hasSentHeaders = false;
     }
 
     public ArffNetworkStreamGenerator(String host, int port, String relationName, String attributes[][], char lineEnding)
@@ -33,155 +175,795 @@ public class ArffNetworkStreamGenerator
         this.relationName = relationName;
         this.attributes = attributes;
         this.lineEnding = lineEnding;
-        this.hasSentHeaders = false;
     }
 
-    private void sendHeaders()
+    public ArffNetworkStreamGenerator(String host, int port, String relationName, String attributes[][], boolean binary)
     {
-        if (!hasSentHeaders)
+        this(host, port, relationName, attributes);
+        this.binaryRequested = binary;
+    }
+
+    public boolean isBinary()
+    {
+        return binary;
+    }
+
+    public State getState()
+    {
+        return state;
+    }
+
+    /**
+     * Sets the listener for the classifier's answers. Must be called before
+     * {@link #connect(FlowRecord)}; without a listener answers are discarded.
+     *
+     * @param replyListener the listener
+     */
+    public void setReplyListener(ReplyListener replyListener)
+    {
+        this.replyListener = replyListener;
+        this.inFlightTags = new Object[MAX_IN_FLIGHT];
+        this.inFlightSent = new long[MAX_IN_FLIGHT];
+    }
+
+    /**
+     * Connects to the classifier and keeps the connection up until
+     * {@link #disconnect()} is called.
+     *
+     * @param dummyRecord record sent after the headers on every connection
+     * @return true if the first connection attempt succeeded
+     */
+    public boolean connect(FlowRecord dummyRecord)
+    {
+        this.dummyRecord = dummyRecord;
+        this.state = State.DISCONNECTED;
+        this.backoff = INITIAL_BACKOFF;
+        this.nextAttempt = 0;
+        this.wasConnected = false;
+
+        try
         {
-            StringBuilder sb = new StringBuilder();
+            selector = Selector.open();
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to open selector for classifier at {}:{}", host, port, e);
+            return false;
+        }
 
-            sb.append("@relation ").append(relationName).append(lineEnding);
-            sb.append(lineEnding);
+        firstAttempt = new CountDownLatch(1);
+        running = true;
+        ioThread = groupedThreads("onos/flowseer", "classifier-io-" + port, log).newThread(this::run);
+        ioThread.start();
 
-            for (int i=0; i<attributes.length; i++)
+        try
+        {
+            firstAttempt.await(CONNECT_TIMEOUT + NEGOTIATION_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if (state != State.CONNECTED)
+        {
+            log.warn("Unable to connect to classifier at {}:{}: {}", host, port, lastError);
+            disconnect();
+            return false;
+        }
+        return true;
+    }
+
+    public void disconnect()
+    {
+        flush();
+
+        long end = System.currentTimeMillis() + DRAIN_TIMEOUT;
+        while (state == State.CONNECTED && hasQueued() && System.currentTimeMillis() < end)
+        {
+            try
             {
-                sb.append("@attribute ").append(attributes[i][0]).append(' ').append(attributes[i][1]).append(lineEnding);
+                Thread.sleep(10);
             }
-            sb.append(lineEnding);
-            sb.append("@data").append(lineEnding);
-            sb.append(lineEnding);
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
 
+        running = false;
+        if (ioThread != null)
+        {
+            selector.wakeup();
             try
             {
-                out.writeBytes(sb.toString());
-                hasSentHeaders = true;
+                ioThread.join(DRAIN_TIMEOUT);
             }
-            catch (IOException e)
+            catch (InterruptedException e)
             {
-                e.printStackTrace();
+                Thread.currentThread().interrupt();
             }
+            ioThread = null;
         }
+
+        synchronized (this)
+        {
+            discardCurrent();
+        }
+        discardQueued();
+        state = State.CLOSED;
     }
 
-    public boolean connect(String dummyData[])
+    public void sendRecord(FlowRecord flowRecord)
     {
-        try
+        sendRecord(flowRecord, null);
+    }
+
+    /**
+     * Sends a record, remembering the tag to hand to the reply listener
+     * together with the classifier's answer.
+     *
+     * @param flowRecord the record
+     * @param tag        the tag, or null
+     */
+    public synchronized void sendRecord(FlowRecord flowRecord, Object tag)
+    {
+        if (state != State.CONNECTED)
+        {
+            discardCurrent();
+            recordsDropped.incrementAndGet();
+            return;
+        }
+
+        if (!ensureBuffer())
+        {
+            // every buffer is waiting to be written, the classifier is not keeping up
+            recordsDropped.incrementAndGet();
+            return;
+        }
+
+        if (!encode(flowRecord))
         {
-            socket = new Socket(host, port);
-            in = new DataInputStream(socket.getInputStream());
-            out = new DataOutputStream(socket.getOutputStream());
-            br = new BufferedReader(new InputStreamReader(in));
-            sendHeaders();
-            sendData(dummyData);
+            // the record does not fit, hand over what has been buffered so far
+            flush();
+            if (!ensureBuffer() || !encode(flowRecord))
+            {
+                recordsDropped.incrementAndGet();
+                return;
+            }
+        }
+
+        if (replyListener != null && !track(tag))
+        {
+            // the connection was re-established while the record was encoded
+            recordsDropped.incrementAndGet();
+            return;
+        }
+        currentRecords++;
+
+        if (current.position() >= FLUSH_BYTES)
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Flushes buffered records if they have been waiting for longer than the flush interval.
+     */
+    public synchronized void flushIfDue()
+    {
+        if (current != null && current.position() > 0 && System.nanoTime() - lastFlush >= FLUSH_INTERVAL)
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Hands all buffered records to the I/O thread.
+     */
+    public synchronized void flush()
+    {
+        lastFlush = System.nanoTime();
+        if (current == null || current.position() == 0)
+        {
+            return;
+        }
+
+        ByteBuffer buffer = current;
+        int records = currentRecords;
+        current = null;
+        buffer.flip();
+
+        boolean queued;
+        synchronized (outbound)
+        {
+            queued = state == State.CONNECTED && currentEpoch == epoch;
+            if (queued)
+            {
+                outbound.add(buffer);
+            }
+        }
+
+        if (queued)
+        {
+            recordsSent.addAndGet(records);
+            selector.wakeup();
+        }
+        else
+        {
+            recordsDropped.addAndGet(records);
+            pool.release(buffer);
+        }
+    }
+
+    private boolean ensureBuffer()
+    {
+        if (current != null && currentEpoch != epoch)
+        {
+            // the connection was re-established since the buffer was started
+            discardCurrent();
+        }
+
+        if (current == null)
+        {
+            current = pool.acquire();
+            if (current == null)
+            {
+                return false;
+            }
+            currentEpoch = epoch;
+            currentBinary = binary;
+            currentRecords = 0;
+        }
+        return true;
+    }
+
+    private void discardCurrent()
+    {
+        if (current != null)
+        {
+            recordsDropped.addAndGet(currentRecords);
+            pool.release(current);
+            current = null;
+        }
+    }
+
+    // Writes the record into the current buffer, unless it does not fit
+    private boolean encode(FlowRecord flowRecord)
+    {
+        if (currentBinary)
+        {
+            if (current.remaining() < BinaryRecordFormat.frameSize(flowRecord.k()))
+            {
+                return false;
+            }
+            BinaryRecordFormat.writeRecord(current, flowRecord);
             return true;
         }
-        catch (IOException e)
+
+        record.setLength(0);
+        flowRecord.appendArff(record);
+        record.append(lineEnding);
+        record.append(lineEnding);
+
+        // the record is written as one byte per character, just like writeBytes()
+        int n = record.length();
+        if (current.remaining() < n)
         {
-            e.printStackTrace();
             return false;
         }
+        for (int i = 0; i < n; i++)
+        {
+            current.put((byte) record.charAt(i));
+        }
+        return true;
     }
 
-    public void disconnect()
+    // Numbers the record just encoded and remembers its tag until it is answered
+    private boolean track(Object tag)
     {
-        try
+        synchronized (inFlightLock)
         {
-            if (out != null) out.close();
-            if (in != null) in.close();
-            if (socket != null) socket.close();
+            if (currentEpoch != epoch)
+            {
+                return false;
+            }
+
+            int slot = nextRecord & (MAX_IN_FLIGHT - 1);
+            if (inFlightTags[slot] != null)
+            {
+                // never answered
+                abandonedRecords.incrementAndGet();
+            }
+            inFlightTags[slot] = tag;
+            inFlightSent[slot] = System.nanoTime();
+            nextRecord++;
+            return true;
         }
-        catch (IOException e)
+    }
+
+    // Forgets the records of a connection that has ended.
+    // Must be called with inFlightLock held.
+    private void abandonInFlight()
+    {
+        if (inFlightTags != null)
         {
-            e.printStackTrace();
+            for (int i = 0; i < inFlightTags.length; i++)
+            {
+                if (inFlightTags[i] != null)
+                {
+                    inFlightTags[i] = null;
+                    abandonedRecords.incrementAndGet();
+                }
+            }
         }
+        nextRecord = 0;
     }
 
-    public void sendData(String data[])
+    private boolean hasQueued()
     {
-        // send the headers first if not sent
-        sendHeaders();
+        synchronized (outbound)
+        {
+            return !outbound.isEmpty();
+        }
+    }
 
-        StringBuilder sb = new StringBuilder();
+    private long discardQueued()
+    {
+        long discarded = 0;
+        synchronized (outbound)
+        {
+            for (ByteBuffer buffer : outbound)
+            {
+                discarded += buffer.remaining();
+                pool.release(buffer);
+            }
+            outbound.clear();
+        }
+        bytesDiscarded.addAndGet(discarded);
+        return discarded;
+    }
 
-        for (int i = 0; i < data.length - 1; i++)
+    private void run()
+    {
+        while (running)
         {
-            sb.append(data[i]);
-            sb.append(',');
+            try
+            {
+                selector.select(SELECT_INTERVAL);
+                if (key != null && selector.selectedKeys().remove(key) && key.isValid())
+                {
+                    if (key.isConnectable())
+                    {
+                        finishConnect();
+                    }
+                    if (key != null && key.isValid() && key.isReadable())
+                    {
+                        read();
+                    }
+                }
+                checkTimers();
+                if (key != null && state == State.CONNECTED)
+                {
+                    write();
+                }
+            }
+            catch (IOException e)
+            {
+                connectionLost(e);
+            }
         }
-        sb.append(data[data.length-1]);
-        sb.append(lineEnding);
-        sb.append(lineEnding);
 
+        closeChannel();
         try
         {
-            out.writeBytes(sb.toString());
+            selector.close();
+        }
+        catch (IOException e)
+        {
+            log.debug("Unable to close selector", e);
         }
-        catch (IOException ex)
+    }
+
+    private void checkTimers() throws IOException
+    {
+        long now = System.currentTimeMillis();
+        switch (state)
         {
-            ex.printStackTrace();
+            case DISCONNECTED:
+                if (now >= nextAttempt)
+                {
+                    openChannel();
+                }
+                break;
+            case CONNECTING:
+                if (now >= deadline)
+                {
+                    throw new SocketTimeoutException("Connection timed out");
+                }
+                break;
+            case NEGOTIATING:
+                if (now >= deadline)
+                {
+                    // no answer, the classifier only understands ARFF
+                    established(false);
+                }
+                break;
+            default:
+                break;
         }
     }
 
-    public boolean receiveBoolean()
+    private void openChannel()
     {
-        String s;
+        state = State.CONNECTING;
+        deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
         try
         {
-            s = br.readLine();
-            if (s.equals("1"))
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            if (channel.connect(new InetSocketAddress(host, port)))
             {
-                return true;
+                key = channel.register(selector, SelectionKey.OP_READ);
+                connected();
             }
             else
             {
-                return false;
+                key = channel.register(selector, SelectionKey.OP_CONNECT);
             }
         }
-        catch (IOException e)
+        catch (IOException | UnresolvedAddressException e)
         {
-            e.printStackTrace();
-            return false;
+            connectionLost(e);
         }
     }
 
-    public int receiveInt()
+    private void finishConnect() throws IOException
     {
-        try
+        if (channel.finishConnect())
         {
-            return in.readInt();
+            key.interestOps(SelectionKey.OP_READ);
+            connected();
         }
-        catch (IOException e)
+    }
+
+    private void connected() throws IOException
+    {
+        if (binaryRequested)
         {
-            e.printStackTrace();
-            return -1;
+            // ARFF-only classifiers see the offer as a comment and never answer
+            state = State.NEGOTIATING;
+            deadline = System.currentTimeMillis() + NEGOTIATION_TIMEOUT;
+            reply.setLength(0);
+            control = ByteBuffer.wrap((BinaryRecordFormat.OFFER + lineEnding).getBytes(StandardCharsets.US_ASCII));
+            write();
+        }
+        else
+        {
+            established(false);
         }
     }
 
-    public InputStream getInputStream()
+    private void established(boolean binary) throws IOException
     {
-        try
+        this.binary = binary;
+        control = ByteBuffer.wrap(headers(binary));
+        replyLength = 0;
+        nextReply = 0;
+        synchronized (outbound)
         {
-            return socket.getInputStream();
+            synchronized (inFlightLock)
+            {
+                abandonInFlight();
+                epoch++;
+            }
+            state = State.CONNECTED;
         }
-        catch (IOException | NullPointerException e)
+
+        backoff = INITIAL_BACKOFF;
+        if (wasConnected)
         {
-            e.printStackTrace();
-            return null;
+            log.info("Reconnected to classifier at {}:{}", host, port);
         }
+        wasConnected = true;
+        firstAttempt.countDown();
+        write();
     }
 
-    public OutputStream getOutputStream()
+    private void read() throws IOException
     {
+        readBuffer.clear();
+        if (channel.read(readBuffer) < 0)
+        {
+            throw new EOFException("Classifier closed the connection");
+        }
+        readBuffer.flip();
+
+        if (state == State.NEGOTIATING)
+        {
+            while (readBuffer.hasRemaining())
+            {
+                char c = (char) readBuffer.get();
+                if (c == '\n')
+                {
+                    established(BinaryRecordFormat.ACCEPT.equals(reply.toString()));
+                    break;
+                }
+                if (c != '\r')
+                {
+                    reply.append(c);
+                }
+            }
+        }
+
+        if (state != State.CONNECTED || replyListener == null)
+        {
+            // answers are only read when someone is listening
+            return;
+        }
+
+        int size = binary ? BinaryRecordFormat.VERDICT_SIZE : BinaryRecordFormat.ARFF_VERDICT_SIZE;
+        while (readBuffer.hasRemaining())
+        {
+            int n = Math.min(size - replyLength, readBuffer.remaining());
+            readBuffer.get(replyFrame, replyLength, n);
+            replyLength += n;
+            if (replyLength == size)
+            {
+                replyLength = 0;
+                decodeReply();
+            }
+        }
+    }
+
+    private void decodeReply() throws IOException
+    {
+        int record;
+        char label;
+        if (binary)
+        {
+            if (replyFrame[0] != BinaryRecordFormat.VERDICT)
+            {
+                throw new IOException("Unexpected reply frame type " + replyFrame[0]);
+            }
+            record = readInt(replyFrame, 1);
+            label = (char) (replyFrame[5] & 0xff);
+        }
+        else
+        {
+            record = nextReply++;
+            label = (readInt(replyFrame, 0) == 1) ? 'E' : 'X';
+        }
+
+        Object tag;
+        long sent;
+        synchronized (inFlightLock)
+        {
+            // record numbers wrap around, so only their distance is compared
+            int age = nextRecord - record;
+            if (age <= 0 || age > MAX_IN_FLIGHT)
+            {
+                tag = null;
+                sent = 0;
+            }
+            else
+            {
+                int slot = record & (MAX_IN_FLIGHT - 1);
+                tag = inFlightTags[slot];
+                sent = inFlightSent[slot];
+                inFlightTags[slot] = null;
+            }
+        }
+
+        if (tag == null)
+        {
+            unmatchedReplies.incrementAndGet();
+            return;
+        }
+
+        long latency = System.nanoTime() - sent;
+        replies.incrementAndGet();
+        if (label == 'E')
+        {
+            elephants.incrementAndGet();
+        }
+        totalReplyLatency.addAndGet(latency);
+        if (latency > maxReplyLatency.get())
+        {
+            maxReplyLatency.set(latency);
+        }
+
         try
         {
-            return socket.getOutputStream();
+            replyListener.reply(tag, label, latency);
+        }
+        catch (RuntimeException e)
+        {
+            log.warn("Unable to handle classifier reply", e);
+        }
+    }
+
+    private static int readInt(byte b[], int off)
+    {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    private void write() throws IOException
+    {
+        if (control != null)
+        {
+            bytesWritten.addAndGet(channel.write(control));
+            if (control.hasRemaining())
+            {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            control = null;
+        }
+
+        if (state == State.CONNECTED)
+        {
+            while (true)
+            {
+                ByteBuffer buffer;
+                synchronized (outbound)
+                {
+                    buffer = outbound.peek();
+                }
+                if (buffer == null)
+                {
+                    break;
+                }
+
+                bytesWritten.addAndGet(channel.write(buffer));
+                if (buffer.hasRemaining())
+                {
+                    // the socket is full, continue once it becomes writable
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+
+                synchronized (outbound)
+                {
+                    outbound.poll();
+                }
+                pool.release(buffer);
+            }
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void connectionLost(Exception e)
+    {
+        closeChannel();
+        control = null;
+
+        boolean lost;
+        synchronized (outbound)
+        {
+            lost = state == State.CONNECTED || state == State.NEGOTIATING;
+            state = State.DISCONNECTED;
+            synchronized (inFlightLock)
+            {
+                abandonInFlight();
+                epoch++;
+            }
+        }
+        long discarded = discardQueued();
+
+        lastError = e.toString();
+        nextAttempt = System.currentTimeMillis() + backoff;
+        if (lost)
+        {
+            reconnects.incrementAndGet();
+            log.warn("Lost connection to classifier at {}:{}, discarded {} bytes, reconnecting in {} ms: {}",
+                     host, port, discarded, backoff, lastError);
+        }
+        else
+        {
+            log.debug("Unable to connect to classifier at {}:{}, retrying in {} ms: {}",
+                      host, port, backoff, lastError);
+        }
+        backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        firstAttempt.countDown();
+    }
+
+    private void closeChannel()
+    {
+        if (key != null)
+        {
+            key.cancel();
+            key = null;
+        }
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                log.debug("Unable to close channel", e);
+            }
+            channel = null;
+        }
+    }
+
+    // Headers and dummy record sent at the start of every connection
+    private byte[] headers(boolean binary) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        if (binary)
+        {
+            BinaryRecordFormat.writeSchema(out, relationName, attributes);
+            if (dummyRecord != null)
+            {
+                BinaryRecordFormat.writeRecord(out, dummyRecord);
+            }
+        }
+        else
+        {
+            StringBuilder sb = new StringBuilder();
+
+            sb.append("@relation ").append(relationName).append(lineEnding);
+            sb.append(lineEnding);
+
+            for (int i=0; i<attributes.length; i++)
+            {
+                sb.append("@attribute ").append(attributes[i][0]).append(' ').append(attributes[i][1]).append(lineEnding);
+            }
+            sb.append(lineEnding);
+            sb.append("@data").append(lineEnding);
+            sb.append(lineEnding);
+
+            if (dummyRecord != null)
+            {
+                dummyRecord.appendArff(sb);
+                sb.append(lineEnding);
+                sb.append(lineEnding);
+            }
+            out.writeBytes(sb.toString());
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Describes the connection, for example "CONNECTED to 10.0.0.1:5000 (binary)".
+     *
+     * @return connection description
+     */
+    public String describe()
+    {
+        return state + " to " + host + ":" + port + " (" + (binary ? "binary" : "ARFF") + ")";
+    }
+
+    public void printStats(PrintStream out, String name)
+    {
+        out.printf("%-18s: %s%n", name + " stream", describe());
+        out.println("  Records sent    : " + recordsSent.get());
+        out.println("  Records dropped : " + recordsDropped.get());
+        out.println("  Bytes written   : " + bytesWritten.get());
+        out.println("  Bytes discarded : " + bytesDiscarded.get());
+        out.println("  Reconnects      : " + reconnects.get());
+        out.println("  Buffers in use  : " + pool.inUse() + "/" + MAX_BUFFERS);
+        if (replyListener != null)
+        {
+            long n = replies.get();
+            out.println("  Verdicts        : " + n + " (" + elephants.get() + " elephant)");
+            out.println("  Unmatched       : " + unmatchedReplies.get());
+            out.println("  Unanswered      : " + abandonedRecords.get());
+            out.println("  Verdict avg (us): " + (n == 0 ? 0 : totalReplyLatency.get() / n / 1000));
+            out.println("  Verdict max (us): " + maxReplyLatency.get() / 1000);
         }
-        catch (IOException | NullPointerException e)
+        if (lastError != null)
         {
-            e.printStackTrace();
-            return null;
+            out.println("  Last error      : " + lastError);
         }
     }
 }
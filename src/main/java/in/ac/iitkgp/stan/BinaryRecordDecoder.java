@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+/**
+ * Reference decoder for the FlowSeer binary record format.
+ *
+ * @see BinaryRecordFormat
+ */
+public class BinaryRecordDecoder
+{
+    private String relationName;
+    private String attributes[][];
+    private int k;
+
+    /**
+     * Reads the schema sent once at the start of a binary stream.
+     *
+     * @param in stream positioned just after the negotiation
+     * @throws IOException if the stream does not start with a valid schema
+     */
+    public void readSchema(DataInput in) throws IOException
+    {
+        int magic = in.readInt();
+        if (magic != BinaryRecordFormat.MAGIC)
+        {
+            throw new IOException("Not a FlowSeer binary stream: " + Integer.toHexString(magic));
+        }
+
+        relationName = in.readUTF();
+        int n = in.readUnsignedShort();
+        attributes = new String[n][2];
+        for (int i=0; i<n; i++)
+        {
+            attributes[i][0] = in.readUTF();
+            attributes[i][1] = in.readUTF();
+        }
+        k = BinaryRecordFormat.k(n);
+    }
+
+    /**
+     * Reads the next record frame into the given record.
+     *
+     * @param in     stream positioned at a frame
+     * @param record record with room for k packets
+     * @throws IOException if the frame is malformed or the stream ends
+     */
+    public void readRecord(DataInput in, FlowRecord record) throws IOException
+    {
+        byte type = in.readByte();
+        if (type != BinaryRecordFormat.RECORD)
+        {
+            throw new IOException("Unexpected frame type " + type);
+        }
+
+        record.srcPort = in.readInt();
+        record.dstPort = in.readInt();
+        record.ipProtocol = in.readInt();
+        for (int i=0; i<record.packetSize.length; i++)
+        {
+            record.packetSize[i] = in.readInt();
+        }
+        for (int i=0; i<record.interArrivalTime.length; i++)
+        {
+            record.interArrivalTime[i] = in.readLong();
+        }
+        record.label = (char) in.readUnsignedByte();
+    }
+
+    /**
+     * Creates a record sized for the schema that has been read.
+     *
+     * @return new record
+     */
+    public FlowRecord newRecord()
+    {
+        return new FlowRecord(k);
+    }
+
+    public String relationName()
+    {
+        return relationName;
+    }
+
+    public String[][] attributes()
+    {
+        return attributes;
+    }
+
+    public int k()
+    {
+        return k;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary framing for FlowSeer records, used instead of ARFF text when
+ * the classifier agrees to it.
+ * <p>
+ * The client asks for binary framing by sending {@link #OFFER} as the first
+ * line. Since it is an ARFF comment, classifiers that only understand ARFF
+ * ignore it. A classifier that supports binary framing answers with
+ * {@link #ACCEPT}; otherwise the client falls back to ARFF.
+ * <p>
+ * Once accepted the schema is sent once: the {@link #MAGIC} int, the relation
+ * name, the number of attributes and the name and type of each attribute, all
+ * strings in modified UTF-8 as written by {@link DataOutput#writeUTF}. Each
+ * record is then a fixed layout frame of big endian primitives:
+ * <pre>
+ *   byte   'R'
+ *   int    src port, dst port, ip protocol
+ *   int    k packet sizes
+ *   long   k-1 inter-arrival times (us)
+ *   byte   class ('X' or 'E')
+ * </pre>
+ * where k follows from the schema, which has 2k+3 attributes.
+ * <p>
+ * The classifier answers every record on the testing stream, except the dummy
+ * record that follows the headers. Records are numbered from 0 on each
+ * connection. An ARFF classifier answers in order with a big endian int, 1 for
+ * an elephant flow and 0 otherwise. A binary classifier may answer in any order
+ * with a {@link #VERDICT} frame:
+ * <pre>
+ *   byte   'V'
+ *   int    record number
+ *   byte   class ('X' or 'E')
+ * </pre>
+ */
+public final class BinaryRecordFormat
+{
+    public static final String OFFER = "% flowseer-format binary 1";
+    public static final String ACCEPT = "binary 1";
+    public static final int MAGIC = 0x46534231;   // "FSB1"
+    public static final byte RECORD = 'R';
+    public static final byte VERDICT = 'V';
+    public static final int VERDICT_SIZE = 6;
+    // size of the answer of an ARFF classifier
+    public static final int ARFF_VERDICT_SIZE = 4;
+
+    private BinaryRecordFormat()
+    {
+    }
+
+    /**
+     * Number of packets sampled per record for a schema with the given number of attributes.
+     *
+     * @param attributes number of attributes in the schema
+     * @return k
+     */
+    public static int k(int attributes)
+    {
+        return (attributes - 3) / 2;
+    }
+
+    /**
+     * Size in bytes of one record frame.
+     *
+     * @param k number of packets sampled per record
+     * @return frame size
+     */
+    public static int frameSize(int k)
+    {
+        return 1 + 3 * 4 + k * 4 + Math.max(0, k - 1) * 8 + 1;
+    }
+
+    public static void writeSchema(DataOutput out, String relationName, String attributes[][]) throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeUTF(relationName);
+        out.writeShort(attributes.length);
+        for (String attribute[] : attributes)
+        {
+            out.writeUTF(attribute[0]);
+            out.writeUTF(attribute[1]);
+        }
+    }
+
+    public static void writeRecord(DataOutput out, FlowRecord record) throws IOException
+    {
+        out.writeByte(RECORD);
+        out.writeInt(record.srcPort);
+        out.writeInt(record.dstPort);
+        out.writeInt(record.ipProtocol);
+        for (int size : record.packetSize)
+        {
+            out.writeInt(size);
+        }
+        for (long time : record.interArrivalTime)
+        {
+            out.writeLong(time);
+        }
+        out.writeByte(record.label);
+    }
+
+    public static void writeVerdict(DataOutput out, int recordNumber, char label) throws IOException
+    {
+        out.writeByte(VERDICT);
+        out.writeInt(recordNumber);
+        out.writeByte(label);
+    }
+
+    /**
+     * Writes a record frame into a big endian buffer with at least
+     * {@link #frameSize(int)} bytes remaining.
+     *
+     * @param buffer the buffer to write to
+     * @param record the record to write
+     */
+    public static void writeRecord(ByteBuffer buffer, FlowRecord record)
+    {
+        buffer.put(RECORD);
+        buffer.putInt(record.srcPort);
+        buffer.putInt(record.dstPort);
+        buffer.putInt(record.ipProtocol);
+        for (int size : record.packetSize)
+        {
+            buffer.putInt(size);
+        }
+        for (long time : record.interArrivalTime)
+        {
+            buffer.putLong(time);
+        }
+        buffer.put((byte) record.label);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+import java.io.PrintStream;
+
+/**
+ * Model that FlowSeer trains with finished flows and asks for a prediction
+ * once the first k packets of a flow have been sampled.
+ * <p>
+ * Predictions are handed back to FlowSeer together with the verdict passed
+ * to {@link #test}, either straight away or later from another thread.
+ * <p>
+ * FlowSeer reuses the records it passes in, so a classifier that needs a
+ * record after {@link #train} or {@link #test} has returned must copy it.
+ */
+public interface Classifier
+{
+    /**
+     * Prepares the classifier for use.
+     *
+     * @param dummyRecord record with the shape of every record, sent to
+     *                    classifiers that need it before the first real one
+     * @return true if the classifier is ready
+     */
+    boolean start(FlowRecord dummyRecord);
+
+    void stop();
+
+    /**
+     * Trains the classifier with a finished flow labelled with its class.
+     *
+     * @param record the features and class of the flow
+     */
+    void train(FlowRecord record);
+
+    /**
+     * Asks for the class of a flow whose first k packets have been sampled.
+     *
+     * @param record  the features of the flow
+     * @param verdict the verdict to complete with the prediction
+     */
+    void test(FlowRecord record, FlowVerdict verdict);
+
+    /**
+     * Describes the classifier in one line, for the status command.
+     *
+     * @return description
+     */
+    String describe();
+
+    void printStats(PrintStream out);
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+import org.slf4j.Logger;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Hands training and testing records over from the packet-in and flow rule
+ * event threads to a dedicated writer thread, which sends them to the
+ * classifier streams in batches. Submitted records are copied into a fixed
+ * set of preallocated slots, so handing a record over creates no garbage.
+ */
+public class ClassifierPipeline
+{
+    // how long the writer waits for a record before checking whether it should stop (ms)
+    private static final long POLL_INTERVAL = 100;
+    // longest a submitter waits for room when blocking, so that neither a
+    // packet-in thread nor the flow rule event dispatcher is held up for long (ms)
+    private static final long MAX_BLOCK = 10;
+
+    private final BlockingQueue<Record> queue;
+    // slots that are not queued or being written
+    private final BlockingQueue<Record> free;
+    private final int batchSize;
+    private final boolean blockWhenFull;
+    private final ArffNetworkStreamGenerator trainingStream;
+    private final ArffNetworkStreamGenerator testingStream;
+    private final Logger log;
+
+    private Thread writer;
+    private volatile boolean running;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong maxDepth = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    private static final class Record
+    {
+        boolean training;
+        final FlowRecord flowRecord;
+        // handed back with the classifier's answer
+        Object tag;
+        long enqueued;
+
+        Record(int k)
+        {
+            this.flowRecord = new FlowRecord(k);
+        }
+    }
+
+    ClassifierPipeline(int k, int queueSize, int batchSize, boolean blockWhenFull,
+                       ArffNetworkStreamGenerator trainingStream, ArffNetworkStreamGenerator testingStream,
+                       Logger log)
+    {
+        this.queue = new ArrayBlockingQueue<Record>(queueSize);
+        this.free = new ArrayBlockingQueue<Record>(queueSize);
+        for (int i = 0; i < queueSize; i++)
+        {
+            free.add(new Record(k));
+        }
+        this.batchSize = batchSize;
+        this.blockWhenFull = blockWhenFull;
+        this.trainingStream = trainingStream;
+        this.testingStream = testingStream;
+        this.log = log;
+    }
+
+    void start()
+    {
+        running = true;
+        writer = groupedThreads("onos/flowseer", "classifier-writer", log).newThread(this::run);
+        writer.start();
+    }
+
+    void stop()
+    {
+        running = false;
+        if (writer != null)
+        {
+            writer.interrupt();
+            try
+            {
+                writer.join(1000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            writer = null;
+        }
+
+        int discarded = queue.drainTo(free);
+        if (discarded > 0)
+        {
+            log.warn("Discarded {} classifier records on stop", discarded);
+        }
+    }
+
+    boolean submitTraining(FlowRecord flowRecord)
+    {
+        return submit(true, flowRecord, null);
+    }
+
+    boolean submitTesting(FlowRecord flowRecord, Object tag)
+    {
+        return submit(false, flowRecord, tag);
+    }
+
+    private boolean submit(boolean training, FlowRecord flowRecord, Object tag)
+    {
+        if (!running)
+        {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        // there are as many slots as the queue holds, so a free slot always fits in the queue
+        Record record = free.poll();
+        if (record == null && blockWhenFull)
+        {
+            try
+            {
+                record = free.poll(MAX_BLOCK, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            if (record == null)
+            {
+                timedOut.incrementAndGet();
+            }
+        }
+        if (record == null)
+        {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        record.training = training;
+        record.flowRecord.copyFrom(flowRecord);
+        record.tag = tag;
+        record.enqueued = System.nanoTime();
+        queue.add(record);
+
+        submitted.incrementAndGet();
+        updateMax(maxDepth, queue.size());
+        return true;
+    }
+
+    private void run()
+    {
+        List<Record> batch = new ArrayList<Record>(batchSize);
+
+        while (running)
+        {
+            try
+            {
+                Record first = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (first == null)
+                {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+                flush(queue.isEmpty());
+            }
+            catch (InterruptedException e)
+            {
+                // stop() interrupts the writer; the loop condition decides whether to exit
+            }
+            catch (RuntimeException e)
+            {
+                log.warn("Unable to write classifier records", e);
+            }
+            finally
+            {
+                release(batch);
+            }
+        }
+    }
+
+    private void write(List<Record> batch)
+    {
+        for (Record record : batch)
+        {
+            if (record.training)
+            {
+                trainingStream.sendRecord(record.flowRecord);
+            }
+            else
+            {
+                testingStream.sendRecord(record.flowRecord, record.tag);
+            }
+
+            long latency = System.nanoTime() - record.enqueued;
+            totalLatency.addAndGet(latency);
+            updateMax(maxLatency, latency);
+        }
+        written.addAndGet(batch.size());
+        batches.incrementAndGet();
+    }
+
+    private void release(List<Record> batch)
+    {
+        for (Record record : batch)
+        {
+            record.tag = null;
+            free.add(record);
+        }
+        batch.clear();
+    }
+
+    // Flushes the streams right away once the queue has drained, otherwise
+    // keeps buffering until the streams' size or time threshold is reached
+    private void flush(boolean idle)
+    {
+        if (idle)
+        {
+            trainingStream.flush();
+            testingStream.flush();
+        }
+        else
+        {
+            trainingStream.flushIfDue();
+            testingStream.flushIfDue();
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value)
+    {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value))
+        {
+            current = max.get();
+        }
+    }
+
+    public void printStats(PrintStream out)
+    {
+        long n = written.get();
+        long b = batches.get();
+
+        out.println("Overflow policy   : " + (blockWhenFull ? "block up to " + MAX_BLOCK + " ms" : "drop"));
+        out.println("Queue depth       : " + queue.size() + " (max " + maxDepth.get() + ")");
+        out.println("Records submitted : " + submitted.get());
+        out.println("Records dropped   : " + dropped.get() + " (" + timedOut.get() + " after blocking)");
+        out.println("Records written   : " + n);
+        out.println("Average batch     : " + (b == 0 ? 0 : n / b));
+        out.println("Latency avg (us)  : " + (n == 0 ? 0 : totalLatency.get() / n / 1000));
+        out.println("Latency max (us)  : " + maxLatency.get() / 1000);
+    }
+}
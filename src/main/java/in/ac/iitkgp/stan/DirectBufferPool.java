@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of direct byte buffers of one size. Buffers are allocated
+ * lazily up to the limit and then only reused, so a stream never holds more
+ * than the limit in off-heap memory. Safe to use from the thread that fills
+ * the buffers and the thread that writes them out.
+ */
+final class DirectBufferPool
+{
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    DirectBufferPool(int bufferSize, int maxBuffers)
+    {
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+    }
+
+    /**
+     * Takes a cleared buffer from the pool.
+     *
+     * @return buffer, or null if all buffers are in use
+     */
+    ByteBuffer acquire()
+    {
+        ByteBuffer buffer = free.poll();
+        if (buffer != null)
+        {
+            return buffer;
+        }
+
+        int n = allocated.get();
+        while (n < maxBuffers)
+        {
+            if (allocated.compareAndSet(n, n + 1))
+            {
+                return ByteBuffer.allocateDirect(bufferSize);
+            }
+            n = allocated.get();
+        }
+        return null;
+    }
+
+    void release(ByteBuffer buffer)
+    {
+        buffer.clear();
+        free.offer(buffer);
+    }
+
+    int bufferSize()
+    {
+        return bufferSize;
+    }
+
+    int inUse()
+    {
+        return allocated.get() - free.size();
+    }
+
+    int allocated()
+    {
+        return allocated.get();
+    }
+}
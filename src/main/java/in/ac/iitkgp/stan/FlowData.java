@@ -19,7 +19,6 @@ import org.onlab.packet.IpAddress;
 import org.onlab.packet.MacAddress;
 
 import java.io.PrintStream;
-import java.util.Arrays;
 
 import org.slf4j.Logger;
 
@@ -30,22 +29,30 @@ public class FlowData
     long bytes;
     long packets;
     int k;
-    int packetSize[];
-    long packetTime[];
+    // the first k packet samples live in a slot of the slab of the flow's stripe
+    PacketSampleSlab slab;
+    int slot;
+    int samples;
     int intfIn;
     int intfOut;
-    MacAddress srcMac;
-    MacAddress dstMac;
+    // addresses are kept as primitives; objects are only created for display
+    long srcMac;
+    long dstMac;
     int ethType;
     int vlan;
     int ipProtocol;
     int tos;
-    IpAddress srcIp;
-    IpAddress dstIp;
+    int srcIp;
+    int dstIp;
     int srcPort;
     int dstPort;
     boolean sentForTraining;
     boolean sentForTesting;
+    // priority of the rule the statistics come from; for a tracked flow, the
+    // lowest priority whose removal ends the flow (0 for any)
+    int priority;
+    long created;
+    long lastSeen;
 
     FlowData(
             long starttime,
@@ -55,14 +62,14 @@ public class FlowData
             int k,
             int intfIn,
             int intfOut,
-            MacAddress srcMac,
-            MacAddress dstMac,
+            long srcMac,
+            long dstMac,
             int ethType,
             int vlan,
             int ipProtocol,
             int tos,
-            IpAddress srcIp,
-            IpAddress dstIp,
+            int srcIp,
+            int dstIp,
             int srcPort,
             int dstPort
     )
@@ -72,13 +79,6 @@ public class FlowData
         this.bytes = bytes;
         this.packets = packets;
         this.k = k;
-        packetSize = new int[k];
-        packetTime = new long[k];
-        for (int i=0; i<k; i++)
-        {
-            packetSize[i] = -1;
-            packetTime[i] = -1;
-        }
         this.intfIn = intfIn;
         this.intfOut = intfOut;
         this.srcMac = srcMac;
@@ -95,6 +95,71 @@ public class FlowData
         sentForTesting = false;
     }
 
+    void attach(PacketSampleSlab slab)
+    {
+        this.slab = slab;
+        this.slot = slab.allocate();
+        this.samples = 0;
+    }
+
+    void detach()
+    {
+        if (slab != null)
+        {
+            slab.release(slot);
+            slab = null;
+            samples = 0;
+        }
+    }
+
+    // records the next packet sample; returns true once all k samples are recorded
+    boolean addSample(int size, long time)
+    {
+        if (samples < k)
+        {
+            slab.record(slot, samples++, size, time);
+        }
+        return samples == k;
+    }
+
+    // true once all k packet samples of the flow have been recorded
+    boolean isSampled()
+    {
+        return k > 0 && samples == k;
+    }
+
+    // size of the i-th packet, or -1 if it has not been seen yet
+    int packetSize(int i)
+    {
+        return (i < samples) ? slab.size(slot, i) : -1;
+    }
+
+    // arrival time of the i-th packet in microseconds, or -1 if it has not been seen yet
+    long packetTime(int i)
+    {
+        return (i < samples) ? slab.time(slot, i) : -1;
+    }
+
+    private String packetSizes()
+    {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i=0; i<k; i++)
+        {
+            sb.append(i == 0 ? "" : ", ").append(packetSize(i));
+        }
+        return sb.append(']').toString();
+    }
+
+    private String packetTimes()
+    {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i=0; i<k; i++)
+        {
+            sb.append(i == 0 ? "" : ", ").append(packetTime(i));
+        }
+        return sb.append(']').toString();
+    }
+
     public void print(PrintStream out)
     {
         long KBytes = this.bytes / 1024;
@@ -107,18 +172,18 @@ public class FlowData
         out.println("Packets     : " + this.packets);
         out.println("Port In     : " + this.intfIn);
         out.println("Port Out    : " + this.intfOut);
-        out.println("Src Mac     : " + this.srcMac.toString());
-        out.println("Dst Mac     : " + this.dstMac.toString());
+        out.println("Src Mac     : " + MacAddress.valueOf(this.srcMac));
+        out.println("Dst Mac     : " + MacAddress.valueOf(this.dstMac));
         out.println("Eth Type    : " + this.ethType);
         out.println("VLAN        : " + this.vlan);
         out.println("IP Protocol : " + this.ipProtocol);
         out.println("TOS         : " + this.tos);
-        out.println("Src IP      : " + this.srcIp.toString());
-        out.println("Dst IP      : " + this.dstIp.toString());
+        out.println("Src IP      : " + IpAddress.valueOf(this.srcIp));
+        out.println("Dst IP      : " + IpAddress.valueOf(this.dstIp));
         out.println("Src Port    : " + this.srcPort);
         out.println("Dst port    : " + this.dstPort);
-        out.println("Packet Size : " + Arrays.toString(this.packetSize));
-        out.println("Packet Time : " + Arrays.toString(this.packetTime));
+        out.println("Packet Size : " + packetSizes());
+        out.println("Packet Time : " + packetTimes());
     }
     
     public void print(Logger log)
@@ -133,17 +198,17 @@ public class FlowData
         log.info("Packets     : " + this.packets);
         log.info("Port In     : " + this.intfIn);
         log.info("Port Out    : " + this.intfOut);
-        log.info("Src Mac     : " + this.srcMac.toString());
-        log.info("Dst Mac     : " + this.dstMac.toString());
+        log.info("Src Mac     : " + MacAddress.valueOf(this.srcMac));
+        log.info("Dst Mac     : " + MacAddress.valueOf(this.dstMac));
         log.info("Eth Type    : " + this.ethType);
         log.info("VLAN        : " + this.vlan);
         log.info("IP Protocol : " + this.ipProtocol);
         log.info("TOS         : " + this.tos);
-        log.info("Src IP      : " + this.srcIp.toString());
-        log.info("Dst IP      : " + this.dstIp.toString());
+        log.info("Src IP      : " + IpAddress.valueOf(this.srcIp));
+        log.info("Dst IP      : " + IpAddress.valueOf(this.dstIp));
         log.info("Src Port    : " + this.srcPort);
         log.info("Dst port    : " + this.dstPort);
-        log.info("Packet Size : " + Arrays.toString(this.packetSize));
-        log.info("Packet Time : " + Arrays.toString(this.packetTime));
+        log.info("Packet Size : " + packetSizes());
+        log.info("Packet Time : " + packetTimes());
     }
 }
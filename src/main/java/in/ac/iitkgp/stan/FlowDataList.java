@@ -16,12 +16,13 @@
 package in.ac.iitkgp.stan;
 
 import java.io.PrintStream;
-import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.onlab.packet.IPacket;
 import org.onlab.packet.IPv4;
-import org.onlab.packet.IpAddress;
-import org.onlab.packet.MacAddress;
+import org.onosproject.net.PortNumber;
 import org.onosproject.net.flow.TrafficSelector;
 import org.onosproject.net.flow.criteria.*;
 import org.onosproject.net.packet.PacketContext;
@@ -29,23 +30,82 @@ import org.slf4j.Logger;
 
 public class FlowDataList
 {
+    // minimum time between two sweeps of a stripe for idle and expired flows (ms)
+    private static final long SWEEP_INTERVAL = 1000;
+    // maximum number of independently locked stripes
+    private static final int MAX_STRIPES = 64;
+
     private FlowSeer flowSeer;
-    private ArrayList<FlowData> arr;
+    private int k;
+    // flows indexed by their 5-tuple and spread over stripes by hash
+    private Stripe stripes[];
+    private int stripeShift;
+
+    private int maxFlows;
+    private int maxFlowsPerStripe;
+    private long idleTimeout;
+    private long flowTtl;
+    private boolean evictOldest;
 
-    FlowDataList(FlowSeer flowSeer)
+    private final AtomicLong evictedIdle = new AtomicLong();
+    private final AtomicLong evictedExpired = new AtomicLong();
+    private final AtomicLong evictedCapacity = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong untracked = new AtomicLong();
+
+    // A part of the flow table guarded by its own lock.
+    // Flows in a stripe are kept least recently seen first.
+    private static final class Stripe
+    {
+        final LinkedHashMap<FlowKey, FlowData> flows = new LinkedHashMap<FlowKey, FlowData>(16, 0.75f, true);
+        final PacketSampleSlab slab;
+        long lastSweep = System.currentTimeMillis();
+
+        Stripe(int k)
+        {
+            slab = new PacketSampleSlab(k);
+        }
+    }
+
+    FlowDataList(FlowSeer flowSeer, int k, int maxFlows, long idleTimeout, long flowTtl, boolean evictOldest)
     {
         this.flowSeer = flowSeer;
-        arr = new ArrayList<FlowData>();
+        this.k = k;
+        this.maxFlows = maxFlows;
+        this.idleTimeout = idleTimeout;
+        this.flowTtl = flowTtl;
+        this.evictOldest = evictOldest;
+
+        // use fewer stripes for small tables so that the cap is never exceeded
+        int n = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, maxFlows)));
+        stripes = new Stripe[n];
+        for (int i=0; i<n; i++)
+        {
+            stripes[i] = new Stripe(k);
+        }
+        stripeShift = 32 - Integer.numberOfTrailingZeros(n);
+        maxFlowsPerStripe = Math.max(1, maxFlows / n);
+    }
+
+    // Picks a stripe using the high bits of the key hash, so that the
+    // hash map inside the stripe still sees well spread low bits
+    private Stripe stripeFor(FlowKey key)
+    {
+        if (stripes.length == 1)
+        {
+            return stripes[0];
+        }
+        return stripes[(key.hashCode() * 0x9E3779B9) >>> stripeShift];
     }
 
-    public boolean add(PacketContext context, TrafficSelector selector, int k)
+    public boolean add(PacketContext context, TrafficSelector selector, PortNumber outPort)
     {
-        // MAC addresses, Ethertype and VLAN
+        // MAC addresses
         EthCriterion ethCrit;
         ethCrit = (EthCriterion) selector.getCriterion(Criterion.Type.ETH_SRC);
-        MacAddress srcMac = (ethCrit == null) ? MacAddress.valueOf("00:00:00:00:00:00") : ethCrit.mac();
+        long srcMac = (ethCrit == null) ? 0 : ethCrit.mac().toLong();
         ethCrit = (EthCriterion) selector.getCriterion(Criterion.Type.ETH_DST);
-        MacAddress dstMac = (ethCrit == null) ? MacAddress.valueOf("00:00:00:00:00:00") : ethCrit.mac();
+        long dstMac = (ethCrit == null) ? 0 : ethCrit.mac().toLong();
 
         // Getting IP Protocol
         IPProtocolCriterion protocolCrit = (IPProtocolCriterion) selector.getCriterion(Criterion.Type.IP_PROTO);
@@ -53,9 +113,9 @@ public class FlowDataList
 
         // Getting IP addresses
         IPCriterion srcIpCrit = (IPCriterion) selector.getCriterion(Criterion.Type.IPV4_SRC);
-        IpAddress srcIp = (srcIpCrit == null) ? IpAddress.valueOf(0) : srcIpCrit.ip().address();
+        int srcIp = (srcIpCrit == null) ? 0 : srcIpCrit.ip().address().getIp4Address().toInt();
         IPCriterion dstIpCrit = (IPCriterion) selector.getCriterion(Criterion.Type.IPV4_DST);
-        IpAddress dstIp = (dstIpCrit == null) ? IpAddress.valueOf(0) : dstIpCrit.ip().address();
+        int dstIp = (dstIpCrit == null) ? 0 : dstIpCrit.ip().address().getIp4Address().toInt();
 
         // Getting source port and destination port
         int srcPort = 0;
@@ -79,111 +139,225 @@ public class FlowDataList
         else if (ipProtocol == IPv4.PROTOCOL_ICMP)
         {
             IcmpTypeCriterion icmpTypeCrit = (IcmpTypeCriterion) selector.getCriterion(Criterion.Type.ICMPV4_TYPE);
-            Short icmpType = (icmpTypeCrit == null) ? 0 : icmpTypeCrit.icmpType();
+            int icmpType = (icmpTypeCrit == null) ? 0 : icmpTypeCrit.icmpType();
             IcmpCodeCriterion icmpCodeCrit = (IcmpCodeCriterion) selector.getCriterion(Criterion.Type.ICMPV4_CODE);
-            Short icmpCode = (icmpCodeCrit == null) ? 0 : icmpCodeCrit.icmpCode();
+            int icmpCode = (icmpCodeCrit == null) ? 0 : icmpCodeCrit.icmpCode();
             dstPort = 256 * icmpType + icmpCode;
         }
 
         IPacket payload = context.inPacket().parsed().getPayload();
-        int n = arr.size();
+        FlowKey key = new FlowKey(srcIp, dstIp, srcPort, dstPort, ipProtocol);
+        long now = System.currentTimeMillis();
+        Stripe stripe = stripeFor(key);
 
-        // checking if the flow already exists in the list
-        for (int i=0; i<n; i++)
+        // NOTE: the flow is only read and modified while its stripe is locked.
+        // It is converted to a record and marked as sent for testing under the
+        // lock, so that it is handed over consistently and exactly once, but the
+        // classifier is only called once the stripe is unlocked.
+        FlowRecord record;
+        boolean install;
+        synchronized (stripe)
         {
-            FlowData fd = arr.get(i);
-
-            if (
-                    fd.srcIp.equals(srcIp)
-                            &&
-                    fd.srcPort == srcPort
-                            &&
-                    fd.dstIp.equals(dstIp)
-                            &&
-                    fd.dstPort == dstPort
-                    )
+            // checking if the flow already exists in the list
+            FlowData fd = stripe.flows.get(key);
+            if (fd != null)
             {
+                fd.lastSeen = now;
+                if (fd.isSampled())
+                {
+                    return true;
+                }
+
                 // flow already exists
                 // just update packet data
-                for (int j=1; j<k; j++)
+                IPv4 p = (IPv4) payload;
+                if (!fd.addSample(p.getTotalLength(), System.nanoTime() / 1000))
                 {
-                    if (fd.packetSize[j] < 0)
-                    {
-                        IPv4 p = (IPv4) payload;
-                        fd.packetSize[j] = p.getTotalLength();
-                        fd.packetTime[j] = System.nanoTime() / 1000;
-                        if (j == k-1)
-                        {
-                            if (!fd.sentForTesting)
-                            {
-                                flowSeer.test(fd);
-                                fd.sentForTesting = true;
-                            }
-                            return true;
-                        }
-                        else
-                        {
-                            return false;
-                        }
-                    }
+                    return false;
                 }
-                return true;
+                record = testingRecord(fd);
+                install = true;
             }
+            else
+            {
+                if (!(payload instanceof IPv4))
+                {
+                    return true;
+                }
+
+                if (!admit(stripe, now))
+                {
+                    // no room to track this flow, so it is forwarded without sampling
+                    return true;
+                }
+
+                // flow does not exist
+                // add a new flow to the list
+                FlowData flowData = new FlowData(
+                        0,
+                        0,
+                        0,
+                        0,
+                        k,
+                        0,
+                        0,
+                        srcMac,
+                        dstMac,
+                        0,
+                        0,
+                        ipProtocol,
+                        0,
+                        srcIp,
+                        dstIp,
+                        srcPort,
+                        dstPort
+                );
+
+                IPv4 p = (IPv4) payload;
+                flowData.attach(stripe.slab);
+                flowData.created = now;
+                flowData.lastSeen = now;
+                stripe.flows.put(key, flowData);
+                if (!flowData.addSample(p.getTotalLength(), System.nanoTime() / 1000))
+                {
+                    return false;
+                }
+                // only one packet is sampled per flow
+                record = testingRecord(flowData);
+                install = false;
+            }
+        }
+
+        if (record != null)
+        {
+            flowSeer.test(record, new FlowVerdict(key, context.inPacket().receivedFrom().deviceId(),
+                    selector, outPort));
         }
+        return install;
+    }
 
-        // flow does not exist
-        // add a new flow to the list
-        FlowData flowData = new FlowData(
-                0,
-                0,
-                0,
-                0,
-                k,
-                0,
-                0,
-                srcMac,
-                dstMac,
-                0,
-                0,
-                0,
-                0,
-                srcIp,
-                dstIp,
-                srcPort,
-                dstPort
-        );
-
-        if (payload instanceof IPv4)
-        {
-            IPv4 p = (IPv4) payload;
-            flowData.packetSize[0] = p.getTotalLength();
-            flowData.packetTime[0] = System.nanoTime() / 1000;
-            arr.add(flowData);
+    // Marks a sampled flow as sent for testing and returns the record to test
+    // it with, or null if it has been sent already or cannot be tested yet.
+    // Must be called with the stripe of the flow locked.
+    private FlowRecord testingRecord(FlowData fd)
+    {
+        if (fd.sentForTesting)
+        {
+            return null;
+        }
+        fd.sentForTesting = true;
+        return flowSeer.testingRecord(fd);
+    }
+
+    // Makes room for a new flow in the stripe; returns false if the flow cannot be tracked.
+    // Must be called with the stripe locked.
+    private boolean admit(Stripe stripe, long now)
+    {
+        if (now - stripe.lastSweep >= SWEEP_INTERVAL)
+        {
+            expire(stripe, now);
+        }
+
+        if (stripe.flows.size() < maxFlowsPerStripe)
+        {
+            return true;
+        }
+
+        // between sweeps only the least recently seen flow is looked at, so
+        // that a full stripe of flows waiting for their rules to be removed
+        // is not scanned again for every new flow
+        Iterator<FlowData> head = stripe.flows.values().iterator();
+        if (expire(head.next(), now))
+        {
+            head.remove();
+            return true;
+        }
+
+        if (!evictOldest)
+        {
+            rejected.incrementAndGet();
             return false;
         }
 
+        // evict the least recently seen flow
+        Iterator<FlowData> it = stripe.flows.values().iterator();
+        it.next().detach();
+        it.remove();
+        evictedCapacity.incrementAndGet();
         return true;
     }
 
+    // Removes flows that are done with or have been abandoned.
+    // Flows that are sampled and untrained still have a rule installed in the
+    // switch and are kept until their rule is removed or their TTL runs out.
+    // Must be called with the stripe locked.
+    private void expire(Stripe stripe, long now)
+    {
+        stripe.lastSweep = now;
+
+        Iterator<FlowData> it = stripe.flows.values().iterator();
+        while (it.hasNext())
+        {
+            FlowData fd = it.next();
+
+            if (now - fd.lastSeen <= idleTimeout)
+            {
+                // the remaining flows have been seen more recently
+                break;
+            }
+
+            if (expire(fd, now))
+            {
+                it.remove();
+            }
+        }
+    }
+
+    // Detaches an idle flow if it can be removed; returns true if it was.
+    // Must be called with the stripe of the flow locked.
+    private boolean expire(FlowData fd, long now)
+    {
+        if (now - fd.lastSeen <= idleTimeout)
+        {
+            return false;
+        }
+
+        if (now - fd.created > flowTtl)
+        {
+            fd.detach();
+            evictedExpired.incrementAndGet();
+            return true;
+        }
+        else if (fd.sentForTraining || !fd.isSampled())
+        {
+            fd.detach();
+            evictedIdle.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
     public void add(FlowData flowData, Logger log)
     {
-        int n = arr.size();
+        FlowKey key = FlowKey.of(flowData);
+        Stripe stripe = stripeFor(key);
+        FlowData fd;
+        FlowRecord record = null;
 
-        // checking if the flow already exists in the list
-        for (int i=0; i<n; i++)
+        synchronized (stripe)
         {
-            FlowData fd = arr.get(i);
-
-            if (
-                    fd.srcIp.equals(flowData.srcIp)
-                            &&
-                    fd.srcPort == flowData.srcPort
-                            &&
-                    fd.dstIp.equals(flowData.dstIp)
-                            &&
-                    fd.dstPort == flowData.dstPort
-                    )
+            // checking if the flow already exists in the list
+            fd = stripe.flows.get(key);
+            if (fd != null)
             {
+                fd.lastSeen = System.currentTimeMillis();
+
+                if (flowData.priority < fd.priority)
+                {
+                    // the rule was replaced by one of higher priority, the flow goes on
+                    return;
+                }
+
                 // flow already exists
                 // just update the flow with higher byte count and packet count
                 fd.bytes = Math.max(fd.bytes, flowData.bytes);
@@ -194,36 +368,76 @@ public class FlowDataList
                 fd.intfOut = flowData.intfOut;
                 fd.ethType = flowData.ethType;
                 fd.vlan = flowData.vlan;
-                fd.ipProtocol = flowData.ipProtocol;
                 fd.tos = flowData.tos;
-                fd.srcPort = flowData.srcPort;
-                fd.dstPort = flowData.dstPort;
 
-                // send this to the trainer
+                // send this to the trainer, once the stripe is unlocked
                 if (!fd.sentForTraining)
                 {
-                    flowSeer.train(fd);
                     fd.sentForTraining = true;
+                    record = flowSeer.trainingRecord(fd);
                 }
-                return;
             }
         }
 
-        // flow does not exist
-        // add a new flow to the list
-        log.info("WARNING-----THIS-LINE-SHOULD-NOT-HAVE-RUN-----WARNING");
-        arr.add(flowData);
+        if (fd == null)
+        {
+            // flow is not tracked, either because it was evicted or
+            // because it was never admitted; there is nothing to train
+            untracked.incrementAndGet();
+            log.debug("Flow {} is not tracked by FlowSeer", key);
+        }
+        else if (record != null)
+        {
+            flowSeer.train(record);
+        }
     }
 
-    public void print(Logger log)
+    /**
+     * Records that the rule of a flow has been replaced by one of the given
+     * priority, so that only the removal of the new rule trains the flow.
+     *
+     * @param key      the flow
+     * @param priority priority of the new rule
+     */
+    void reinstalled(FlowKey key, int priority)
     {
-        int n = arr.size();
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe)
+        {
+            FlowData fd = stripe.flows.get(key);
+            if (fd != null)
+            {
+                fd.priority = priority;
+            }
+        }
+    }
 
+    public int size()
+    {
+        int n = 0;
+        for (Stripe stripe : stripes)
+        {
+            synchronized (stripe)
+            {
+                n += stripe.flows.size();
+            }
+        }
+        return n;
+    }
+
+    public void print(Logger log)
+    {
         log.info("----------Flow Data List (Begin)----------");
 
-        for (int i=0; i<n; i++)
+        for (Stripe stripe : stripes)
         {
-            arr.get(i).print(log);
+            synchronized (stripe)
+            {
+                for (FlowData fd : stripe.flows.values())
+                {
+                    fd.print(log);
+                }
+            }
         }
 
         log.info("----------Flow Data List (End)------------");
@@ -231,16 +445,44 @@ public class FlowDataList
 
     public void print(PrintStream out)
     {
-        int n = arr.size();
+        int n = 0;
 
         out.println("----------Flow Data List (Begin)----------");
 
-        for (int i=0; i<n; i++)
+        for (Stripe stripe : stripes)
         {
-            arr.get(i).print(out);
+            synchronized (stripe)
+            {
+                for (FlowData fd : stripe.flows.values())
+                {
+                    fd.print(out);
+                }
+                n += stripe.flows.size();
+            }
         }
 
         out.println("----------Flow Data List (End)------------");
         out.println("Total flows: " + n);
     }
+
+    public void printStats(PrintStream out)
+    {
+        int slots = 0;
+        for (Stripe stripe : stripes)
+        {
+            synchronized (stripe)
+            {
+                slots += stripe.slab.capacity();
+            }
+        }
+
+        out.println("Tracked flows     : " + size() + " / " + maxFlows);
+        out.println("Stripes           : " + stripes.length);
+        out.println("Sample slots      : " + slots + " x " + k);
+        out.println("Evicted (idle)    : " + evictedIdle.get());
+        out.println("Evicted (ttl)     : " + evictedExpired.get());
+        out.println("Evicted (capacity): " + evictedCapacity.get());
+        out.println("Rejected          : " + rejected.get());
+        out.println("Untracked removals: " + untracked.get());
+    }
 }
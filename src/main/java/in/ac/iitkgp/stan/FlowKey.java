@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+import org.onlab.packet.IpAddress;
+
+/**
+ * Identifies a flow in the flow data list by its 5-tuple.
+ * The IPv4 addresses, ports and protocol are packed into two longs.
+ */
+final class FlowKey
+{
+    // src IP in the high 32 bits, dst IP in the low 32 bits
+    private final long addresses;
+    // src port in bits 24-39, dst port in bits 8-23, IP protocol in bits 0-7
+    private final long ports;
+
+    FlowKey(int srcIp, int dstIp, int srcPort, int dstPort, int ipProtocol)
+    {
+        this.addresses = ((long) srcIp << 32) | (dstIp & 0xffffffffL);
+        this.ports = ((long) (srcPort & 0xffff) << 24) | ((dstPort & 0xffff) << 8) | (ipProtocol & 0xff);
+    }
+
+    static FlowKey of(FlowData flowData)
+    {
+        return new FlowKey(flowData.srcIp, flowData.dstIp, flowData.srcPort, flowData.dstPort, flowData.ipProtocol);
+    }
+
+    int srcIp()
+    {
+        return (int) (addresses >>> 32);
+    }
+
+    int dstIp()
+    {
+        return (int) addresses;
+    }
+
+    int srcPort()
+    {
+        return (int) (ports >>> 24) & 0xffff;
+    }
+
+    int dstPort()
+    {
+        return (int) (ports >>> 8) & 0xffff;
+    }
+
+    int ipProtocol()
+    {
+        // protocols are stored the same way as they are read from the selectors, as signed bytes
+        return (byte) ports;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof FlowKey))
+        {
+            return false;
+        }
+        FlowKey that = (FlowKey) o;
+        return addresses == that.addresses && ports == that.ports;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        long h = addresses * 0x9E3779B97F4A7C15L + ports;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString()
+    {
+        return IpAddress.valueOf(srcIp()) + ":" + srcPort() + " -> "
+                + IpAddress.valueOf(dstIp()) + ":" + dstPort() + " proto " + ipProtocol();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+/**
+ * Features of one flow as they are sent to the classifier: the ports and
+ * protocol, the sizes of the first k packets, the k-1 inter-arrival times
+ * between them and the class of the flow.
+ */
+public final class FlowRecord
+{
+    int srcPort;
+    int dstPort;
+    int ipProtocol;
+    final int packetSize[];
+    final long interArrivalTime[];
+    char label;
+
+    public FlowRecord(int k)
+    {
+        this.packetSize = new int[k];
+        this.interArrivalTime = new long[Math.max(0, k - 1)];
+        this.label = 'X';
+    }
+
+    public int k()
+    {
+        return packetSize.length;
+    }
+
+    public int srcPort()
+    {
+        return srcPort;
+    }
+
+    public int dstPort()
+    {
+        return dstPort;
+    }
+
+    public int ipProtocol()
+    {
+        return ipProtocol;
+    }
+
+    public int packetSize(int i)
+    {
+        return packetSize[i];
+    }
+
+    public long interArrivalTime(int i)
+    {
+        return interArrivalTime[i];
+    }
+
+    public char label()
+    {
+        return label;
+    }
+
+    /**
+     * Overwrites this record with the features and class of another record
+     * with the same k.
+     *
+     * @param other the record to copy
+     */
+    void copyFrom(FlowRecord other)
+    {
+        srcPort = other.srcPort;
+        dstPort = other.dstPort;
+        ipProtocol = other.ipProtocol;
+        System.arraycopy(other.packetSize, 0, packetSize, 0, packetSize.length);
+        System.arraycopy(other.interArrivalTime, 0, interArrivalTime, 0, interArrivalTime.length);
+        label = other.label;
+    }
+
+    /**
+     * Number of features, which is the number of attributes without the class.
+     *
+     * @return 2k+2
+     */
+    public int features()
+    {
+        return 3 + packetSize.length + interArrivalTime.length;
+    }
+
+    /**
+     * Value of a feature, in the order of the attributes.
+     *
+     * @param i index of the feature
+     * @return value of the feature
+     */
+    public double feature(int i)
+    {
+        if (i < 3)
+        {
+            return (i == 0) ? srcPort : (i == 1) ? dstPort : ipProtocol;
+        }
+        i -= 3;
+        return (i < packetSize.length) ? packetSize[i] : interArrivalTime[i - packetSize.length];
+    }
+
+    /**
+     * Appends the record as a comma separated ARFF data line, without line ending.
+     *
+     * @param sb the builder to append to
+     */
+    void appendArff(StringBuilder sb)
+    {
+        sb.append(srcPort).append(',');
+        sb.append(dstPort).append(',');
+        sb.append(ipProtocol).append(',');
+        for (int size : packetSize)
+        {
+            sb.append(size).append(',');
+        }
+        for (long time : interArrivalTime)
+        {
+            sb.append(time).append(',');
+        }
+        sb.append(label);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("[");
+        appendArff(sb);
+        for (int i = 1; i < sb.length(); i++)
+        {
+            if (sb.charAt(i) == ',')
+            {
+                sb.insert(++i, ' ');
+            }
+        }
+        return sb.append(']').toString();
+    }
+}
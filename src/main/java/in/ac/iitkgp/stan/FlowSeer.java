@@ -21,22 +21,20 @@ import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.Service;
-import org.onlab.packet.Ethernet;
 import org.onlab.packet.IPacket;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
 import org.onosproject.fwd.ReactiveForwarding;
-import org.onosproject.net.Host;
-import org.onosproject.net.HostId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.PortNumber;
 import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.TrafficSelector;
-import org.onosproject.net.host.HostService;
 import org.onosproject.net.packet.InboundPacket;
 import org.onosproject.net.packet.PacketContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Arrays;
 
 /**
  * Skeletal ONOS application component.
@@ -44,20 +42,32 @@ import java.util.Arrays;
 public class FlowSeer
 {
     private CoreService coreService;
-    private HostService hostService;
     private FlowRuleService flowRuleService;
     private Logger log;
 
-    private FlowDataList flowDataList;
+    private volatile FlowDataList flowDataList;
     private FlowStatisticsListener fsl;
-    private ArffNetworkStreamGenerator trainingStream;
-    private ArffNetworkStreamGenerator testingStream;
+    private Classifier classifier;
+    private volatile boolean running;
     private int k, bandwidth, time;
     private String host;
     private int trainingPort, testingPort;
-    private boolean hasTrained;
+    private int maxFlows, idleTimeout, flowTtl;
+    private boolean evictOldest;
+    private int queueSize, batchSize;
+    private boolean blockWhenFull;
+    private boolean binaryRecords;
+    private boolean embedded;
+    private volatile boolean hasTrained;
+    private volatile VerdictListener verdictListener;
+    // records are filled in place; classifiers copy what they keep
+    private final ThreadLocal<FlowRecord> records;
 
-    public FlowSeer(int k, int bandwidth, int time, String host, int trainingPort, int testingPort, CoreService coreService, HostService hostService, FlowRuleService flowRuleService, Logger log)
+    public FlowSeer(int k, int bandwidth, int time, String host, int trainingPort, int testingPort,
+                    int maxFlows, int idleTimeout, int flowTtl, boolean evictOldest,
+                    int queueSize, int batchSize, boolean blockWhenFull, boolean binaryRecords,
+                    boolean embedded, int gracePeriod,
+                    CoreService coreService, FlowRuleService flowRuleService, Logger log)
     {
         this.k = k;
         this.bandwidth = bandwidth;
@@ -65,12 +75,37 @@ public class FlowSeer
         this.host = host;
         this.trainingPort = trainingPort;
         this.testingPort = testingPort;
+        this.maxFlows = maxFlows;
+        this.idleTimeout = idleTimeout;
+        this.flowTtl = flowTtl;
+        this.evictOldest = evictOldest;
+        this.queueSize = queueSize;
+        this.batchSize = batchSize;
+        this.blockWhenFull = blockWhenFull;
+        this.binaryRecords = binaryRecords;
+        this.embedded = embedded;
         this.coreService = coreService;
-        this.hostService = hostService;
         this.flowRuleService = flowRuleService;
         this.log = log;
         this.hasTrained = false;
+        this.records = ThreadLocal.withInitial(() -> new FlowRecord(k));
 
+        String attributes[][] = attributes(k);
+
+        if (embedded)
+        {
+            this.classifier = new HoeffdingTreeClassifier(this, attributes, gracePeriod);
+        }
+        else
+        {
+            this.classifier = new RemoteClassifier(this, host, trainingPort, testingPort, attributes,
+                    queueSize, batchSize, blockWhenFull, binaryRecords, log);
+        }
+    }
+
+    // Names and types of the attributes of a record of k packets
+    static String[][] attributes(int k)
+    {
         String attributes[][] = new String[3+k+k][2];
 
         attributes[0][0] = "src_port"; attributes[0][1] = "string";
@@ -88,25 +123,40 @@ public class FlowSeer
         }
         attributes[2+k+k][0] = "class";
         attributes[2+k+k][1] = "{X,E}";
+        return attributes;
+    }
+
+    /**
+     * Sets the listener that is told the classifier's prediction for every tested flow.
+     *
+     * @param verdictListener the listener, or null
+     */
+    public void setVerdictListener(VerdictListener verdictListener)
+    {
+        this.verdictListener = verdictListener;
+    }
 
-        this.trainingStream = new ArffNetworkStreamGenerator(host, trainingPort, "flows", attributes);
-        this.testingStream = new ArffNetworkStreamGenerator(host, testingPort, "flows", attributes);
+    // Replaces the classifier picked by the constructor; only before start()
+    void setClassifier(Classifier classifier)
+    {
+        this.classifier = classifier;
     }
 
     public boolean start()
     {
         log.info("Starting FlowSeer...");
 
-        flowDataList = new FlowDataList(this);
-        fsl = new FlowStatisticsListener(flowDataList, coreService, log);
-        flowRuleService.addListener(fsl);
-
-        FlowData dummyFlowData = new FlowData(0, 0, 0, 0, k, 0, 0, null, null, 0, 0, 0, 0, null, null, 0, 0);
-        String dummyData[] = convertFlowDataToString(dummyFlowData);
+        FlowData dummyFlowData = new FlowData(0, 0, 0, 0, k, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+        FlowRecord dummyRecord = toRecord(dummyFlowData, new FlowRecord(k));
 
-        if (this.trainingStream.connect(dummyData) && this.testingStream.connect(dummyData))
+        if (classifier.start(dummyRecord))
         {
-            log.info("Started FlowSeer");
+            running = true;
+            flowDataList = new FlowDataList(this, k, maxFlows, idleTimeout * 1000L, flowTtl * 1000L, evictOldest);
+            fsl = new FlowStatisticsListener(flowDataList, coreService, log);
+            flowRuleService.addListener(fsl);
+
+            log.info("Started FlowSeer with {} classifier", classifier.describe());
             return true;
         }
         else
@@ -126,28 +176,43 @@ public class FlowSeer
             flowRuleService.removeListener(fsl);
             fsl = null;
             flowDataList = null;
-            this.trainingStream.disconnect();
-            this.testingStream.disconnect();
         }
 
+        running = false;
+        classifier.stop();
+
         log.info("Stopped FlowSeer");
     }
 
-    public boolean addPacketData(PacketContext context, TrafficSelector selector)
+    /**
+     * Samples a packet of a flow about to be forwarded.
+     *
+     * @param context  the packet
+     * @param dst      where the destination host is attached, as resolved by the forwarding app
+     * @param selector selector of the rule that will forward the flow
+     * @param outPort  port the flow is forwarded to
+     * @return true if the rule may be installed
+     */
+    public boolean addPacketData(PacketContext context, HostLocation dst, TrafficSelector selector,
+                                 PortNumber outPort)
     {
         // NOTE: We will add the packet data to the flow data list only if it is received from the edge switch.
         // This is done to prevent the same packet being added to the list as the controller may receive
         // the same packet from multiple switches
+        FlowDataList flowDataList = this.flowDataList;
+        if (flowDataList == null)
+        {
+            // FlowSeer has been stopped
+            return true;
+        }
+
         InboundPacket pkt = context.inPacket();
-        Ethernet ethPkt = pkt.parsed();
-        HostId id = HostId.hostId(ethPkt.getDestinationMAC());
-        Host dst = hostService.getHost(id);
 
-        if (pkt.receivedFrom().deviceId().equals(dst.location().deviceId()))
+        if (pkt.receivedFrom().deviceId().equals(dst.deviceId()))
         {
-            if (!context.inPacket().receivedFrom().port().equals(dst.location().port()))
+            if (!pkt.receivedFrom().port().equals(dst.port()))
             {
-                return flowDataList.add(context, selector, k);
+                return flowDataList.add(context, selector, outPort);
             }
         }
 
@@ -155,86 +220,97 @@ public class FlowSeer
         return true;
     }
 
-    private String[] convertFlowDataToString(FlowData flowData)
+    FlowRecord toRecord(FlowData flowData, FlowRecord record)
     {
-        String data[] = new String[3+k+k];
-        data[0] = flowData.srcPort + "";
-        data[1] = flowData.dstPort + "";
-        data[2] = flowData.ipProtocol + "";
-        for (int i=3; i<k+3; i++)
+        record.srcPort = flowData.srcPort;
+        record.dstPort = flowData.dstPort;
+        record.ipProtocol = flowData.ipProtocol;
+        for (int i=0; i<k; i++)
         {
-            data[i] = flowData.packetSize[i-3] + "";
+            record.packetSize[i] = flowData.packetSize(i);
         }
-        for (int i=k+3; i<2+k+k; i++)
+        for (int i=1; i<k; i++)
         {
-            data[i] = (flowData.packetTime[i-k-2] - flowData.packetTime[i-k-3]) + "";
+            record.interArrivalTime[i-1] = flowData.packetTime(i) - flowData.packetTime(i-1);
         }
 
-        data[2+k+k] = "X";
+        record.label = 'X';
 
-        return data;
+        return record;
     }
 
-    public void train(FlowData flowData)
+    // Returns the record to train a finished flow with, or null if FlowSeer is
+    // stopped. Called with the flow's stripe locked; the record belongs to the
+    // calling thread and is handed to train() once the stripe is unlocked.
+    FlowRecord trainingRecord(FlowData flowData)
     {
-        String data[] = convertFlowDataToString(flowData);
+        if (!running)
+        {
+            return null;
+        }
+
+        FlowRecord record = toRecord(flowData, records.get());
 
         // determining elephant flow or mice flow
         double duration = (double)(flowData.endtime - flowData.starttime) / (double)1000;
         duration = duration - ReactiveForwarding.DEFAULT_TIMEOUT;
         double bandwidth = (double) (flowData.bytes * 8) / (double) 1000000 / (double) duration;
-        String result = "";
+        char result;
         if (bandwidth > this.bandwidth && duration > this.time)
         {
-            result = "E";
+            result = 'E';
         }
         else
         {
-            result = "X";
+            result = 'X';
         }
 
-        data[2+k+k] = result;
+        record.label = result;
+        return record;
+    }
 
-        log.info("Sending data for training");
-        log.info(Arrays.toString(data));
-        trainingStream.sendData(data);
+    void train(FlowRecord record)
+    {
+        log.trace("Training with {}", record);
+        classifier.train(record);
         hasTrained = true;
-        /*
-        boolean ans = trainingStream.receiveBoolean();
-        if (ans)
-        {
-            log.info("Correct Answer");
-        }
-        else
+    }
+
+    // Returns the record to test a sampled flow with, or null if there is
+    // nothing to test it against yet. Called like trainingRecord(), with test().
+    FlowRecord testingRecord(FlowData flowData)
+    {
+        if (hasTrained && running)
         {
-            log.info("Wrong Answer");
+            return toRecord(flowData, records.get());
         }
-        */
+        return null;
     }
 
-    public void test(FlowData flowData)
+    // The classifier hands its answer to verdict(), possibly later from another thread
+    void test(FlowRecord record, FlowVerdict verdict)
     {
-        if (hasTrained)
-        {
-            String data[] = convertFlowDataToString(flowData);
+        log.trace("Testing {}", record);
+        classifier.test(record, verdict);
+    }
+
+    // Called by the classifier with its prediction for a tested flow
+    void verdict(FlowVerdict verdict, char label, long latency)
+    {
+        verdict.label = label;
+        verdict.latency = latency;
+        log.debug("Classifier predicted {}", verdict);
 
-            log.info("Sending data for testing");
-            log.info(Arrays.toString(data));
-            testingStream.sendData(data);
-        /*
-        int ans = testingStream.receiveInt();
-        char result = '-';
-        if (ans == 0)
+        VerdictListener listener = this.verdictListener;
+        if (listener != null)
         {
-            result = 'X';
-            log.info(result + ": Mice flow.");
+            listener.verdict(verdict);
         }
-        else if (ans == 1)
+
+        FlowDataList flowDataList = this.flowDataList;
+        if (verdict.reinstalledPriority > 0 && flowDataList != null)
         {
-            result = 'E';
-            log.info(result + ": Elephant flow");
-        }
-        */
+            flowDataList.reinstalled(verdict.key, verdict.reinstalledPriority);
         }
     }
 
@@ -242,4 +318,9 @@ public class FlowSeer
     {
         return flowDataList;
     }
+
+    public Classifier getClassifier()
+    {
+        return classifier;
+    }
 }
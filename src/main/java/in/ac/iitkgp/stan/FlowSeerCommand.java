@@ -55,6 +55,8 @@ public class FlowSeerCommand extends AbstractShellCommand
             System.out.println("\tstart              \t\tStarts flowseer");
             System.out.println("\tstop               \t\tStops flowseer");
             System.out.println("\tshow-flow-data-list\t\tShows the flow data list table");
+            System.out.println("\tstats              \t\tShows the flow tracking and classifier counters");
+            System.out.println("\tshow-tree          \t\tShows the embedded classifier's decision tree");
             System.out.println();
         }
         else if (cmd.equals("status"))
@@ -62,6 +64,7 @@ public class FlowSeerCommand extends AbstractShellCommand
             if (fwdService.isFlowSeerActive)
             {
                 System.out.println("Flowseer is active.");
+                System.out.println("Classifier: " + flowSeer.getClassifier().describe());
             }
             else
             {
@@ -109,26 +112,34 @@ public class FlowSeerCommand extends AbstractShellCommand
                         }
                         else
                         {
-                            System.out.println("Enter host address / IP address of classifier: ");
-                            String host = readString();
-                            System.out.println("Enter port no for training: ");
-                            int trainingPort = readInt();
+                            String host = null;
+                            int trainingPort = 0;
+                            int testingPort = 0;
 
-                            while (trainingPort < 1024 || trainingPort > 65535)
+                            // the embedded classifier needs no classifier process to connect to
+                            if (!fwdService.isFlowSeerEmbedded())
                             {
-                                System.out.println("Error: Please enter a port no between 1024 and 65535");
+                                System.out.println("Enter host address / IP address of classifier: ");
+                                host = readString();
                                 System.out.println("Enter port no for training: ");
                                 trainingPort = readInt();
-                            }
 
-                            System.out.println("Enter port no for testing: ");
-                            int testingPort = readInt();
+                                while (trainingPort < 1024 || trainingPort > 65535)
+                                {
+                                    System.out.println("Error: Please enter a port no between 1024 and 65535");
+                                    System.out.println("Enter port no for training: ");
+                                    trainingPort = readInt();
+                                }
 
-                            while (testingPort < 1024 || testingPort > 65535)
-                            {
-                                System.out.println("Error: Please enter a port no between 1024 and 65535");
                                 System.out.println("Enter port no for testing: ");
                                 testingPort = readInt();
+
+                                while (testingPort < 1024 || testingPort > 65535)
+                                {
+                                    System.out.println("Error: Please enter a port no between 1024 and 65535");
+                                    System.out.println("Enter port no for testing: ");
+                                    testingPort = readInt();
+                                }
                             }
 
                             if (fwdService.startFlowSeer(k, b, t, host, trainingPort, testingPort))
@@ -175,6 +186,35 @@ public class FlowSeerCommand extends AbstractShellCommand
                 System.out.println("Type \"flowseer start\" to start FlowSeer.");
             }
         }
+        else if(cmd.equals("stats"))
+        {
+            if (fwdService.isFlowSeerActive)
+            {
+                flowDataList.printStats(System.out);
+                flowSeer.getClassifier().printStats(System.out);
+            }
+            else
+            {
+                System.out.println("FlowSeer is not active.");
+                System.out.println("Type \"flowseer start\" to start FlowSeer.");
+            }
+        }
+        else if(cmd.equals("show-tree"))
+        {
+            if (!fwdService.isFlowSeerActive)
+            {
+                System.out.println("FlowSeer is not active.");
+                System.out.println("Type \"flowseer start\" to start FlowSeer.");
+            }
+            else if (flowSeer.getClassifier() instanceof HoeffdingTreeClassifier)
+            {
+                ((HoeffdingTreeClassifier) flowSeer.getClassifier()).printTree(System.out);
+            }
+            else
+            {
+                System.out.println("FlowSeer is using a remote classifier.");
+            }
+        }
         else
         {
             System.out.println("Command not found.");
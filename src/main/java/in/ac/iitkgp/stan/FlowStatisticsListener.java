@@ -16,8 +16,6 @@
 package in.ac.iitkgp.stan;
 
 import org.onlab.packet.IPv4;
-import org.onlab.packet.IpAddress;
-import org.onlab.packet.MacAddress;
 import org.onosproject.core.CoreService;
 import org.onosproject.net.flow.FlowEntry;
 import org.onosproject.net.flow.FlowRule;
@@ -100,9 +98,9 @@ public class FlowStatisticsListener implements FlowRuleListener
         // MAC addresses, Ethertype and VLAN
         EthCriterion ethCrit;
         ethCrit = (EthCriterion) flowEntry.selector().getCriterion(Criterion.Type.ETH_SRC);
-        MacAddress srcMac = (ethCrit == null) ? MacAddress.valueOf("00:00:00:00:00:00") : ethCrit.mac();
+        long srcMac = (ethCrit == null) ? 0 : ethCrit.mac().toLong();
         ethCrit = (EthCriterion) flowEntry.selector().getCriterion(Criterion.Type.ETH_DST);
-        MacAddress dstMac = (ethCrit == null) ? MacAddress.valueOf("00:00:00:00:00:00") : ethCrit.mac();
+        long dstMac = (ethCrit == null) ? 0 : ethCrit.mac().toLong();
         
         // Ethertype
         EthTypeCriterion ethTypeCrit = (EthTypeCriterion) flowEntry.selector().getCriterion(Criterion.Type.ETH_TYPE);
@@ -124,9 +122,9 @@ public class FlowStatisticsListener implements FlowRuleListener
 
         // Getting IP addresses
         IPCriterion srcIpCrit = (IPCriterion) flowEntry.selector().getCriterion(Criterion.Type.IPV4_SRC);
-        IpAddress srcIp = (srcIpCrit == null) ? IpAddress.valueOf(0) : srcIpCrit.ip().address();
+        int srcIp = (srcIpCrit == null) ? 0 : srcIpCrit.ip().address().getIp4Address().toInt();
         IPCriterion dstIpCrit = (IPCriterion) flowEntry.selector().getCriterion(Criterion.Type.IPV4_DST);
-        IpAddress dstIp = (dstIpCrit == null) ? IpAddress.valueOf(0) : dstIpCrit.ip().address();
+        int dstIp = (dstIpCrit == null) ? 0 : dstIpCrit.ip().address().getIp4Address().toInt();
 
         // Getting source port and destination port
         int srcPort = 0;
@@ -150,9 +148,9 @@ public class FlowStatisticsListener implements FlowRuleListener
         else if (ipProtocol == IPv4.PROTOCOL_ICMP)
         {
             IcmpTypeCriterion icmpTypeCrit = (IcmpTypeCriterion) flowEntry.selector().getCriterion(Criterion.Type.ICMPV4_TYPE);
-            Short icmpType = (icmpTypeCrit == null) ? 0 : icmpTypeCrit.icmpType();
+            int icmpType = (icmpTypeCrit == null) ? 0 : icmpTypeCrit.icmpType();
             IcmpCodeCriterion icmpCodeCrit = (IcmpCodeCriterion) flowEntry.selector().getCriterion(Criterion.Type.ICMPV4_CODE);
-            Short icmpCode = (icmpCodeCrit == null) ? 0 : icmpCodeCrit.icmpCode();
+            int icmpCode = (icmpCodeCrit == null) ? 0 : icmpCodeCrit.icmpCode();
             dstPort = 256 * icmpType + icmpCode;
         }
 
@@ -176,6 +174,8 @@ public class FlowStatisticsListener implements FlowRuleListener
                 dstPort
         );
 
+        data.priority = flowEntry.priority();
+
         //data.print(log);
         //data.print(System.out);
 
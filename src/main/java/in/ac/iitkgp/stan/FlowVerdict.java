@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.TrafficSelector;
+
+/**
+ * Prediction of the classifier for a tested flow, together with the rule
+ * that was installed for the flow when it was tested.
+ */
+public final class FlowVerdict
+{
+    final FlowKey key;
+    private final DeviceId deviceId;
+    private final TrafficSelector selector;
+    private final PortNumber outPort;
+    char label;
+    long latency;
+    int reinstalledPriority;
+
+    FlowVerdict(FlowKey key, DeviceId deviceId, TrafficSelector selector, PortNumber outPort)
+    {
+        this.key = key;
+        this.deviceId = deviceId;
+        this.selector = selector;
+        this.outPort = outPort;
+    }
+
+    /**
+     * Device the flow was sampled on and its rule installed.
+     *
+     * @return device identifier
+     */
+    public DeviceId deviceId()
+    {
+        return deviceId;
+    }
+
+    public TrafficSelector selector()
+    {
+        return selector;
+    }
+
+    public PortNumber outPort()
+    {
+        return outPort;
+    }
+
+    /**
+     * Class predicted by the classifier, 'E' for an elephant flow and 'X' otherwise.
+     *
+     * @return predicted class
+     */
+    public char label()
+    {
+        return label;
+    }
+
+    public boolean isElephant()
+    {
+        return label == 'E';
+    }
+
+    /**
+     * Time from sending the flow to the classifier to receiving its answer.
+     *
+     * @return latency in nanoseconds
+     */
+    public long latency()
+    {
+        return latency;
+    }
+
+    /**
+     * Tells FlowSeer that the flow's rule has been replaced by one with the
+     * given priority, so that the removal of the old rule is not mistaken for
+     * the end of the flow when training.
+     *
+     * @param priority priority of the new rule
+     */
+    public void reinstalled(int priority)
+    {
+        this.reinstalledPriority = priority;
+    }
+
+    @Override
+    public String toString()
+    {
+        return key + " on " + deviceId + " -> " + label;
+    }
+}
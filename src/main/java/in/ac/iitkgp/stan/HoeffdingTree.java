@@ -0,0 +1,524 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+import java.io.PrintStream;
+
+/**
+ * Incremental decision tree for numeric attributes (VFDT, Domingos and Hulten).
+ * <p>
+ * Every leaf keeps a Gaussian estimate of each attribute per class. Once a
+ * leaf has seen a grace period of instances since it last tried, candidate
+ * thresholds of every attribute are scored by information gain, and the leaf
+ * is split on the best one when the Hoeffding bound shows with the configured
+ * confidence that it is better than the second best, or when the two are
+ * too close for it to matter. Leaves predict with the majority class or with
+ * naive Bayes, whichever has been more accurate at that leaf.
+ * <p>
+ * Not thread-safe.
+ */
+public class HoeffdingTree
+{
+    public static final int DEFAULT_GRACE_PERIOD = 200;
+    public static final double DEFAULT_SPLIT_CONFIDENCE = 1e-7;
+    public static final double DEFAULT_TIE_THRESHOLD = 0.05;
+    // candidate thresholds tried per attribute
+    private static final int SPLIT_POINTS = 10;
+    // a split must send at least this fraction of the weight each way
+    private static final double MIN_BRANCH_FRACTION = 0.01;
+    // leaves stop splitting once the tree has this many
+    private static final int MAX_LEAVES = 4096;
+
+    private final int numAttributes;
+    private final int numClasses;
+    private final int gracePeriod;
+    private final double splitConfidence;
+    private final double tieThreshold;
+
+    private Node root;
+    private int splitNodes;
+    private int leaves;
+    private long instances;
+
+    // scratch space for split evaluation, reused to avoid garbage
+    private final double left[];
+    private final double right[];
+    private final double bestLeft[];
+    private final double bestRight[];
+
+    private abstract static class Node
+    {
+    }
+
+    private static final class SplitNode extends Node
+    {
+        final int attribute;
+        final double threshold;
+        Node left;
+        Node right;
+
+        SplitNode(int attribute, double threshold)
+        {
+            this.attribute = attribute;
+            this.threshold = threshold;
+        }
+    }
+
+    private static final class LeafNode extends Node
+    {
+        final double classCounts[];
+        // [attribute][class]
+        final GaussianEstimator estimators[][];
+        double weightAtLastEvaluation;
+        // how often each way of predicting would have been right here
+        double majorityCorrect;
+        double naiveBayesCorrect;
+
+        LeafNode(int numAttributes, double classCounts[])
+        {
+            this.classCounts = classCounts;
+            this.estimators = new GaussianEstimator[numAttributes][classCounts.length];
+            for (int a = 0; a < numAttributes; a++)
+            {
+                for (int c = 0; c < classCounts.length; c++)
+                {
+                    estimators[a][c] = new GaussianEstimator();
+                }
+            }
+            this.weightAtLastEvaluation = weight();
+        }
+
+        double weight()
+        {
+            double w = 0;
+            for (double count : classCounts)
+            {
+                w += count;
+            }
+            return w;
+        }
+
+        boolean isPure()
+        {
+            int nonZero = 0;
+            for (double count : classCounts)
+            {
+                if (count > 0)
+                {
+                    nonZero++;
+                }
+            }
+            return nonZero < 2;
+        }
+    }
+
+    // Running mean, variance and range of one attribute for one class
+    private static final class GaussianEstimator
+    {
+        double weight;
+        double mean;
+        double varianceSum;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+
+        void add(double x)
+        {
+            weight++;
+            double delta = x - mean;
+            mean += delta / weight;
+            varianceSum += delta * (x - mean);
+            min = Math.min(min, x);
+            max = Math.max(max, x);
+        }
+
+        double stdDev()
+        {
+            return weight > 1 ? Math.sqrt(varianceSum / (weight - 1)) : 0;
+        }
+
+        double pdf(double x)
+        {
+            if (weight == 0)
+            {
+                return 0;
+            }
+            double sd = stdDev();
+            if (sd == 0)
+            {
+                return x == mean ? 1 : 0;
+            }
+            double z = (x - mean) / sd;
+            return Math.exp(-0.5 * z * z) / (sd * Math.sqrt(2 * Math.PI));
+        }
+
+        // Estimated weight of the values that are less than or equal to x
+        double weightAtMost(double x)
+        {
+            if (weight == 0 || x < min)
+            {
+                return 0;
+            }
+            if (x >= max)
+            {
+                return weight;
+            }
+            double sd = stdDev();
+            if (sd == 0)
+            {
+                return x >= mean ? weight : 0;
+            }
+            return weight * normalCdf((x - mean) / sd);
+        }
+    }
+
+    public HoeffdingTree(int numAttributes, int numClasses)
+    {
+        this(numAttributes, numClasses, DEFAULT_GRACE_PERIOD, DEFAULT_SPLIT_CONFIDENCE, DEFAULT_TIE_THRESHOLD);
+    }
+
+    public HoeffdingTree(int numAttributes, int numClasses, int gracePeriod,
+                         double splitConfidence, double tieThreshold)
+    {
+        this.numAttributes = numAttributes;
+        this.numClasses = numClasses;
+        this.gracePeriod = gracePeriod;
+        this.splitConfidence = splitConfidence;
+        this.tieThreshold = tieThreshold;
+        this.left = new double[numClasses];
+        this.right = new double[numClasses];
+        this.bestLeft = new double[numClasses];
+        this.bestRight = new double[numClasses];
+        this.root = new LeafNode(numAttributes, new double[numClasses]);
+        this.leaves = 1;
+    }
+
+    /**
+     * Learns from one labelled instance.
+     *
+     * @param x     attribute values
+     * @param label class index
+     */
+    public void train(double x[], int label)
+    {
+        instances++;
+
+        SplitNode parent = null;
+        Node node = root;
+        while (node instanceof SplitNode)
+        {
+            parent = (SplitNode) node;
+            node = x[parent.attribute] <= parent.threshold ? parent.left : parent.right;
+        }
+        LeafNode leaf = (LeafNode) node;
+
+        // score both ways of predicting before learning from the instance
+        if (majorityClass(leaf) == label)
+        {
+            leaf.majorityCorrect++;
+        }
+        if (naiveBayesClass(leaf, x) == label)
+        {
+            leaf.naiveBayesCorrect++;
+        }
+
+        leaf.classCounts[label]++;
+        for (int a = 0; a < numAttributes; a++)
+        {
+            leaf.estimators[a][label].add(x[a]);
+        }
+
+        double weight = leaf.weight();
+        if (weight - leaf.weightAtLastEvaluation >= gracePeriod && leaves < MAX_LEAVES)
+        {
+            leaf.weightAtLastEvaluation = weight;
+            if (!leaf.isPure())
+            {
+                attemptSplit(leaf, parent, weight);
+            }
+        }
+    }
+
+    /**
+     * Predicts the class of an instance.
+     *
+     * @param x attribute values
+     * @return class index
+     */
+    public int predict(double x[])
+    {
+        Node node = root;
+        while (node instanceof SplitNode)
+        {
+            SplitNode split = (SplitNode) node;
+            node = x[split.attribute] <= split.threshold ? split.left : split.right;
+        }
+        LeafNode leaf = (LeafNode) node;
+
+        return leaf.naiveBayesCorrect > leaf.majorityCorrect
+                ? naiveBayesClass(leaf, x) : majorityClass(leaf);
+    }
+
+    private int majorityClass(LeafNode leaf)
+    {
+        int best = 0;
+        for (int c = 1; c < numClasses; c++)
+        {
+            if (leaf.classCounts[c] > leaf.classCounts[best])
+            {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private int naiveBayesClass(LeafNode leaf, double x[])
+    {
+        double total = leaf.weight();
+        if (total == 0)
+        {
+            return 0;
+        }
+
+        int best = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < numClasses; c++)
+        {
+            if (leaf.classCounts[c] == 0)
+            {
+                continue;
+            }
+            double score = Math.log(leaf.classCounts[c] / total);
+            for (int a = 0; a < numAttributes; a++)
+            {
+                // floor the density so one unseen value does not rule out a class
+                score += Math.log(Math.max(leaf.estimators[a][c].pdf(x[a]), 1e-300));
+            }
+            if (score > bestScore)
+            {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private void attemptSplit(LeafNode leaf, SplitNode parent, double weight)
+    {
+        double preEntropy = entropy(leaf.classCounts);
+
+        // the best split of each attribute competes with not splitting at all
+        int bestAttribute = -1;
+        double bestThreshold = 0;
+        double bestMerit = 0;
+        double secondMerit = 0;
+
+        for (int a = 0; a < numAttributes; a++)
+        {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int c = 0; c < numClasses; c++)
+            {
+                min = Math.min(min, leaf.estimators[a][c].min);
+                max = Math.max(max, leaf.estimators[a][c].max);
+            }
+            if (!(min < max))
+            {
+                continue;
+            }
+
+            double attributeMerit = 0;
+            double attributeThreshold = 0;
+            for (int i = 1; i <= SPLIT_POINTS; i++)
+            {
+                double threshold = min + (max - min) * i / (SPLIT_POINTS + 1);
+                for (int c = 0; c < numClasses; c++)
+                {
+                    left[c] = leaf.estimators[a][c].weightAtMost(threshold);
+                    right[c] = leaf.classCounts[c] - left[c];
+                }
+                double merit = infoGain(preEntropy, weight);
+                if (merit > attributeMerit)
+                {
+                    attributeMerit = merit;
+                    attributeThreshold = threshold;
+                    if (merit > bestMerit)
+                    {
+                        System.arraycopy(left, 0, bestLeft, 0, numClasses);
+                        System.arraycopy(right, 0, bestRight, 0, numClasses);
+                    }
+                }
+            }
+
+            if (attributeMerit > bestMerit)
+            {
+                secondMerit = bestMerit;
+                bestMerit = attributeMerit;
+                bestAttribute = a;
+                bestThreshold = attributeThreshold;
+            }
+            else if (attributeMerit > secondMerit)
+            {
+                secondMerit = attributeMerit;
+            }
+        }
+
+        if (bestAttribute < 0)
+        {
+            return;
+        }
+
+        double range = Math.log(numClasses) / Math.log(2);
+        double epsilon = Math.sqrt(range * range * Math.log(1 / splitConfidence) / (2 * weight));
+        if (bestMerit - secondMerit > epsilon || epsilon < tieThreshold)
+        {
+            SplitNode split = new SplitNode(bestAttribute, bestThreshold);
+            split.left = new LeafNode(numAttributes, bestLeft.clone());
+            split.right = new LeafNode(numAttributes, bestRight.clone());
+
+            if (parent == null)
+            {
+                root = split;
+            }
+            else if (parent.left == leaf)
+            {
+                parent.left = split;
+            }
+            else
+            {
+                parent.right = split;
+            }
+            splitNodes++;
+            leaves++;
+        }
+    }
+
+    // Information gain of splitting into the left and right class distributions
+    private double infoGain(double preEntropy, double weight)
+    {
+        double leftWeight = 0;
+        double rightWeight = 0;
+        for (int c = 0; c < numClasses; c++)
+        {
+            leftWeight += left[c];
+            rightWeight += right[c];
+        }
+        if (leftWeight < MIN_BRANCH_FRACTION * weight || rightWeight < MIN_BRANCH_FRACTION * weight)
+        {
+            return 0;
+        }
+        return preEntropy
+                - (leftWeight / weight) * entropy(left)
+                - (rightWeight / weight) * entropy(right);
+    }
+
+    private static double entropy(double counts[])
+    {
+        double total = 0;
+        for (double count : counts)
+        {
+            total += count;
+        }
+        if (total <= 0)
+        {
+            return 0;
+        }
+
+        double entropy = 0;
+        for (double count : counts)
+        {
+            if (count > 0)
+            {
+                double p = count / total;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+
+    // Standard normal cumulative distribution (Abramowitz and Stegun 7.1.26)
+    private static double normalCdf(double z)
+    {
+        double x = Math.abs(z) / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * x);
+        double erf = 1 - ((((1.061405429 * t - 1.453152027) * t + 1.421413741) * t
+                - 0.284496736) * t + 0.254829592) * t * Math.exp(-x * x);
+        return z >= 0 ? 0.5 * (1 + erf) : 0.5 * (1 - erf);
+    }
+
+    public long instances()
+    {
+        return instances;
+    }
+
+    public int leaves()
+    {
+        return leaves;
+    }
+
+    public int splitNodes()
+    {
+        return splitNodes;
+    }
+
+    public int depth()
+    {
+        return depth(root);
+    }
+
+    private static int depth(Node node)
+    {
+        if (node instanceof SplitNode)
+        {
+            SplitNode split = (SplitNode) node;
+            return 1 + Math.max(depth(split.left), depth(split.right));
+        }
+        return 0;
+    }
+
+    /**
+     * Prints the splits of the tree, one per line, indented by depth.
+     *
+     * @param out            the stream to print to
+     * @param attributeNames names of the attributes
+     * @param classNames     names of the classes
+     */
+    public void print(PrintStream out, String attributeNames[], String classNames[])
+    {
+        print(out, root, attributeNames, classNames, "");
+    }
+
+    private void print(PrintStream out, Node node, String attributeNames[], String classNames[], String indent)
+    {
+        if (node instanceof SplitNode)
+        {
+            SplitNode split = (SplitNode) node;
+            out.println(indent + attributeNames[split.attribute] + " <= " + split.threshold);
+            print(out, split.left, attributeNames, classNames, indent + "|   ");
+            out.println(indent + attributeNames[split.attribute] + " > " + split.threshold);
+            print(out, split.right, attributeNames, classNames, indent + "|   ");
+        }
+        else
+        {
+            LeafNode leaf = (LeafNode) node;
+            StringBuilder sb = new StringBuilder(indent).append(classNames[majorityClass(leaf)]).append(" (");
+            for (int c = 0; c < numClasses; c++)
+            {
+                sb.append(c == 0 ? "" : "/").append((long) leaf.classCounts[c]);
+            }
+            out.println(sb.append(')'));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+import java.io.PrintStream;
+
+/**
+ * Classifier running inside ONOS, backed by a {@link HoeffdingTree}.
+ * Training and testing happen on the calling thread, so predictions are
+ * handed back before {@link #test} returns. Ports and protocol are treated
+ * as numeric attributes like the packet sizes and inter-arrival times.
+ */
+class HoeffdingTreeClassifier implements Classifier
+{
+    private static final String CLASSES[] = {"X", "E"};
+
+    private final FlowSeer flowSeer;
+    private final String attributeNames[];
+    private final HoeffdingTree tree;
+    // feature values of the record being trained or tested by each thread
+    private final ThreadLocal<double[]> values;
+
+    private long trained;
+    private long correct;
+    private long tested;
+    private long elephants;
+    private long totalLatency;
+    private long maxLatency;
+
+    HoeffdingTreeClassifier(FlowSeer flowSeer, String attributes[][], int gracePeriod)
+    {
+        this.flowSeer = flowSeer;
+        // the last attribute is the class
+        this.attributeNames = new String[attributes.length - 1];
+        for (int i = 0; i < attributeNames.length; i++)
+        {
+            attributeNames[i] = attributes[i][0];
+        }
+        this.tree = new HoeffdingTree(attributeNames.length, CLASSES.length, gracePeriod,
+                HoeffdingTree.DEFAULT_SPLIT_CONFIDENCE, HoeffdingTree.DEFAULT_TIE_THRESHOLD);
+        this.values = ThreadLocal.withInitial(() -> new double[attributeNames.length]);
+    }
+
+    @Override
+    public boolean start(FlowRecord dummyRecord)
+    {
+        return true;
+    }
+
+    @Override
+    public void stop()
+    {
+    }
+
+    @Override
+    public void train(FlowRecord record)
+    {
+        double values[] = load(record);
+        int label = record.label == 'E' ? 1 : 0;
+
+        synchronized (this)
+        {
+            // test then train, which gives the accuracy on flows the tree had not seen
+            if (tree.predict(values) == label)
+            {
+                correct++;
+            }
+            tree.train(values, label);
+            trained++;
+        }
+    }
+
+    @Override
+    public void test(FlowRecord record, FlowVerdict verdict)
+    {
+        long start = System.nanoTime();
+        double values[] = load(record);
+        char label;
+        long latency;
+        synchronized (this)
+        {
+            label = CLASSES[tree.predict(values)].charAt(0);
+            tested++;
+            if (label == 'E')
+            {
+                elephants++;
+            }
+            latency = System.nanoTime() - start;
+            totalLatency += latency;
+            maxLatency = Math.max(maxLatency, latency);
+        }
+        flowSeer.verdict(verdict, label, latency);
+    }
+
+    // Only the tree is shared, so the features are read without the lock
+    private double[] load(FlowRecord record)
+    {
+        double values[] = this.values.get();
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = record.feature(i);
+        }
+        return values;
+    }
+
+    @Override
+    public synchronized String describe()
+    {
+        return "embedded Hoeffding tree, " + tree.leaves() + " leaves, depth " + tree.depth();
+    }
+
+    @Override
+    public synchronized void printStats(PrintStream out)
+    {
+        out.println("Classifier        : " + describe());
+        out.println("Flows trained     : " + trained);
+        out.println("Accuracy          : " + (trained == 0 ? "-" : String.format("%.1f%%", 100.0 * correct / trained)));
+        out.println("Flows tested      : " + tested + " (" + elephants + " elephant)");
+        out.println("Verdict avg (ns)  : " + (tested == 0 ? 0 : totalLatency / tested));
+        out.println("Verdict max (ns)  : " + maxLatency);
+    }
+
+    public synchronized void printTree(PrintStream out)
+    {
+        tree.print(out, attributeNames, CLASSES);
+    }
+}
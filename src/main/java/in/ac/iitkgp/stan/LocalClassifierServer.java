@@ -0,0 +1,530 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-alone stand-in for the FlowSeer classifier. It accepts the training
+ * and testing streams exactly as FlowSeer sends them, in ARFF or in binary
+ * framing, decodes every record and reports how many records and bytes it
+ * received. On testing ports it also answers every record, predicting an
+ * elephant flow when the average sampled packet is at least
+ * {@value #ELEPHANT_PACKET_SIZE} bytes.
+ * <p>
+ * To see how FlowSeer copes with a classifier in trouble, the server can
+ * answer each record only after a delay ({@code -l} milliseconds), stop
+ * reading for a while after every so many records ({@code -s records:ms}),
+ * and drop every connection after a number of records ({@code -x}). It does
+ * not need ONOS and can be run as
+ * <pre>
+ *   java -cp onos-app-fwd.jar in.ac.iitkgp.stan.LocalClassifierServer [-v] [-l ms] [-s records:ms] [-x records]
+ *        [-t testingPort]... port...
+ * </pre>
+ */
+public class LocalClassifierServer
+{
+    public static final int ELEPHANT_PACKET_SIZE = 1000;
+
+    private final int port;
+    private final boolean testing;
+    private final boolean verbose;
+    private final PrintStream out;
+    private ServerSocket serverSocket;
+    private volatile long replyLatency;
+    private volatile long stallEvery, stallTime;
+    private volatile long disconnectAfter;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong answered = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+
+    public LocalClassifierServer(int port, boolean testing, boolean verbose, PrintStream out)
+    {
+        this.port = port;
+        this.testing = testing;
+        this.verbose = verbose;
+        this.out = out;
+    }
+
+    public static void main(String args[]) throws IOException
+    {
+        boolean verbose = false;
+        long latency = 0, stallEvery = 0, stallTime = 0, disconnectAfter = 0;
+        List<Integer> ports = new ArrayList<Integer>();
+        List<Integer> testingPorts = new ArrayList<Integer>();
+        for (int i=0; i<args.length; i++)
+        {
+            if (args[i].equals("-v"))
+            {
+                verbose = true;
+            }
+            else if (args[i].equals("-t") && i + 1 < args.length)
+            {
+                testingPorts.add(Integer.parseInt(args[++i]));
+            }
+            else if (args[i].equals("-l") && i + 1 < args.length)
+            {
+                latency = Long.parseLong(args[++i]);
+            }
+            else if (args[i].equals("-s") && i + 1 < args.length)
+            {
+                String stall[] = args[++i].split(":");
+                stallEvery = Long.parseLong(stall[0]);
+                stallTime = Long.parseLong(stall[1]);
+            }
+            else if (args[i].equals("-x") && i + 1 < args.length)
+            {
+                disconnectAfter = Long.parseLong(args[++i]);
+            }
+            else
+            {
+                ports.add(Integer.parseInt(args[i]));
+            }
+        }
+
+        if (ports.isEmpty() && testingPorts.isEmpty())
+        {
+            System.err.println("Usage: LocalClassifierServer [-v] [-l ms] [-s records:ms] [-x records] "
+                    + "[-t testingPort]... port...");
+            System.exit(1);
+        }
+
+        List<LocalClassifierServer> servers = new ArrayList<LocalClassifierServer>();
+        for (int port : ports)
+        {
+            servers.add(new LocalClassifierServer(port, false, verbose, System.out));
+        }
+        for (int port : testingPorts)
+        {
+            servers.add(new LocalClassifierServer(port, true, verbose, System.out));
+        }
+        for (LocalClassifierServer server : servers)
+        {
+            server.setReplyLatency(latency);
+            server.setStall(stallEvery, stallTime);
+            server.setDisconnectAfter(disconnectAfter);
+            server.start();
+        }
+    }
+
+    /**
+     * Delays every answer of a testing port, as a slow classifier would.
+     *
+     * @param millis delay in milliseconds, 0 to answer straight away
+     */
+    public void setReplyLatency(long millis)
+    {
+        this.replyLatency = millis;
+    }
+
+    /**
+     * Makes every connection stop reading for a while after every so many
+     * records, so that the sender's socket buffer fills up.
+     *
+     * @param records records between stalls, 0 to never stall
+     * @param millis  length of each stall in milliseconds
+     */
+    public void setStall(long records, long millis)
+    {
+        this.stallEvery = records;
+        this.stallTime = millis;
+    }
+
+    /**
+     * Makes the server drop every connection after it received a number of
+     * records, so that the sender has to reconnect.
+     *
+     * @param records records received before a connection is dropped, 0 to never drop it
+     */
+    public void setDisconnectAfter(long records)
+    {
+        this.disconnectAfter = records;
+    }
+
+    /**
+     * Starts accepting connections on a background thread.
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    public void start() throws IOException
+    {
+        serverSocket = new ServerSocket(port);
+        Thread acceptor = new Thread(this::accept, "classifier-" + port);
+        acceptor.start();
+        out.println("Listening on port " + port);
+    }
+
+    public void stop() throws IOException
+    {
+        if (serverSocket != null)
+        {
+            serverSocket.close();
+        }
+    }
+
+    public int port()
+    {
+        return port;
+    }
+
+    public void printStats(PrintStream out)
+    {
+        out.println("Port " + port + (testing ? " (testing)" : " (training)"));
+        out.println("  Records received: " + received.get());
+        out.println("  Records answered: " + answered.get());
+        out.println("  Stalls          : " + stalls.get());
+        out.println("  Disconnects     : " + disconnects.get());
+    }
+
+    private void accept()
+    {
+        while (!serverSocket.isClosed())
+        {
+            try
+            {
+                Socket socket = serverSocket.accept();
+                Thread handler = new Thread(() -> handle(socket), "classifier-" + port + "-" + socket.getPort());
+                handler.setDaemon(true);
+                handler.start();
+            }
+            catch (IOException e)
+            {
+                if (!serverSocket.isClosed())
+                {
+                    e.printStackTrace(out);
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket)
+    {
+        long start = System.nanoTime();
+        CountingInputStream counter = null;
+        long records = 0;
+        String format = "ARFF";
+        ScheduledExecutorService replier = null;
+
+        try
+        {
+            DataOutputStream reply = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            counter = new CountingInputStream(new BufferedInputStream(socket.getInputStream()), reply);
+            DataInputStream in = new DataInputStream(counter);
+            if (testing && replyLatency > 0)
+            {
+                counter.flushBeforeBlocking = null;
+                // answers are written in order by a thread of their own, each after the same delay
+                replier = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "classifier-" + port + "-" + socket.getPort() + "-replies");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+
+            String line = readLine(in);
+            if (BinaryRecordFormat.OFFER.equals(line))
+            {
+                reply.writeBytes(BinaryRecordFormat.ACCEPT + "\n");
+                reply.flush();
+                format = "binary";
+                records = readBinary(in, reply, replier);
+            }
+            else
+            {
+                records = readArff(in, line, reply, replier);
+            }
+        }
+        catch (EOFException e)
+        {
+            // client disconnected
+        }
+        catch (Disconnect e)
+        {
+            records = e.records;
+            disconnects.incrementAndGet();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace(out);
+        }
+        finally
+        {
+            if (replier != null)
+            {
+                replier.shutdownNow();
+            }
+            try
+            {
+                socket.close();
+            }
+            catch (IOException e)
+            {
+                // nothing more to do
+            }
+        }
+
+        double secs = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        long bytes = (counter == null) ? 0 : counter.count;
+        out.printf("Port %d: %s stream closed, %d records, %d bytes (%.1f bytes/record, %.0f records/s)%n",
+                   port, format, records, bytes, records == 0 ? 0.0 : (double) bytes / records, records / secs);
+    }
+
+    private long readBinary(DataInputStream in, DataOutputStream reply, ScheduledExecutorService replier)
+            throws IOException
+    {
+        BinaryRecordDecoder decoder = new BinaryRecordDecoder();
+        decoder.readSchema(in);
+        FlowRecord record = decoder.newRecord();
+        long records = 0;
+
+        while (true)
+        {
+            try
+            {
+                decoder.readRecord(in, record);
+            }
+            catch (EOFException e)
+            {
+                return records;
+            }
+            received(record, records++, true, in, reply, replier);
+        }
+    }
+
+    private long readArff(DataInputStream in, String line, DataOutputStream reply, ScheduledExecutorService replier)
+            throws IOException
+    {
+        int attributes = 0;
+        while (line != null && !line.trim().equalsIgnoreCase("@data"))
+        {
+            if (line.trim().toLowerCase().startsWith("@attribute"))
+            {
+                attributes++;
+            }
+            line = readLine(in);
+        }
+
+        FlowRecord record = new FlowRecord(BinaryRecordFormat.k(attributes));
+        long records = 0;
+
+        while ((line = readLine(in)) != null)
+        {
+            if (line.isEmpty() || line.startsWith("%"))
+            {
+                continue;
+            }
+            parseArff(line, record);
+            received(record, records++, false, in, reply, replier);
+        }
+        return records;
+    }
+
+    private static void parseArff(String line, FlowRecord record) throws IOException
+    {
+        String values[] = line.split(",");
+        int k = record.k();
+        if (values.length != 2 * k + 3)
+        {
+            throw new IOException("Malformed record: " + line);
+        }
+
+        record.srcPort = Integer.parseInt(values[0].trim());
+        record.dstPort = Integer.parseInt(values[1].trim());
+        record.ipProtocol = Integer.parseInt(values[2].trim());
+        for (int i=0; i<k; i++)
+        {
+            record.packetSize[i] = Integer.parseInt(values[3 + i].trim());
+        }
+        for (int i=0; i<k-1; i++)
+        {
+            record.interArrivalTime[i] = Long.parseLong(values[3 + k + i].trim());
+        }
+        record.label = values[2 * k + 2].trim().charAt(0);
+    }
+
+    // The first record of a stream is the dummy record, which is not answered
+    private void received(FlowRecord record, long n, boolean binary,
+                          DataInputStream in, DataOutputStream reply, ScheduledExecutorService replier)
+            throws IOException
+    {
+        received(record);
+        received.incrementAndGet();
+
+        if (testing && n > 0)
+        {
+            char label = predict(record);
+            if (replier == null)
+            {
+                // written out in batches, when no more records are waiting
+                answer(reply, binary, n, label);
+            }
+            else
+            {
+                replier.schedule(() -> {
+                    try
+                    {
+                        answer(reply, binary, n, label);
+                        reply.flush();
+                    }
+                    catch (IOException e)
+                    {
+                        // the connection is gone, and so are the answers still due
+                    }
+                }, replyLatency, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        long disconnectAfter = this.disconnectAfter;
+        if (disconnectAfter > 0 && n + 1 >= disconnectAfter)
+        {
+            throw new Disconnect(n + 1);
+        }
+        long stallEvery = this.stallEvery;
+        if (stallEvery > 0 && (n + 1) % stallEvery == 0)
+        {
+            stalls.incrementAndGet();
+            try
+            {
+                Thread.sleep(stallTime);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void answer(DataOutputStream reply, boolean binary, long n, char label) throws IOException
+    {
+        if (binary)
+        {
+            BinaryRecordFormat.writeVerdict(reply, (int) (n - 1), label);
+        }
+        else
+        {
+            reply.writeInt(label == 'E' ? 1 : 0);
+        }
+        answered.incrementAndGet();
+    }
+
+    protected void received(FlowRecord record)
+    {
+        if (verbose)
+        {
+            out.println(port + ": " + record);
+        }
+    }
+
+    protected char predict(FlowRecord record)
+    {
+        long total = 0;
+        for (int i=0; i<record.k(); i++)
+        {
+            total += record.packetSize(i);
+        }
+        return (record.k() > 0 && total / record.k() >= ELEPHANT_PACKET_SIZE) ? 'E' : 'X';
+    }
+
+    private static String readLine(DataInputStream in) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n')
+        {
+            if (c != '\r')
+            {
+                sb.append((char) c);
+            }
+        }
+        return (c < 0 && sb.length() == 0) ? null : sb.toString();
+    }
+
+    // Thrown to drop a connection on purpose
+    private static final class Disconnect extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        final long records;
+
+        Disconnect(long records)
+        {
+            super("Disconnected after " + records + " records");
+            this.records = records;
+        }
+    }
+
+    // Counts the bytes received on a connection, and writes out the answers
+    // given so far before waiting for more
+    private static final class CountingInputStream extends java.io.FilterInputStream
+    {
+        long count;
+        Flushable flushBeforeBlocking;
+
+        CountingInputStream(java.io.InputStream in, Flushable flushBeforeBlocking)
+        {
+            super(in);
+            this.flushBeforeBlocking = flushBeforeBlocking;
+        }
+
+        private void flushIfBlocking() throws IOException
+        {
+            if (flushBeforeBlocking != null && in.available() == 0)
+            {
+                flushBeforeBlocking.flush();
+            }
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            flushIfBlocking();
+            int c = super.read();
+            if (c >= 0)
+            {
+                count++;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(byte b[], int off, int len) throws IOException
+        {
+            flushIfBlocking();
+            int n = super.read(b, off, len);
+            if (n > 0)
+            {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
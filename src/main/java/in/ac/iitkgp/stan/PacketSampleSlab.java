@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+import java.util.Arrays;
+
+/**
+ * Columnar storage for the first k packet sizes and arrival times of flows.
+ * Each flow owns a slot of k consecutive entries in preallocated primitive
+ * chunks. Slots of evicted flows are recycled. Not thread safe; every
+ * stripe of the flow data list owns its own slab.
+ */
+final class PacketSampleSlab
+{
+    // number of slots per chunk, as a power of two
+    private static final int CHUNK_SHIFT = 8;
+    private static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SLOTS - 1;
+
+    private final int k;
+    private int sizes[][];
+    private long times[][];
+    private int chunks;
+
+    // slots released by evicted flows
+    private int freeSlots[];
+    private int freeCount;
+    // first slot that has never been handed out
+    private int nextSlot;
+
+    PacketSampleSlab(int k)
+    {
+        this.k = k;
+        this.sizes = new int[4][];
+        this.times = new long[4][];
+        this.freeSlots = new int[CHUNK_SLOTS];
+    }
+
+    int allocate()
+    {
+        if (freeCount > 0)
+        {
+            return freeSlots[--freeCount];
+        }
+
+        int slot = nextSlot++;
+        int chunk = slot >>> CHUNK_SHIFT;
+        if (chunk == chunks)
+        {
+            if (chunk == sizes.length)
+            {
+                sizes = Arrays.copyOf(sizes, chunks * 2);
+                times = Arrays.copyOf(times, chunks * 2);
+            }
+            sizes[chunk] = new int[CHUNK_SLOTS * k];
+            times[chunk] = new long[CHUNK_SLOTS * k];
+            chunks++;
+        }
+        return slot;
+    }
+
+    void release(int slot)
+    {
+        if (freeCount == freeSlots.length)
+        {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    void record(int slot, int index, int size, long time)
+    {
+        int offset = (slot & CHUNK_MASK) * k + index;
+        sizes[slot >>> CHUNK_SHIFT][offset] = size;
+        times[slot >>> CHUNK_SHIFT][offset] = time;
+    }
+
+    int size(int slot, int index)
+    {
+        return sizes[slot >>> CHUNK_SHIFT][(slot & CHUNK_MASK) * k + index];
+    }
+
+    long time(int slot, int index)
+    {
+        return times[slot >>> CHUNK_SHIFT][(slot & CHUNK_MASK) * k + index];
+    }
+
+    // number of slots that have been allocated storage
+    int capacity()
+    {
+        return chunks * CHUNK_SLOTS;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+import org.slf4j.Logger;
+
+import java.io.PrintStream;
+
+/**
+ * Classifier running in a separate process, reached over a training and a
+ * testing stream. Records are handed to the streams by a
+ * {@link ClassifierPipeline} and predictions are read back asynchronously.
+ */
+class RemoteClassifier implements Classifier
+{
+    private final ArffNetworkStreamGenerator trainingStream;
+    private final ArffNetworkStreamGenerator testingStream;
+    private final int queueSize;
+    private final int batchSize;
+    private final boolean blockWhenFull;
+    private final Logger log;
+    private volatile ClassifierPipeline pipeline;
+
+    RemoteClassifier(FlowSeer flowSeer, String host, int trainingPort, int testingPort, String attributes[][],
+                     int queueSize, int batchSize, boolean blockWhenFull, boolean binaryRecords, Logger log)
+    {
+        this.trainingStream = new ArffNetworkStreamGenerator(host, trainingPort, "flows", attributes, binaryRecords);
+        this.testingStream = new ArffNetworkStreamGenerator(host, testingPort, "flows", attributes, binaryRecords);
+        this.testingStream.setReplyListener(
+                (tag, label, latency) -> flowSeer.verdict((FlowVerdict) tag, label, latency));
+        this.queueSize = queueSize;
+        this.batchSize = batchSize;
+        this.blockWhenFull = blockWhenFull;
+        this.log = log;
+    }
+
+    @Override
+    public boolean start(FlowRecord dummyRecord)
+    {
+        if (!trainingStream.connect(dummyRecord) || !testingStream.connect(dummyRecord))
+        {
+            stop();
+            return false;
+        }
+
+        // the classifier streams are only written by the pipeline from now on
+        pipeline = new ClassifierPipeline(dummyRecord.k(), queueSize, batchSize, blockWhenFull,
+                trainingStream, testingStream, log);
+        pipeline.start();
+        return true;
+    }
+
+    @Override
+    public void stop()
+    {
+        if (pipeline != null)
+        {
+            pipeline.stop();
+            pipeline = null;
+        }
+
+        trainingStream.disconnect();
+        testingStream.disconnect();
+    }
+
+    @Override
+    public void train(FlowRecord record)
+    {
+        ClassifierPipeline pipeline = this.pipeline;
+        if (pipeline != null)
+        {
+            pipeline.submitTraining(record);
+        }
+    }
+
+    @Override
+    public void test(FlowRecord record, FlowVerdict verdict)
+    {
+        ClassifierPipeline pipeline = this.pipeline;
+        if (pipeline != null)
+        {
+            pipeline.submitTesting(record, verdict);
+        }
+    }
+
+    @Override
+    public String describe()
+    {
+        return "remote, training " + trainingStream.describe() + ", testing " + testingStream.describe();
+    }
+
+    @Override
+    public void printStats(PrintStream out)
+    {
+        ClassifierPipeline pipeline = this.pipeline;
+        if (pipeline != null)
+        {
+            pipeline.printStats(out);
+        }
+        trainingStream.printStats(out, "Training");
+        testingStream.printStats(out, "Testing");
+    }
+}
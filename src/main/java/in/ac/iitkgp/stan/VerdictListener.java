@@ -0,0 +1,32 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+/**
+ * Receives the classifier's predictions for the flows FlowSeer has tested.
+ */
+public interface VerdictListener
+{
+    /**
+     * Called once for every tested flow the classifier has answered for.
+     * The embedded classifier answers on the packet-in thread that sampled
+     * the flow, a remote one on the thread reading its replies, so it must
+     * not block. No FlowSeer lock is held.
+     *
+     * @param verdict the prediction and the rule of the flow
+     */
+    void verdict(FlowVerdict verdict);
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
+import org.onosproject.net.flow.FlowRuleService;
+import org.slf4j.Logger;
+
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Repairs the blackholes left by failed links off the topology event
+ * thread. Links that go down within the repair window of each other are
+ * repaired together, once no further link has gone down for a window or
+ * at the latest {@value #MAX_WINDOWS} windows after the first one. The
+ * rules to remove are worked out for the whole burst at once, then
+ * removed with one batch of flow rule operations per device, the devices
+ * in parallel on a pool of workers.
+ */
+final class BlackholeRepairer {
+
+    // longest a burst is held back, in windows, however long links keep going down
+    private static final int MAX_WINDOWS = 5;
+
+    private final FlowRuleService flowRuleService;
+    private final InstalledRuleIndex installedRules;
+    private final Function<Collection<ConnectPoint>, Map<DeviceId, List<FlowRule>>> planner;
+    private final Logger log;
+
+    private final ScheduledExecutorService scheduler;
+    private volatile long windowNanos;
+    private int workerCount;
+    private ExecutorService workers;
+    // links gone down since the last repair, guarded by this
+    private Burst burst;
+
+    private final AtomicLong linksDown = new AtomicLong();
+    private final AtomicLong bursts = new AtomicLong();
+    private final AtomicLong repaired = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong rulesRemoved = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final Histogram burstLinks = new Histogram();
+    private final Histogram batchSizes = new Histogram();
+    private final Histogram planTime = new Histogram();
+    private final Histogram timeToRepair = new Histogram();
+
+    private static final class Burst {
+        final Set<ConnectPoint> egresses = new LinkedHashSet<>();
+        final long first;
+        long last;
+
+        Burst(long first) {
+            this.first = first;
+            this.last = first;
+        }
+    }
+
+    /**
+     * Creates a repairer.
+     *
+     * @param flowRuleService service the rules are removed through
+     * @param installedRules  index the removed rules are dropped from
+     * @param planner         works out the rules to remove, by device, for the ports of failed links
+     * @param log             log of the app
+     */
+    BlackholeRepairer(FlowRuleService flowRuleService, InstalledRuleIndex installedRules,
+                      Function<Collection<ConnectPoint>, Map<DeviceId, List<FlowRule>>> planner,
+                      Logger log) {
+        this.flowRuleService = flowRuleService;
+        this.installedRules = installedRules;
+        this.planner = planner;
+        this.log = log;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                groupedThreads("onos/fwd", "blackhole-repair", log));
+    }
+
+    /**
+     * Changes the repair window and the number of workers.
+     *
+     * @param windowMillis time in milliseconds to wait for further links to go down, 0 to repair at once
+     * @param threads      number of devices whose rules are removed in parallel
+     */
+    synchronized void configure(int windowMillis, int threads) {
+        windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMillis));
+        threads = Math.max(1, threads);
+        if (workers == null || threads != workerCount) {
+            if (workers != null) {
+                // let the batches handed to the old pool finish
+                workers.shutdown();
+            }
+            workers = Executors.newFixedThreadPool(threads,
+                                                   groupedThreads("onos/fwd", "blackhole-repair-%d", log));
+            workerCount = threads;
+        }
+    }
+
+    synchronized void close() {
+        scheduler.shutdownNow();
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        burst = null;
+    }
+
+    /**
+     * Schedules the repair of the rules sending packets into a failed link.
+     *
+     * @param egress the port the link leaves from
+     */
+    void linkDown(ConnectPoint egress) {
+        long now = System.nanoTime();
+        linksDown.incrementAndGet();
+        synchronized (this) {
+            if (burst == null) {
+                burst = new Burst(now);
+                schedule(windowNanos);
+            }
+            burst.egresses.add(egress);
+            burst.last = now;
+        }
+    }
+
+    // Schedules a check for the end of the burst; the caller holds the lock
+    private void schedule(long delayNanos) {
+        try {
+            scheduler.schedule(this::repairIfQuiet, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("Blackhole repair is stopped");
+        }
+    }
+
+    private void repairIfQuiet() {
+        Burst due;
+        synchronized (this) {
+            if (burst == null) {
+                return;
+            }
+            long now = System.nanoTime();
+            long untilQuiet = burst.last + windowNanos - now;
+            long untilLatest = burst.first + MAX_WINDOWS * windowNanos - now;
+            if (untilQuiet > 0 && untilLatest > 0) {
+                schedule(Math.min(untilQuiet, untilLatest));
+                return;
+            }
+            due = burst;
+            burst = null;
+        }
+        repair(due);
+    }
+
+    private void repair(Burst due) {
+        bursts.incrementAndGet();
+        burstLinks.record(due.egresses.size());
+
+        long start = System.nanoTime();
+        Map<DeviceId, List<FlowRule>> removals;
+        try {
+            removals = planner.apply(due.egresses);
+        } catch (RuntimeException e) {
+            log.warn("Unable to work out the rules leading into {}", due.egresses, e);
+            return;
+        }
+        planTime.record(System.nanoTime() - start);
+
+        removals.values().removeIf(List::isEmpty);
+        if (removals.isEmpty()) {
+            repaired(due);
+            return;
+        }
+        AtomicInteger remaining = new AtomicInteger(removals.size());
+        Executor pool;
+        synchronized (this) {
+            // links going down before the repairer is configured are repaired on this thread
+            pool = workers != null ? workers : Runnable::run;
+        }
+        for (Map.Entry<DeviceId, List<FlowRule>> entry : removals.entrySet()) {
+            try {
+                pool.execute(() -> remove(due, entry.getKey(), entry.getValue(), remaining));
+            } catch (RejectedExecutionException e) {
+                log.debug("Blackhole repair is stopped");
+                return;
+            }
+        }
+    }
+
+    private void remove(Burst due, DeviceId deviceId, List<FlowRule> rules, AtomicInteger remaining) {
+        FlowRuleOperations.Builder operations = FlowRuleOperations.builder();
+        for (FlowRule rule : rules) {
+            // dropped straight away so that a later burst does not remove it again
+            installedRules.remove(rule);
+            operations.remove(rule);
+        }
+        batches.incrementAndGet();
+        batchSizes.record(rules.size());
+        try {
+            flowRuleService.apply(operations.build(new FlowRuleOperationsContext() {
+                @Override
+                public void onSuccess(FlowRuleOperations ops) {
+                    rulesRemoved.addAndGet(rules.size());
+                    done(due, remaining);
+                }
+
+                @Override
+                public void onError(FlowRuleOperations ops) {
+                    failedBatches.incrementAndGet();
+                    log.warn("Unable to remove {} rules leading into failed links from {}",
+                             rules.size(), deviceId);
+                    done(due, remaining);
+                }
+            }));
+        } catch (RuntimeException e) {
+            failedBatches.incrementAndGet();
+            log.warn("Unable to remove {} rules leading into failed links from {}", rules.size(), deviceId, e);
+            done(due, remaining);
+        }
+    }
+
+    private void done(Burst due, AtomicInteger remaining) {
+        if (remaining.decrementAndGet() == 0) {
+            repaired(due);
+        }
+    }
+
+    private void repaired(Burst due) {
+        repaired.incrementAndGet();
+        timeToRepair.record(System.nanoTime() - due.first);
+    }
+
+    /**
+     * Returns the number of bursts of failed links that have been repaired.
+     *
+     * @return number of repaired bursts
+     */
+    long repaired() {
+        return repaired.get();
+    }
+
+    void printStats(PrintStream out) {
+        out.println("Blackhole repair window  : " +
+                            (windowNanos == 0 ? "off" : TimeUnit.NANOSECONDS.toMillis(windowNanos) + " ms") +
+                            ", " + workerCount + " workers");
+        out.println("Links down               : " + linksDown.get() + " in " + bursts.get() + " bursts, " +
+                            repaired.get() + " repaired");
+        out.println("Links per burst          : " + burstLinks.summary(1));
+        out.println("Repair batches           : " + batches.get() + " (" + failedBatches.get() + " failed)");
+        out.println("Repair batch size        : " + batchSizes.summary(1));
+        out.println("Rules removed by repair  : " + rulesRemoved.get());
+        out.println("Repair planning (us)     : " + planTime.summary(1000));
+        out.println("Time to repair (us)      : " + timeToRepair.summary(1000));
+    }
+}
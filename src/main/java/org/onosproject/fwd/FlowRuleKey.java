@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import org.onosproject.net.flow.FlowRule;
+
+/**
+ * Map key telling rules apart the way the flow rule store does, by device,
+ * priority and match, but hashing them by their id. A rule's own hash code
+ * adds up the hash codes of its criteria, so the rules of flows differing
+ * only in addresses and ports crowd into few buckets; the id is a far
+ * better spread hash of the same fields, kept in the rule. Ids alone do
+ * collide among a device's rules often enough to matter.
+ */
+final class FlowRuleKey {
+
+    private final FlowRule rule;
+    private final int hash;
+
+    FlowRuleKey(FlowRule rule) {
+        this.rule = rule;
+        this.hash = Long.hashCode(rule.id().value());
+    }
+
+    FlowRule rule() {
+        return rule;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FlowRuleKey)) {
+            return false;
+        }
+        FlowRuleKey that = (FlowRuleKey) o;
+        return hash == that.hash && rule.equals(that.rule);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return rule.toString();
+    }
+}
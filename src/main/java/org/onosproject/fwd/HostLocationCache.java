@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.host.HostEvent;
+import org.onosproject.net.host.HostListener;
+import org.onosproject.net.host.HostService;
+
+import java.io.PrintStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local copy of the locations of known hosts, kept current by host events,
+ * so that resolving the destination of a packet-in does not read the host
+ * store. Hosts that are not known yet are looked up in the host service
+ * every time, which keeps the cache from holding on to a host that was
+ * removed while it was being looked up.
+ */
+final class HostLocationCache {
+
+    private final HostService hostService;
+    private final ConcurrentMap<HostId, HostLocation> locations = new ConcurrentHashMap<>();
+    private final HostListener hostListener = new InternalHostListener();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final AtomicLong updates = new AtomicLong();
+
+    HostLocationCache(HostService hostService) {
+        this.hostService = hostService;
+    }
+
+    void activate() {
+        hostService.addListener(hostListener);
+        // hosts learned before the listener was added
+        for (Host host : hostService.getHosts()) {
+            locations.putIfAbsent(host.id(), host.location());
+        }
+    }
+
+    void deactivate() {
+        hostService.removeListener(hostListener);
+        locations.clear();
+    }
+
+    /**
+     * Returns where a host is attached.
+     *
+     * @param id host identifier
+     * @return location of the host, or null if the host is not known
+     */
+    HostLocation location(HostId id) {
+        HostLocation location = locations.get(id);
+        if (location != null) {
+            hits.increment();
+            return location;
+        }
+
+        misses.increment();
+        Host host = hostService.getHost(id);
+        return host == null ? null : host.location();
+    }
+
+    void printStats(PrintStream out) {
+        long h = hits.sum();
+        long m = misses.sum();
+
+        out.println("Host cache entries       : " + locations.size());
+        out.println("Host cache hits          : " + h);
+        out.println("Host cache misses        : " + m);
+        out.println("Host cache hit ratio     : " +
+                            (h + m == 0 ? "-" : String.format("%.1f%%", 100.0 * h / (h + m))));
+        out.println("Host cache updates       : " + updates.get());
+    }
+
+    private class InternalHostListener implements HostListener {
+        @Override
+        public void event(HostEvent event) {
+            Host host = event.subject();
+            switch (event.type()) {
+                case HOST_ADDED:
+                case HOST_UPDATED:
+                case HOST_MOVED:
+                    locations.put(host.id(), host.location());
+                    break;
+                case HOST_REMOVED:
+                    locations.remove(host.id());
+                    break;
+                default:
+                    return;
+            }
+            updates.incrementAndGet();
+        }
+    }
+}
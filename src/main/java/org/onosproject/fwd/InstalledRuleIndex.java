@@ -0,0 +1,246 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import com.google.common.collect.ImmutableList;
+import org.onlab.packet.MacAddress;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.criteria.EthCriterion;
+import org.onosproject.net.flow.instructions.Instruction;
+import org.onosproject.net.flow.instructions.Instructions;
+
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index of the rules this app has installed, by the port they send packets
+ * out of and by the source and destination addresses they match, kept up
+ * to date from flow rule events. Repairing a failed link then only looks
+ * at the rules that lead into it, instead of every rule of every device on
+ * the way.
+ */
+final class InstalledRuleIndex {
+
+    private final ApplicationId appId;
+    private final ConcurrentMap<DeviceId, DeviceRules> devices = new ConcurrentHashMap<>();
+    private final FlowRuleListener flowRuleListener = new InternalFlowRuleListener();
+
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong unindexed = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+
+    // Rules of one device under every key they are found by
+    private static final class DeviceRules {
+        final ConcurrentMap<PortNumber, Set<FlowRuleKey>> byOutput = new ConcurrentHashMap<>();
+        final ConcurrentMap<MacPair, Set<FlowRuleKey>> byMacs = new ConcurrentHashMap<>();
+        final Set<FlowRuleKey> rules = ConcurrentHashMap.newKeySet();
+    }
+
+    InstalledRuleIndex(ApplicationId appId) {
+        this.appId = appId;
+    }
+
+    FlowRuleListener flowRuleListener() {
+        return flowRuleListener;
+    }
+
+    /**
+     * Indexes the rules of this app that are already installed.
+     *
+     * @param entries flow entries of this app, may be null
+     */
+    void seed(Iterable<FlowEntry> entries) {
+        if (entries != null) {
+            entries.forEach(this::add);
+        }
+    }
+
+    void close() {
+        devices.clear();
+    }
+
+    /**
+     * Returns the rules of this app that send packets out of a port.
+     *
+     * @param egress the device port
+     * @return the rules
+     */
+    Collection<FlowRule> rulesTo(ConnectPoint egress) {
+        lookups.incrementAndGet();
+        DeviceRules device = devices.get(egress.deviceId());
+        return device == null ? ImmutableList.of() : snapshot(device.byOutput.get(egress.port()));
+    }
+
+    /**
+     * Returns the rules of this app on a device that match both a source and
+     * a destination address.
+     *
+     * @param deviceId the device
+     * @param src      source address
+     * @param dst      destination address
+     * @return the rules
+     */
+    Collection<FlowRule> rules(DeviceId deviceId, MacAddress src, MacAddress dst) {
+        lookups.incrementAndGet();
+        DeviceRules device = devices.get(deviceId);
+        return device == null ? ImmutableList.of() : snapshot(device.byMacs.get(new MacPair(src, dst)));
+    }
+
+    private static Collection<FlowRule> snapshot(Set<FlowRuleKey> rules) {
+        if (rules == null) {
+            return ImmutableList.of();
+        }
+        ImmutableList.Builder<FlowRule> builder = ImmutableList.builder();
+        rules.forEach(key -> builder.add(key.rule()));
+        return builder.build();
+    }
+
+    void add(FlowRule rule) {
+        DeviceRules device = devices.computeIfAbsent(rule.deviceId(), d -> new DeviceRules());
+        FlowRuleKey key = new FlowRuleKey(rule);
+        if (!device.rules.add(key)) {
+            return;
+        }
+        List<PortNumber> ports = outputs(rule);
+        for (PortNumber port : ports) {
+            device.byOutput.computeIfAbsent(port, p -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+        MacPair macs = macs(rule);
+        if (macs != null && !ports.isEmpty()) {
+            device.byMacs.computeIfAbsent(macs, m -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+        indexed.incrementAndGet();
+    }
+
+    /**
+     * Drops a rule from the index, as soon as its removal is requested.
+     *
+     * @param rule the rule
+     */
+    void remove(FlowRule rule) {
+        DeviceRules device = devices.get(rule.deviceId());
+        FlowRuleKey key = new FlowRuleKey(rule);
+        if (device == null || !device.rules.remove(key)) {
+            return;
+        }
+        List<PortNumber> ports = outputs(rule);
+        for (PortNumber port : ports) {
+            device.byOutput.computeIfPresent(port, (p, rules) -> {
+                rules.remove(key);
+                return rules.isEmpty() ? null : rules;
+            });
+        }
+        MacPair macs = macs(rule);
+        if (macs != null && !ports.isEmpty()) {
+            device.byMacs.computeIfPresent(macs, (m, rules) -> {
+                rules.remove(key);
+                return rules.isEmpty() ? null : rules;
+            });
+        }
+        unindexed.incrementAndGet();
+    }
+
+    private static List<PortNumber> outputs(FlowRule rule) {
+        ImmutableList.Builder<PortNumber> ports = ImmutableList.builder();
+        for (Instruction i : rule.treatment().allInstructions()) {
+            if (i.type() == Instruction.Type.OUTPUT) {
+                ports.add(((Instructions.OutputInstruction) i).port());
+            }
+        }
+        return ports.build();
+    }
+
+    // Only rules that forward and match both addresses are cleaned up by them
+    private static MacPair macs(FlowRule rule) {
+        EthCriterion src = (EthCriterion) rule.selector().getCriterion(Criterion.Type.ETH_SRC);
+        EthCriterion dst = (EthCriterion) rule.selector().getCriterion(Criterion.Type.ETH_DST);
+        return src == null || dst == null ? null : new MacPair(src.mac(), dst.mac());
+    }
+
+    void printStats(PrintStream out) {
+        long size = 0;
+        for (DeviceRules device : devices.values()) {
+            size += device.rules.size();
+        }
+        out.println("Indexed rules            : " + size + " on " + devices.size() + " devices");
+        out.println("Rules indexed            : " + indexed.get());
+        out.println("Rules unindexed          : " + unindexed.get());
+        out.println("Rule index lookups       : " + lookups.get());
+    }
+
+    private static final class MacPair {
+        final MacAddress src;
+        final MacAddress dst;
+
+        MacPair(MacAddress src, MacAddress dst) {
+            this.src = src;
+            this.dst = dst;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MacPair)) {
+                return false;
+            }
+            MacPair that = (MacPair) o;
+            return Objects.equals(src, that.src) && Objects.equals(dst, that.dst);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(src) + Objects.hashCode(dst);
+        }
+    }
+
+    private class InternalFlowRuleListener implements FlowRuleListener {
+        @Override
+        public void event(FlowRuleEvent event) {
+            FlowRule rule = event.subject();
+            if (rule.appId() != appId.id()) {
+                return;
+            }
+            switch (event.type()) {
+                case RULE_ADD_REQUESTED:
+                case RULE_ADDED:
+                    add(rule);
+                    break;
+                case RULE_REMOVE_REQUESTED:
+                case RULE_REMOVED:
+                    remove(rule);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.store.service.EventuallyConsistentMap;
+import org.slf4j.Logger;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Per MAC address packet counters kept on this instance. Packet-in threads
+ * only add to striped counters. On a fixed interval, the counts of each
+ * address that changed since the last flush are added to its latest totals
+ * in the distributed metrics map, which the other instances add to as well.
+ */
+final class LocalMacMetrics {
+
+    private final EventuallyConsistentMap<MacAddress, ReactiveForwardMetrics> metrics;
+    private final Logger log;
+    private final ConcurrentMap<MacAddress, Counters> counters = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService flusher;
+    private ScheduledFuture<?> flushTask;
+
+    /**
+     * Packet counters of one MAC address.
+     */
+    static final class Counters {
+        private final MacAddress macAddress;
+        private final LongAdder inPacket = new LongAdder();
+        private final LongAdder replyPacket = new LongAdder();
+        private final LongAdder forwardedPacket = new LongAdder();
+        private final LongAdder droppedPacket = new LongAdder();
+        // counts already added to the distributed map, guarded by the flusher
+        private long flushedIn, flushedReply, flushedForwarded, flushedDropped;
+
+        Counters(MacAddress macAddress) {
+            this.macAddress = macAddress;
+        }
+
+        void incrementInPacket() {
+            inPacket.increment();
+        }
+
+        void incrementReplyPacket() {
+            replyPacket.increment();
+        }
+
+        void incrementForwardedPacket() {
+            forwardedPacket.increment();
+        }
+
+        void incrementDroppedPacket() {
+            droppedPacket.increment();
+        }
+
+        /**
+         * Adds the counts since the last flush to the totals of the address.
+         *
+         * @param totals latest totals in the distributed map, or null
+         * @return new totals, or null if nothing was counted since the last flush
+         */
+        ReactiveForwardMetrics flush(ReactiveForwardMetrics totals) {
+            long in = inPacket.sum();
+            long reply = replyPacket.sum();
+            long forwarded = forwardedPacket.sum();
+            long dropped = droppedPacket.sum();
+            if (in == flushedIn && reply == flushedReply &&
+                    forwarded == flushedForwarded && dropped == flushedDropped) {
+                return null;
+            }
+            ReactiveForwardMetrics sum = new ReactiveForwardMetrics(
+                    (totals == null ? 0 : totals.getReplyPacket()) + reply - flushedReply,
+                    (totals == null ? 0 : totals.getInPacket()) + in - flushedIn,
+                    (totals == null ? 0 : totals.getDroppedPacket()) + dropped - flushedDropped,
+                    (totals == null ? 0 : totals.getForwardedPacket()) + forwarded - flushedForwarded,
+                    macAddress);
+            flushedIn = in;
+            flushedReply = reply;
+            flushedForwarded = forwarded;
+            flushedDropped = dropped;
+            return sum;
+        }
+
+        boolean changed() {
+            return inPacket.sum() != flushedIn || replyPacket.sum() != flushedReply ||
+                    forwardedPacket.sum() != flushedForwarded || droppedPacket.sum() != flushedDropped;
+        }
+    }
+
+    LocalMacMetrics(EventuallyConsistentMap<MacAddress, ReactiveForwardMetrics> metrics, Logger log) {
+        this.metrics = metrics;
+        this.log = log;
+    }
+
+    /**
+     * Sets how often the counters are written to the distributed map.
+     *
+     * @param intervalMillis flush interval in milliseconds
+     */
+    synchronized void configure(int intervalMillis) {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(
+                    groupedThreads("onos/fwd", "metrics-flusher", log));
+        }
+        long interval = Math.max(1, intervalMillis);
+        flushTask = flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void close() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flusher = null;
+            flushTask = null;
+        }
+        flush();
+    }
+
+    /**
+     * Returns the counters of an address, creating them on first use.
+     *
+     * @param macAddress source address of a packet
+     * @return counters of the address
+     */
+    Counters counters(MacAddress macAddress) {
+        Counters c = counters.get(macAddress);
+        if (c == null) {
+            c = counters.computeIfAbsent(macAddress, Counters::new);
+        }
+        return c;
+    }
+
+    /**
+     * Adds the counts of every address that changed since the last flush to
+     * its totals in the distributed map. The totals are read back right
+     * before they are written, so that the counts other instances have
+     * added since this one last flushed are kept.
+     */
+    synchronized void flush() {
+        try {
+            for (Counters c : counters.values()) {
+                if (!c.changed()) {
+                    continue;
+                }
+                ReactiveForwardMetrics totals = c.flush(metrics.get(c.macAddress));
+                if (totals != null) {
+                    metrics.put(c.macAddress, totals);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to flush forwarding metrics", e);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.flowobjective.FlowObjectiveService;
+import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.flowobjective.Objective;
+import org.onosproject.net.flowobjective.ObjectiveContext;
+import org.onosproject.net.flowobjective.ObjectiveError;
+import org.slf4j.Logger;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Collects the forwarding objectives of packet-ins per device and submits
+ * them together once the batch window has passed or the batch is full.
+ * Objectives with the same selector, priority and treatment as one already
+ * waiting for the device install the same rule and are dropped, so a burst
+ * of packets of one flow installs the rule once; objectives that differ in
+ * priority or treatment are all submitted, in the order they came in.
+ * With a window of 0 objectives are submitted straight away. Every
+ * objective is entered into the pending-install table until its rule has
+ * been added.
+ */
+final class ObjectiveInstaller {
+
+    private final FlowObjectiveService flowObjectiveService;
+    private final PendingInstallTable pendingInstalls;
+    private final Logger log;
+    private final ConcurrentMap<DeviceId, DeviceBatch> batches = new ConcurrentHashMap<>();
+
+    private volatile long windowNanos;
+    private volatile int batchSize;
+    private ScheduledExecutorService flusher;
+    private ScheduledFuture<?> flushTask;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong installed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Histogram batchSizes = new Histogram();
+    private final Histogram installLatency = new Histogram();
+
+    // Objectives waiting to be submitted to one device, guarded by itself
+    private static final class DeviceBatch {
+        final DeviceId deviceId;
+        LinkedHashMap<RuleKey, Pending> pending = new LinkedHashMap<>();
+        long firstQueued;
+
+        DeviceBatch(DeviceId deviceId) {
+            this.deviceId = deviceId;
+        }
+    }
+
+    private static final class Pending {
+        final TrafficSelector selector;
+        final ForwardingObjective objective;
+
+        Pending(TrafficSelector selector, ForwardingObjective objective) {
+            this.selector = selector;
+            this.objective = objective;
+        }
+    }
+
+    // Fields that tell the rule an objective installs apart from other rules
+    private static final class RuleKey {
+        final TrafficSelector selector;
+        final int priority;
+        final TrafficTreatment treatment;
+
+        RuleKey(TrafficSelector selector, ForwardingObjective objective) {
+            this.selector = selector;
+            this.priority = objective.priority();
+            this.treatment = objective.treatment();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RuleKey)) {
+                return false;
+            }
+            RuleKey that = (RuleKey) o;
+            return priority == that.priority && selector.equals(that.selector) &&
+                    Objects.equals(treatment, that.treatment);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * selector.hashCode() + priority;
+        }
+    }
+
+    ObjectiveInstaller(FlowObjectiveService flowObjectiveService, PendingInstallTable pendingInstalls,
+                       Logger log) {
+        this.flowObjectiveService = flowObjectiveService;
+        this.pendingInstalls = pendingInstalls;
+        this.log = log;
+    }
+
+    /**
+     * Changes the batching parameters.
+     *
+     * @param windowMillis longest time an objective waits for others, 0 to submit straight away
+     * @param batchSize    number of objectives for a device that are submitted together
+     */
+    synchronized void configure(int windowMillis, int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMillis));
+
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        if (windowMillis > 0) {
+            if (flusher == null) {
+                flusher = Executors.newSingleThreadScheduledExecutor(
+                        groupedThreads("onos/fwd", "objective-installer", log));
+            }
+            // check twice per window, so no objective waits much longer than the window
+            long period = Math.max(1, TimeUnit.MILLISECONDS.toMicros(windowMillis) / 2);
+            flushTask = flusher.scheduleAtFixedRate(this::flushDue, period, period, TimeUnit.MICROSECONDS);
+        }
+        flushAll();
+    }
+
+    synchronized void close() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flusher = null;
+            flushTask = null;
+        }
+        flushAll();
+    }
+
+    /**
+     * Installs a forwarding objective on a device.
+     *
+     * @param deviceId  the device
+     * @param selector  selector of the objective
+     * @param objective the objective, not yet built
+     * @return true if the objective is submitted or queued, false if the
+     *         same rule is already waiting to be submitted to the device
+     */
+    boolean submit(DeviceId deviceId, TrafficSelector selector, ForwardingObjective.Builder objective) {
+        long now = System.nanoTime();
+        pendingInstalls.add(deviceId, selector);
+        Pending pending = new Pending(selector, objective.add(context(deviceId, selector, now)));
+        if (windowNanos == 0) {
+            batchSizes.record(1);
+            forward(deviceId, pending);
+            return true;
+        }
+
+        DeviceBatch batch = batches.get(deviceId);
+        if (batch == null) {
+            batch = new DeviceBatch(deviceId);
+            DeviceBatch existing = batches.putIfAbsent(deviceId, batch);
+            if (existing != null) {
+                batch = existing;
+            }
+        }
+
+        List<Pending> full = null;
+        synchronized (batch) {
+            RuleKey key = new RuleKey(selector, pending.objective);
+            if (batch.pending.containsKey(key)) {
+                deduplicated.incrementAndGet();
+                return false;
+            }
+            if (batch.pending.isEmpty()) {
+                batch.firstQueued = now;
+            }
+            batch.pending.put(key, pending);
+            if (batch.pending.size() >= batchSize) {
+                full = take(batch);
+            }
+        }
+
+        if (full != null) {
+            submit(batch.deviceId, full);
+        }
+        return true;
+    }
+
+    private void flushDue() {
+        long now = System.nanoTime();
+        for (DeviceBatch batch : batches.values()) {
+            List<Pending> due = null;
+            synchronized (batch) {
+                if (!batch.pending.isEmpty() && now - batch.firstQueued >= windowNanos) {
+                    due = take(batch);
+                }
+            }
+            if (due != null) {
+                submit(batch.deviceId, due);
+            }
+        }
+    }
+
+    private void flushAll() {
+        for (DeviceBatch batch : batches.values()) {
+            List<Pending> rest;
+            synchronized (batch) {
+                rest = take(batch);
+            }
+            if (!rest.isEmpty()) {
+                submit(batch.deviceId, rest);
+            }
+        }
+    }
+
+    // Empties the batch; the caller holds its lock
+    private static List<Pending> take(DeviceBatch batch) {
+        List<Pending> objectives = new ArrayList<>(batch.pending.values());
+        batch.pending = new LinkedHashMap<>();
+        return objectives;
+    }
+
+    private void submit(DeviceId deviceId, List<Pending> objectives) {
+        batchSizes.record(objectives.size());
+        for (Pending pending : objectives) {
+            try {
+                forward(deviceId, pending);
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                pendingInstalls.failed(deviceId, pending.selector);
+                log.warn("Unable to install forwarding objective on {}", deviceId, e);
+            }
+        }
+    }
+
+    private void forward(DeviceId deviceId, Pending pending) {
+        submitted.incrementAndGet();
+        flowObjectiveService.forward(deviceId, pending.objective);
+    }
+
+    private ObjectiveContext context(DeviceId deviceId, TrafficSelector selector, long queued) {
+        return new ObjectiveContext() {
+            @Override
+            public void onSuccess(Objective objective) {
+                installed.incrementAndGet();
+                installLatency.record(System.nanoTime() - queued);
+            }
+
+            @Override
+            public void onError(Objective objective, ObjectiveError error) {
+                failed.incrementAndGet();
+                pendingInstalls.failed(deviceId, selector);
+                log.debug("Forwarding objective on {} failed: {}", deviceId, error);
+            }
+        };
+    }
+
+    void printStats(PrintStream out) {
+        out.println("Objective batch window   : " +
+                            (windowNanos == 0 ? "off" : TimeUnit.NANOSECONDS.toMillis(windowNanos) + " ms") +
+                            ", batch size " + batchSize);
+        out.println("Objectives submitted     : " + submitted.get());
+        out.println("Objectives deduplicated  : " + deduplicated.get());
+        out.println("Objectives installed     : " + installed.get());
+        out.println("Objectives failed        : " + failed.get());
+        out.println("Objective batch size     : " + batchSizes.summary(1));
+        out.println("Install latency (us)     : " + installLatency.summary(1000));
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPacket;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.TCP;
+import org.onlab.packet.UDP;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size ring of recent forwarding decisions, kept as primitives so that
+ * recording a packet formats nothing. Packets are sampled at random at the
+ * configured rate; with sampling off, the cost per packet is one volatile read.
+ * <p>
+ * Writers never block. A reader that races a writer on the same slot skips
+ * the entry instead of showing a torn one. Only a writer that is overtaken
+ * by as many others as the trace holds, so that two writers fill the same
+ * slot at once, can leave an entry mixing two packets.
+ */
+public final class PacketTrace {
+
+    /**
+     * What the packet processor did with a packet.
+     */
+    public enum Decision {
+        /** Control, link-local or IPv6 multicast packet that was dropped. */
+        DROPPED,
+        /** Packet left for another application or already at its destination port. */
+        IGNORED,
+        /** Destination host unknown, flooded. */
+        FLOODED,
+        /** Forwarded on the destination's edge switch. */
+        EDGE_FORWARDED,
+        /** Forwarded along a path to the destination's edge switch. */
+        FORWARDED,
+        /** No path to the destination's edge switch, flooded. */
+        NO_PATH,
+        /** Every path leads back to the ingress port, flooded. */
+        NO_FORWARD_PATH
+    }
+
+    private static final Decision[] DECISIONS = Decision.values();
+
+    private final int mask;
+    // sequence number + 1 of the entry in each slot, -1 while it is written and 0 if empty
+    private final AtomicLongArray sequence;
+    private final long[] time;
+    private final DeviceId[] device;
+    private final long[] inPort;
+    private final long[] outPort;
+    private final long[] srcMac;
+    private final long[] dstMac;
+    private final short[] ethType;
+    private final int[] srcIp;
+    private final int[] dstIp;
+    private final byte[] ipProtocol;
+    private final int[] srcPort;
+    private final int[] dstPort;
+    private final byte[] decision;
+
+    private final AtomicLong next = new AtomicLong();
+    private volatile int sampleRate;
+
+    /**
+     * Creates an empty trace.
+     *
+     * @param size number of entries kept, rounded up to a power of two
+     */
+    public PacketTrace(int size) {
+        int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.mask = capacity - 1;
+        this.sequence = new AtomicLongArray(capacity);
+        this.time = new long[capacity];
+        this.device = new DeviceId[capacity];
+        this.inPort = new long[capacity];
+        this.outPort = new long[capacity];
+        this.srcMac = new long[capacity];
+        this.dstMac = new long[capacity];
+        this.ethType = new short[capacity];
+        this.srcIp = new int[capacity];
+        this.dstIp = new int[capacity];
+        this.ipProtocol = new byte[capacity];
+        this.srcPort = new int[capacity];
+        this.dstPort = new int[capacity];
+        this.decision = new byte[capacity];
+    }
+
+    /**
+     * Sets how many packets are traced.
+     *
+     * @param sampleRate 0 to trace nothing, or trace one in every sampleRate packets
+     */
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = Math.max(0, sampleRate);
+    }
+
+    public int sampleRate() {
+        return sampleRate;
+    }
+
+    public int size() {
+        return mask + 1;
+    }
+
+    /**
+     * Decides whether the current packet is traced.
+     *
+     * @return true if the packet should be recorded
+     */
+    public boolean sample() {
+        int rate = sampleRate;
+        return rate == 1 || (rate > 1 && ThreadLocalRandom.current().nextInt(rate) == 0);
+    }
+
+    /**
+     * Records the decision taken for a packet.
+     *
+     * @param deviceId device the packet was received from
+     * @param in       port the packet was received on
+     * @param out      port the packet was sent to, or null
+     * @param eth      the packet
+     * @param what     the decision
+     */
+    public void record(DeviceId deviceId, PortNumber in, PortNumber out, Ethernet eth, Decision what) {
+        long seq = next.getAndIncrement();
+        int slot = (int) seq & mask;
+
+        // marked with an atomic update rather than a plain volatile write,
+        // whose read keeps the writes below from being moved ahead of it
+        sequence.getAndSet(slot, -1);
+        time[slot] = System.currentTimeMillis();
+        device[slot] = deviceId;
+        inPort[slot] = in.toLong();
+        outPort[slot] = out == null ? -1 : out.toLong();
+        srcMac[slot] = eth.getSourceMAC().toLong();
+        dstMac[slot] = eth.getDestinationMAC().toLong();
+        ethType[slot] = eth.getEtherType();
+        decision[slot] = (byte) what.ordinal();
+
+        int sip = 0, dip = 0, sport = 0, dport = 0;
+        byte protocol = 0;
+        IPacket payload = eth.getPayload();
+        if (payload instanceof IPv4) {
+            IPv4 ip = (IPv4) payload;
+            sip = ip.getSourceAddress();
+            dip = ip.getDestinationAddress();
+            protocol = ip.getProtocol();
+            if (ip.getPayload() instanceof TCP) {
+                sport = ((TCP) ip.getPayload()).getSourcePort();
+                dport = ((TCP) ip.getPayload()).getDestinationPort();
+            } else if (ip.getPayload() instanceof UDP) {
+                sport = ((UDP) ip.getPayload()).getSourcePort();
+                dport = ((UDP) ip.getPayload()).getDestinationPort();
+            }
+        }
+        srcIp[slot] = sip;
+        dstIp[slot] = dip;
+        ipProtocol[slot] = protocol;
+        srcPort[slot] = sport;
+        dstPort[slot] = dport;
+
+        sequence.lazySet(slot, seq + 1);
+    }
+
+    /**
+     * Returns the number of packets recorded since the trace was created or cleared.
+     *
+     * @return number of recorded packets
+     */
+    public long recorded() {
+        return next.get();
+    }
+
+    public void clear() {
+        for (int i = 0; i <= mask; i++) {
+            sequence.set(i, 0);
+        }
+        next.set(0);
+    }
+
+    /**
+     * Prints the most recent entries, oldest first.
+     *
+     * @param out   stream to print to
+     * @param count maximum number of entries
+     */
+    public void print(PrintStream out, int count) {
+        long last = next.get();
+        long first = Math.max(0, last - Math.min(count, mask + 1));
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+
+        out.println("Sample rate : " + (sampleRate == 0 ? "off" : "1/" + sampleRate));
+        out.println("Recorded    : " + last);
+        for (long seq = first; seq < last; seq++) {
+            int slot = (int) seq & mask;
+            if (sequence.get(slot) != seq + 1) {
+                continue;
+            }
+            String line = format(format, slot);
+            // checked with an atomic update rather than a volatile read, whose
+            // write keeps the reads of the entry from being moved after it
+            if (sequence.compareAndSet(slot, seq + 1, seq + 1)) {
+                out.println(line);
+            }
+        }
+    }
+
+    private String format(SimpleDateFormat format, int slot) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(format.format(new Date(time[slot]))).append(' ');
+        sb.append(String.format("%-15s ", DECISIONS[decision[slot]]));
+        sb.append(device[slot]).append('/').append(PortNumber.portNumber(inPort[slot]));
+        sb.append(" -> ").append(outPort[slot] == -1 ? "-" : PortNumber.portNumber(outPort[slot]).toString());
+        sb.append(' ').append(MacAddress.valueOf(srcMac[slot]));
+        sb.append(" > ").append(MacAddress.valueOf(dstMac[slot]));
+        sb.append(String.format(" 0x%04x", ethType[slot] & 0xffff));
+        if (ethType[slot] == Ethernet.TYPE_IPV4) {
+            sb.append(' ').append(IpAddress.valueOf(srcIp[slot]));
+            if (srcPort[slot] != 0) {
+                sb.append(':').append(srcPort[slot]);
+            }
+            sb.append(" > ").append(IpAddress.valueOf(dstIp[slot]));
+            if (dstPort[slot] != 0) {
+                sb.append(':').append(dstPort[slot]);
+            }
+            sb.append(" proto ").append(ipProtocol[slot] & 0xff);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Path;
+import org.onosproject.net.topology.Topology;
+import org.onosproject.net.topology.TopologyService;
+import org.slf4j.Logger;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Caches the shortest paths between pairs of devices for one topology
+ * version. A lookup against a newer topology starts a new, empty
+ * generation, so a stale path is never returned even if the topology
+ * listener has not run yet. When pre-warming is on, the pairs used under
+ * the previous topology are looked up again in the background.
+ */
+final class PathCache {
+
+    private final TopologyService topologyService;
+    private final Logger log;
+
+    private volatile Generation generation;
+    private volatile boolean prewarm;
+    private ExecutorService prewarmExecutor;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong prewarmed = new AtomicLong();
+
+    // Paths computed for one topology, by source and then destination device
+    private static final class Generation {
+        final Topology topology;
+        final ConcurrentMap<DeviceId, ConcurrentMap<DeviceId, Set<Path>>> paths =
+                new ConcurrentHashMap<>();
+
+        Generation(Topology topology) {
+            this.topology = topology;
+        }
+
+        Set<Path> get(DeviceId src, DeviceId dst) {
+            Map<DeviceId, Set<Path>> fromSrc = paths.get(src);
+            return fromSrc == null ? null : fromSrc.get(dst);
+        }
+
+        void put(DeviceId src, DeviceId dst, Set<Path> p) {
+            paths.computeIfAbsent(src, k -> new ConcurrentHashMap<>()).put(dst, p);
+        }
+
+        int size() {
+            int n = 0;
+            for (Map<DeviceId, Set<Path>> fromSrc : paths.values()) {
+                n += fromSrc.size();
+            }
+            return n;
+        }
+    }
+
+    PathCache(TopologyService topologyService, Logger log) {
+        this.topologyService = topologyService;
+        this.log = log;
+    }
+
+    /**
+     * Sets whether the paths used under the previous topology are computed
+     * again in the background when the topology changes.
+     *
+     * @param prewarm true to pre-warm
+     */
+    synchronized void setPrewarm(boolean prewarm) {
+        this.prewarm = prewarm;
+        if (prewarm && prewarmExecutor == null) {
+            prewarmExecutor = Executors.newSingleThreadExecutor(
+                    groupedThreads("onos/fwd", "path-cache-prewarm", log));
+        } else if (!prewarm && prewarmExecutor != null) {
+            prewarmExecutor.shutdownNow();
+            prewarmExecutor = null;
+        }
+    }
+
+    synchronized void close() {
+        setPrewarm(false);
+        generation = null;
+    }
+
+    /**
+     * Returns the shortest paths between two devices in the current topology.
+     *
+     * @param src source device
+     * @param dst destination device
+     * @return set of shortest paths
+     */
+    Set<Path> getPaths(DeviceId src, DeviceId dst) {
+        Topology topology = topologyService.currentTopology();
+        Generation g = generation(topology);
+        if (g == null) {
+            // the topology read is already older than the cached one
+            misses.increment();
+            return topologyService.getPaths(topology, src, dst);
+        }
+
+        Set<Path> paths = g.get(src, dst);
+        if (paths != null) {
+            hits.increment();
+            return paths;
+        }
+
+        misses.increment();
+        paths = topologyService.getPaths(topology, src, dst);
+        g.put(src, dst, paths);
+        return paths;
+    }
+
+    /**
+     * Drops the paths of earlier topologies. Called by the topology listener.
+     *
+     * @param topology the new topology
+     */
+    void topologyChanged(Topology topology) {
+        generation(topology);
+    }
+
+    // Returns the generation for the topology, starting it if the topology is newer
+    private Generation generation(Topology topology) {
+        Generation g = generation;
+        if (g != null && g.topology == topology) {
+            return g;
+        }
+
+        synchronized (this) {
+            g = generation;
+            if (g != null && g.topology == topology) {
+                return g;
+            }
+            if (g != null && topology.time() < g.topology.time()) {
+                return null;
+            }
+
+            Generation next = new Generation(topology);
+            generation = next;
+            if (g != null) {
+                invalidations.incrementAndGet();
+                if (prewarm) {
+                    prewarm(g, next);
+                }
+            }
+            return next;
+        }
+    }
+
+    private void prewarm(Generation previous, Generation next) {
+        try {
+            prewarmExecutor.execute(() -> {
+                for (Map.Entry<DeviceId, ConcurrentMap<DeviceId, Set<Path>>> fromSrc
+                        : previous.paths.entrySet()) {
+                    for (DeviceId dst : fromSrc.getValue().keySet()) {
+                        if (generation != next) {
+                            // superseded by an even newer topology
+                            return;
+                        }
+                        DeviceId src = fromSrc.getKey();
+                        if (next.get(src, dst) == null) {
+                            next.put(src, dst, topologyService.getPaths(next.topology, src, dst));
+                            prewarmed.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Path cache pre-warming is stopping");
+        }
+    }
+
+    void printStats(PrintStream out) {
+        Generation g = generation;
+        long h = hits.sum();
+        long m = misses.sum();
+
+        out.println("Path cache entries       : " + (g == null ? 0 : g.size()));
+        out.println("Path cache hits          : " + h);
+        out.println("Path cache misses        : " + m);
+        out.println("Path cache hit ratio     : " +
+                            (h + m == 0 ? "-" : String.format("%.1f%%", 100.0 * h / (h + m))));
+        out.println("Path cache invalidations : " + invalidations.get());
+        out.println("Path cache pre-warmed    : " + prewarmed.get() + (prewarm ? "" : " (off)"));
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.TrafficSelector;
+import org.slf4j.Logger;
+
+import java.io.PrintStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Remembers the rules that have been requested but not yet reported as
+ * added, so that further packet-ins of the same flow are only sent on
+ * instead of requesting the same rule again. An entry ends when its rule
+ * is added, when installing it fails or when it times out.
+ */
+final class PendingInstallTable {
+
+    private final ApplicationId appId;
+    private final Logger log;
+    // deadline of each pending rule, by device and then selector
+    private final ConcurrentMap<DeviceId, ConcurrentMap<TrafficSelector, Long>> pending =
+            new ConcurrentHashMap<>();
+    private final FlowRuleListener flowRuleListener = new InternalFlowRuleListener();
+
+    private volatile long timeoutNanos;
+    private ScheduledExecutorService sweeper;
+    private ScheduledFuture<?> sweepTask;
+
+    private final LongAdder suppressed = new LongAdder();
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong confirmed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    PendingInstallTable(ApplicationId appId, Logger log) {
+        this.appId = appId;
+        this.log = log;
+    }
+
+    FlowRuleListener flowRuleListener() {
+        return flowRuleListener;
+    }
+
+    /**
+     * Sets how long a requested rule is waited for.
+     *
+     * @param timeoutMillis time in milliseconds, 0 to turn the table off
+     */
+    synchronized void configure(int timeoutMillis) {
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+
+        if (sweepTask != null) {
+            sweepTask.cancel(false);
+            sweepTask = null;
+        }
+        if (timeoutMillis > 0) {
+            if (sweeper == null) {
+                sweeper = Executors.newSingleThreadScheduledExecutor(
+                        groupedThreads("onos/fwd", "pending-install-sweeper", log));
+            }
+            sweepTask = sweeper.scheduleAtFixedRate(this::sweep, timeoutMillis, timeoutMillis,
+                                                    TimeUnit.MILLISECONDS);
+        } else {
+            pending.clear();
+        }
+    }
+
+    synchronized void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper = null;
+            sweepTask = null;
+        }
+        pending.clear();
+    }
+
+    /**
+     * Checks whether a rule has been requested and not yet added. A true
+     * answer is counted as a suppressed packet-in.
+     *
+     * @param deviceId device of the rule
+     * @param selector selector of the rule
+     * @return true if the rule is still pending
+     */
+    boolean isPending(DeviceId deviceId, TrafficSelector selector) {
+        if (timeoutNanos == 0) {
+            return false;
+        }
+        Map<TrafficSelector, Long> rules = pending.get(deviceId);
+        Long deadline = rules == null ? null : rules.get(selector);
+        if (deadline == null) {
+            return false;
+        }
+        if (System.nanoTime() - deadline > 0) {
+            if (rules.remove(selector, deadline)) {
+                expired.incrementAndGet();
+            }
+            return false;
+        }
+        suppressed.increment();
+        return true;
+    }
+
+    void add(DeviceId deviceId, TrafficSelector selector) {
+        long timeout = timeoutNanos;
+        if (timeout == 0) {
+            return;
+        }
+        ConcurrentMap<TrafficSelector, Long> rules = pending.get(deviceId);
+        if (rules == null) {
+            rules = pending.computeIfAbsent(deviceId, k -> new ConcurrentHashMap<>());
+        }
+        rules.put(selector, System.nanoTime() + timeout);
+        added.incrementAndGet();
+    }
+
+    void failed(DeviceId deviceId, TrafficSelector selector) {
+        if (remove(deviceId, selector)) {
+            failed.incrementAndGet();
+        }
+    }
+
+    private boolean remove(DeviceId deviceId, TrafficSelector selector) {
+        Map<TrafficSelector, Long> rules = pending.get(deviceId);
+        return rules != null && rules.remove(selector) != null;
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        for (Map<TrafficSelector, Long> rules : pending.values()) {
+            Iterator<Long> deadlines = rules.values().iterator();
+            while (deadlines.hasNext()) {
+                if (now - deadlines.next() > 0) {
+                    deadlines.remove();
+                    expired.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    void printStats(PrintStream out) {
+        int size = 0;
+        for (Map<TrafficSelector, Long> rules : pending.values()) {
+            size += rules.size();
+        }
+
+        out.println("Pending installs         : " + size +
+                            (timeoutNanos == 0 ? " (off)"
+                                    : ", timeout " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms"));
+        out.println("Pending rules requested  : " + added.get());
+        out.println("Pending rules added      : " + confirmed.get());
+        out.println("Pending rules failed     : " + failed.get());
+        out.println("Pending rules expired    : " + expired.get());
+        out.println("Packet-ins suppressed    : " + suppressed.sum());
+    }
+
+    private class InternalFlowRuleListener implements FlowRuleListener {
+        @Override
+        public void event(FlowRuleEvent event) {
+            FlowRule rule = event.subject();
+            if (event.type() == FlowRuleEvent.Type.RULE_ADDED && rule.appId() == appId.id()
+                    && remove(rule.deviceId(), rule.selector())) {
+                confirmed.incrementAndGet();
+            }
+        }
+    }
+}
@@ -54,6 +54,22 @@ public class ReactiveForwardMetrics {
         forwardedPacket++;
     }
 
+    public long getReplyPacket() {
+        return replyPacket;
+    }
+
+    public long getInPacket() {
+        return inPacket;
+    }
+
+    public long getDroppedPacket() {
+        return droppedPacket;
+    }
+
+    public long getForwardedPacket() {
+        return forwardedPacket;
+    }
+
     public MacAddress getMacAddress() {
         return macAddress;
     }
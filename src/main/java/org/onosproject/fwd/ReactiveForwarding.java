@@ -17,6 +17,8 @@ package org.onosproject.fwd;
 
 import com.google.common.collect.ImmutableSet;
 import in.ac.iitkgp.stan.FlowSeer;
+import in.ac.iitkgp.stan.FlowVerdict;
+import in.ac.iitkgp.stan.VerdictListener;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Deactivate;
@@ -28,7 +30,6 @@ import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.onlab.packet.Ethernet;
 import org.onlab.packet.ICMP;
 import org.onlab.packet.ICMP6;
-import org.onlab.packet.IPacket;
 import org.onlab.packet.IPv4;
 import org.onlab.packet.IPv6;
 import org.onlab.packet.Ip4Prefix;
@@ -50,22 +51,19 @@ import org.onosproject.core.CoreService;
 import org.onosproject.event.Event;
 import org.onosproject.net.ConnectPoint;
 import org.onosproject.net.DeviceId;
-import org.onosproject.net.Host;
 import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
 import org.onosproject.net.Link;
 import org.onosproject.net.Path;
 import org.onosproject.net.PortNumber;
 import org.onosproject.net.flow.DefaultTrafficSelector;
 import org.onosproject.net.flow.DefaultTrafficTreatment;
-import org.onosproject.net.flow.FlowEntry;
 import org.onosproject.net.flow.FlowRule;
 import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.TrafficSelector;
 import org.onosproject.net.flow.TrafficTreatment;
 import org.onosproject.net.flow.criteria.Criterion;
 import org.onosproject.net.flow.criteria.EthCriterion;
-import org.onosproject.net.flow.instructions.Instruction;
-import org.onosproject.net.flow.instructions.Instructions;
 import org.onosproject.net.flowobjective.DefaultForwardingObjective;
 import org.onosproject.net.flowobjective.FlowObjectiveService;
 import org.onosproject.net.flowobjective.ForwardingObjective;
@@ -86,12 +84,17 @@ import org.onosproject.store.service.EventuallyConsistentMap;
 import org.onosproject.store.service.WallClockTimestamp;
 import org.onosproject.store.service.MultiValuedTimestamp;
 import org.slf4j.Logger;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -105,6 +108,23 @@ public class ReactiveForwarding {
     //private static final int DEFAULT_TIMEOUT = 10;
     public static final int DEFAULT_TIMEOUT = 4;
     private static final int DEFAULT_PRIORITY = 10;
+    private static final int DEFAULT_METRICS_FLUSH_INTERVAL = 1000;
+    private static final int DEFAULT_PENDING_INSTALL_TIMEOUT = 500;
+    private static final int DEFAULT_OBJECTIVE_BATCH_WINDOW = 0;
+    private static final int DEFAULT_OBJECTIVE_BATCH_SIZE = 64;
+    private static final int DEFAULT_BLACKHOLE_REPAIR_WINDOW = 20;
+    private static final int DEFAULT_BLACKHOLE_REPAIR_THREADS = 4;
+    private static final int DEFAULT_PACKET_TRACE_SAMPLE_RATE = 0;
+    private static final int DEFAULT_PACKET_TRACE_SIZE = 4096;
+    private static final int DEFAULT_FLOWSEER_MAX_FLOWS = 100000;
+    private static final int DEFAULT_FLOWSEER_IDLE_TIMEOUT = 30;
+    private static final int DEFAULT_FLOWSEER_FLOW_TTL = 3600;
+    private static final int DEFAULT_FLOWSEER_QUEUE_SIZE = 10000;
+    private static final int DEFAULT_FLOWSEER_BATCH_SIZE = 64;
+    private static final int DEFAULT_FLOWSEER_ELEPHANT_PRIORITY = 20;
+    private static final int DEFAULT_FLOWSEER_ELEPHANT_QUEUE = -1;
+    private static final String DEFAULT_FLOWSEER_CLASSIFIER = "remote";
+    private static final int DEFAULT_FLOWSEER_GRACE_PERIOD = 200;
 
     private final Logger log = getLogger(getClass());
 
@@ -206,15 +226,161 @@ public class ReactiveForwarding {
             label = "Enable record metrics for reactive forwarding")
     private boolean recordMetrics = false;
 
+    @Property(name = "metricsFlushInterval", intValue = DEFAULT_METRICS_FLUSH_INTERVAL,
+            label = "Configure the interval in milliseconds at which recorded metrics " +
+                    "are written to the distributed metrics map; default is 1000 ms")
+    private int metricsFlushInterval = DEFAULT_METRICS_FLUSH_INTERVAL;
+
+    private LocalMacMetrics localMetrics;
+
+    @Property(name = "objectiveBatchWindow", intValue = DEFAULT_OBJECTIVE_BATCH_WINDOW,
+            label = "Configure the time in milliseconds forwarding objectives for a device " +
+                    "are collected before they are installed, 0 to install each one " +
+                    "straight away; default is 0")
+    private int objectiveBatchWindow = DEFAULT_OBJECTIVE_BATCH_WINDOW;
+
+    @Property(name = "objectiveBatchSize", intValue = DEFAULT_OBJECTIVE_BATCH_SIZE,
+            label = "Configure the number of forwarding objectives for a device " +
+                    "installed together; default is 64")
+    private int objectiveBatchSize = DEFAULT_OBJECTIVE_BATCH_SIZE;
+
+    private ObjectiveInstaller objectiveInstaller;
+
+    @Property(name = "pendingInstallTimeout", intValue = DEFAULT_PENDING_INSTALL_TIMEOUT,
+            label = "Configure the time in milliseconds a requested rule is waited for " +
+                    "before further packet-ins of its flow request it again, 0 to always " +
+                    "request it; default is 500 ms")
+    private int pendingInstallTimeout = DEFAULT_PENDING_INSTALL_TIMEOUT;
+
+    private PendingInstallTable pendingInstalls;
+
+    private InstalledRuleIndex installedRules;
+
+    @Property(name = "blackholeRepairWindow", intValue = DEFAULT_BLACKHOLE_REPAIR_WINDOW,
+            label = "Configure the time in milliseconds the rules leading into a failed link " +
+                    "are held back for further links to fail, so a burst of failures is " +
+                    "repaired together, 0 to repair each at once; default is 20 ms")
+    private int blackholeRepairWindow = DEFAULT_BLACKHOLE_REPAIR_WINDOW;
+
+    @Property(name = "blackholeRepairThreads", intValue = DEFAULT_BLACKHOLE_REPAIR_THREADS,
+            label = "Configure the number of devices whose rules leading into failed links " +
+                    "are removed in parallel; default is 4")
+    private int blackholeRepairThreads = DEFAULT_BLACKHOLE_REPAIR_THREADS;
+
+    private BlackholeRepairer blackholeRepairer;
+
+    @Property(name = "installPathRules", boolValue = false,
+            label = "Install the rule on every switch of the path, egress first, " +
+                    "when the first packet of a flow arrives; default is false")
+    private boolean installPathRules = false;
+
+    private final AtomicLong pathInstalls = new AtomicLong();
+    private final AtomicLong pathRules = new AtomicLong();
+
+    @Property(name = "packetTraceSampleRate", intValue = DEFAULT_PACKET_TRACE_SAMPLE_RATE,
+            label = "Trace one in every N packet-ins into the in-memory packet trace, " +
+                    "0 to disable; default is 0")
+    private int packetTraceSampleRate = DEFAULT_PACKET_TRACE_SAMPLE_RATE;
+
+    @Property(name = "packetTraceSize", intValue = DEFAULT_PACKET_TRACE_SIZE,
+            label = "Number of recent packet decisions kept in the packet trace; " +
+                    "default is 4096")
+    private int packetTraceSize = DEFAULT_PACKET_TRACE_SIZE;
+
+    private volatile PacketTrace packetTrace = new PacketTrace(DEFAULT_PACKET_TRACE_SIZE);
+
+    @Property(name = "recordStageLatency", boolValue = false,
+            label = "Record latency histograms of the packet-in processing stages; " +
+                    "default is false")
+    private boolean recordStageLatency = false;
+
+    private final StageLatency stageLatency = new StageLatency();
+
+    @Property(name = "flowSeerMaxFlows", intValue = DEFAULT_FLOWSEER_MAX_FLOWS,
+            label = "Configure the maximum number of flows tracked by FlowSeer; " +
+                    "default is 100000")
+    private int flowSeerMaxFlows = DEFAULT_FLOWSEER_MAX_FLOWS;
+
+    @Property(name = "flowSeerIdleTimeout", intValue = DEFAULT_FLOWSEER_IDLE_TIMEOUT,
+            label = "Configure idle time after which trained or abandoned FlowSeer " +
+                    "flows are evicted; default is 30 sec")
+    private int flowSeerIdleTimeout = DEFAULT_FLOWSEER_IDLE_TIMEOUT;
+
+    @Property(name = "flowSeerFlowTtl", intValue = DEFAULT_FLOWSEER_FLOW_TTL,
+            label = "Configure time after which any FlowSeer flow is evicted; " +
+                    "default is 3600 sec")
+    private int flowSeerFlowTtl = DEFAULT_FLOWSEER_FLOW_TTL;
+
+    @Property(name = "flowSeerEvictOldest", boolValue = false,
+            label = "Evict the least recently seen flow instead of skipping new " +
+                    "flows when FlowSeer is full; default is false")
+    private boolean flowSeerEvictOldest = false;
+
+    @Property(name = "flowSeerQueueSize", intValue = DEFAULT_FLOWSEER_QUEUE_SIZE,
+            label = "Configure the number of FlowSeer records queued for the " +
+                    "classifier; default is 10000")
+    private int flowSeerQueueSize = DEFAULT_FLOWSEER_QUEUE_SIZE;
+
+    @Property(name = "flowSeerBatchSize", intValue = DEFAULT_FLOWSEER_BATCH_SIZE,
+            label = "Configure the maximum number of FlowSeer records written to " +
+                    "the classifier at once; default is 64")
+    private int flowSeerBatchSize = DEFAULT_FLOWSEER_BATCH_SIZE;
+
+    @Property(name = "flowSeerBlockWhenFull", boolValue = false,
+            label = "Wait up to 10 ms for room instead of dropping FlowSeer records " +
+                    "at once when the classifier queue is full; default is false")
+    private boolean flowSeerBlockWhenFull = false;
+
+    @Property(name = "flowSeerBinaryRecords", boolValue = false,
+            label = "Offer the compact binary record format to the FlowSeer " +
+                    "classifier instead of ARFF text; default is false")
+    private boolean flowSeerBinaryRecords = false;
+
+    @Property(name = "flowSeerApplyVerdicts", boolValue = false,
+            label = "Reinstall the rules of flows that FlowSeer predicts to be " +
+                    "elephant flows with the elephant priority and queue; default is false")
+    private boolean flowSeerApplyVerdicts = false;
+
+    @Property(name = "flowSeerElephantPriority", intValue = DEFAULT_FLOWSEER_ELEPHANT_PRIORITY,
+            label = "Configure Flow Priority for flows predicted to be elephant flows; " +
+                    "default is 20")
+    private int flowSeerElephantPriority = DEFAULT_FLOWSEER_ELEPHANT_PRIORITY;
+
+    @Property(name = "flowSeerElephantQueue", intValue = DEFAULT_FLOWSEER_ELEPHANT_QUEUE,
+            label = "Configure the switch queue for flows predicted to be elephant flows; " +
+                    "default is -1, which leaves the queue unchanged")
+    private int flowSeerElephantQueue = DEFAULT_FLOWSEER_ELEPHANT_QUEUE;
+
+    @Property(name = "flowSeerClassifier", value = DEFAULT_FLOWSEER_CLASSIFIER,
+            label = "Configure the FlowSeer classifier, 'remote' for an external " +
+                    "classifier or 'embedded' for a Hoeffding tree inside ONOS; default is remote")
+    private String flowSeerClassifier = DEFAULT_FLOWSEER_CLASSIFIER;
+
+    @Property(name = "flowSeerGracePeriod", intValue = DEFAULT_FLOWSEER_GRACE_PERIOD,
+            label = "Configure the number of flows a leaf of the embedded Hoeffding tree " +
+                    "learns from between split attempts; default is 200")
+    private int flowSeerGracePeriod = DEFAULT_FLOWSEER_GRACE_PERIOD;
+
+    @Property(name = "pathCachePrewarm", boolValue = false,
+            label = "Look up the switch pairs used under the previous topology again " +
+                    "in the background when the topology changes; default is false")
+    private boolean pathCachePrewarm = false;
+
     private final TopologyListener topologyListener = new InternalTopologyListener();
 
-    public boolean isFlowSeerActive = false;
-    public FlowSeer flowSeer;
+    private PathCache pathCache;
+
+    private HostLocationCache hostLocations;
+
+    private final VerdictListener verdictListener = new InternalVerdictListener();
+
+    public volatile boolean isFlowSeerActive = false;
+    public volatile FlowSeer flowSeer;
     private int k, bandwidth, time;
     private String host;
     private int trainingPort, testingPort;
 
-    public boolean startFlowSeer(int k, int bandwidth, int time, String host, int trainingPort, int testingPort)
+    public synchronized boolean startFlowSeer(int k, int bandwidth, int time, String host, int trainingPort, int testingPort)
     {
         if (!isFlowSeerActive)
         {
@@ -224,7 +390,12 @@ public class ReactiveForwarding {
             this.host = host;
             this.trainingPort = trainingPort;
             this.testingPort = testingPort;
-            flowSeer = new FlowSeer(k, bandwidth, time, host, trainingPort, testingPort, coreService, hostService, flowRuleService, log);
+            flowSeer = new FlowSeer(k, bandwidth, time, host, trainingPort, testingPort,
+                    flowSeerMaxFlows, flowSeerIdleTimeout, flowSeerFlowTtl, flowSeerEvictOldest,
+                    flowSeerQueueSize, flowSeerBatchSize, flowSeerBlockWhenFull, flowSeerBinaryRecords,
+                    isFlowSeerEmbedded(), flowSeerGracePeriod,
+                    coreService, flowRuleService, log);
+            flowSeer.setVerdictListener(verdictListener);
             isFlowSeerActive = true;
             if (!flowSeer.start())
             {
@@ -235,7 +406,18 @@ public class ReactiveForwarding {
         return true;
     }
 
-    public void stopFlowSeer()
+    /**
+     * Returns whether FlowSeer uses the classifier embedded in ONOS, which
+     * needs no classifier host.
+     *
+     * @return true if the embedded classifier is configured
+     */
+    public boolean isFlowSeerEmbedded()
+    {
+        return "embedded".equalsIgnoreCase(flowSeerClassifier);
+    }
+
+    public synchronized void stopFlowSeer()
     {
         if (isFlowSeerActive)
         {
@@ -261,10 +443,21 @@ public class ReactiveForwarding {
                 .withTimestampProvider((key, metricsData) -> new
                         MultiValuedTimestamp<>(new WallClockTimestamp(), System.nanoTime()))
                 .build();
+        localMetrics = new LocalMacMetrics(metrics, log);
 
         cfgService.registerProperties(getClass());
         appId = coreService.registerApplication("org.onosproject.fwd");
 
+        pathCache = new PathCache(topologyService, log);
+        hostLocations = new HostLocationCache(hostService);
+        hostLocations.activate();
+        pendingInstalls = new PendingInstallTable(appId, log);
+        flowRuleService.addListener(pendingInstalls.flowRuleListener());
+        objectiveInstaller = new ObjectiveInstaller(flowObjectiveService, pendingInstalls, log);
+        installedRules = new InstalledRuleIndex(appId);
+        flowRuleService.addListener(installedRules.flowRuleListener());
+        installedRules.seed(flowRuleService.getFlowEntriesById(appId));
+        blackholeRepairer = new BlackholeRepairer(flowRuleService, installedRules, this::planRepair, log);
         packetService.addProcessor(processor, PacketProcessor.director(2));
         topologyService.addListener(topologyListener);
         readComponentConfiguration(context);
@@ -277,9 +470,18 @@ public class ReactiveForwarding {
     public void deactivate() {
         cfgService.unregisterProperties(getClass(), false);
         withdrawIntercepts();
-        flowRuleService.removeFlowRulesById(appId);
         packetService.removeProcessor(processor);
+        objectiveInstaller.close();
+        flowRuleService.removeListener(pendingInstalls.flowRuleListener());
+        pendingInstalls.close();
+        flowRuleService.removeListener(installedRules.flowRuleListener());
+        installedRules.close();
+        localMetrics.close();
+        flowRuleService.removeFlowRulesById(appId);
         topologyService.removeListener(topologyListener);
+        blackholeRepairer.close();
+        pathCache.close();
+        hostLocations.deactivate();
         processor = null;
         log.info("Stopped");
     }
@@ -471,11 +673,175 @@ public class ReactiveForwarding {
                     recordMetrics ? "enabled" : "disabled");
         }
 
+        int traceSize = Tools.getIntegerProperty(properties, "packetTraceSize",
+                                                 DEFAULT_PACKET_TRACE_SIZE);
+        if (traceSize != packetTraceSize) {
+            packetTraceSize = traceSize;
+            packetTrace = new PacketTrace(packetTraceSize);
+        }
+        packetTraceSampleRate = Tools.getIntegerProperty(properties, "packetTraceSampleRate",
+                                                         DEFAULT_PACKET_TRACE_SAMPLE_RATE);
+        packetTrace.setSampleRate(packetTraceSampleRate);
+        log.info("Configured. Packet trace samples 1 in {} packets into {} entries",
+                 packetTraceSampleRate, packetTrace.size());
+
+        Boolean recordStageLatencyEnabled =
+                Tools.isPropertyEnabled(properties, "recordStageLatency");
+        if (recordStageLatencyEnabled == null) {
+            log.info("Stage latency recording is not configured, " +
+                     "using current value of {}", recordStageLatency);
+        } else {
+            recordStageLatency = recordStageLatencyEnabled;
+            log.info("Configured. Stage latency recording is {}",
+                     recordStageLatency ? "enabled" : "disabled");
+        }
+        stageLatency.setEnabled(recordStageLatency);
+
+        Boolean pathCachePrewarmEnabled =
+                Tools.isPropertyEnabled(properties, "pathCachePrewarm");
+        if (pathCachePrewarmEnabled == null) {
+            log.info("Path cache pre-warming is not configured, " +
+                     "using current value of {}", pathCachePrewarm);
+        } else {
+            pathCachePrewarm = pathCachePrewarmEnabled;
+            log.info("Configured. Path cache pre-warming is {}",
+                     pathCachePrewarm ? "enabled" : "disabled");
+        }
+        pathCache.setPrewarm(pathCachePrewarm);
+
+        Boolean installPathRulesEnabled =
+                Tools.isPropertyEnabled(properties, "installPathRules");
+        if (installPathRulesEnabled == null) {
+            log.info("Path-wide rule installation is not configured, " +
+                     "using current value of {}", installPathRules);
+        } else {
+            installPathRules = installPathRulesEnabled;
+            log.info("Configured. Path-wide rule installation is {}",
+                     installPathRules ? "enabled" : "disabled");
+        }
+
+        pendingInstallTimeout = Tools.getIntegerProperty(properties, "pendingInstallTimeout",
+                                                         DEFAULT_PENDING_INSTALL_TIMEOUT);
+        pendingInstalls.configure(pendingInstallTimeout);
+        log.info("Configured. Pending install timeout is configured to {} ms", pendingInstallTimeout);
+
+        objectiveBatchWindow = Tools.getIntegerProperty(properties, "objectiveBatchWindow",
+                                                        DEFAULT_OBJECTIVE_BATCH_WINDOW);
+        objectiveBatchSize = Tools.getIntegerProperty(properties, "objectiveBatchSize",
+                                                      DEFAULT_OBJECTIVE_BATCH_SIZE);
+        objectiveInstaller.configure(objectiveBatchWindow, objectiveBatchSize);
+        log.info("Configured. Forwarding objectives are batched for {} ms, up to {} per device",
+                 objectiveBatchWindow, objectiveBatchSize);
+
+        blackholeRepairWindow = Tools.getIntegerProperty(properties, "blackholeRepairWindow",
+                                                         DEFAULT_BLACKHOLE_REPAIR_WINDOW);
+        blackholeRepairThreads = Tools.getIntegerProperty(properties, "blackholeRepairThreads",
+                                                          DEFAULT_BLACKHOLE_REPAIR_THREADS);
+        blackholeRepairer.configure(blackholeRepairWindow, blackholeRepairThreads);
+        log.info("Configured. Failed links are repaired together within {} ms, on {} threads",
+                 blackholeRepairWindow, blackholeRepairThreads);
+
+        metricsFlushInterval = Tools.getIntegerProperty(properties, "metricsFlushInterval",
+                                                        DEFAULT_METRICS_FLUSH_INTERVAL);
+        localMetrics.configure(metricsFlushInterval);
+        log.info("Configured. Metrics flush interval is configured to {} ms", metricsFlushInterval);
+
         flowTimeout = Tools.getIntegerProperty(properties, "flowTimeout", DEFAULT_TIMEOUT);
         log.info("Configured. Flow Timeout is configured to {} seconds", flowTimeout);
 
         flowPriority = Tools.getIntegerProperty(properties, "flowPriority", DEFAULT_PRIORITY);
         log.info("Configured. Flow Priority is configured to {}", flowPriority);
+
+        Boolean flowSeerEvictOldestEnabled =
+                Tools.isPropertyEnabled(properties, "flowSeerEvictOldest");
+        if (flowSeerEvictOldestEnabled == null) {
+            log.info("FlowSeer evict oldest is not configured, " +
+                     "using current value of {}", flowSeerEvictOldest);
+        } else {
+            flowSeerEvictOldest = flowSeerEvictOldestEnabled;
+            log.info("Configured. FlowSeer evict oldest is {}",
+                    flowSeerEvictOldest ? "enabled" : "disabled");
+        }
+
+        flowSeerMaxFlows = Tools.getIntegerProperty(properties, "flowSeerMaxFlows",
+                                                    DEFAULT_FLOWSEER_MAX_FLOWS);
+        log.info("Configured. FlowSeer max flows is configured to {}", flowSeerMaxFlows);
+
+        flowSeerIdleTimeout = Tools.getIntegerProperty(properties, "flowSeerIdleTimeout",
+                                                       DEFAULT_FLOWSEER_IDLE_TIMEOUT);
+        log.info("Configured. FlowSeer idle timeout is configured to {} seconds",
+                 flowSeerIdleTimeout);
+
+        flowSeerFlowTtl = Tools.getIntegerProperty(properties, "flowSeerFlowTtl",
+                                                   DEFAULT_FLOWSEER_FLOW_TTL);
+        log.info("Configured. FlowSeer flow TTL is configured to {} seconds", flowSeerFlowTtl);
+
+        Boolean flowSeerBlockWhenFullEnabled =
+                Tools.isPropertyEnabled(properties, "flowSeerBlockWhenFull");
+        if (flowSeerBlockWhenFullEnabled == null) {
+            log.info("FlowSeer block when full is not configured, " +
+                     "using current value of {}", flowSeerBlockWhenFull);
+        } else {
+            flowSeerBlockWhenFull = flowSeerBlockWhenFullEnabled;
+            log.info("Configured. FlowSeer block when full is {}",
+                    flowSeerBlockWhenFull ? "enabled" : "disabled");
+        }
+
+        Boolean flowSeerBinaryRecordsEnabled =
+                Tools.isPropertyEnabled(properties, "flowSeerBinaryRecords");
+        if (flowSeerBinaryRecordsEnabled == null) {
+            log.info("FlowSeer binary records is not configured, " +
+                     "using current value of {}", flowSeerBinaryRecords);
+        } else {
+            flowSeerBinaryRecords = flowSeerBinaryRecordsEnabled;
+            log.info("Configured. FlowSeer binary records is {}",
+                    flowSeerBinaryRecords ? "enabled" : "disabled");
+        }
+
+        flowSeerQueueSize = Tools.getIntegerProperty(properties, "flowSeerQueueSize",
+                                                     DEFAULT_FLOWSEER_QUEUE_SIZE);
+        log.info("Configured. FlowSeer queue size is configured to {}", flowSeerQueueSize);
+
+        flowSeerBatchSize = Tools.getIntegerProperty(properties, "flowSeerBatchSize",
+                                                     DEFAULT_FLOWSEER_BATCH_SIZE);
+        log.info("Configured. FlowSeer batch size is configured to {}", flowSeerBatchSize);
+
+        Boolean flowSeerApplyVerdictsEnabled =
+                Tools.isPropertyEnabled(properties, "flowSeerApplyVerdicts");
+        if (flowSeerApplyVerdictsEnabled == null) {
+            log.info("FlowSeer apply verdicts is not configured, " +
+                     "using current value of {}", flowSeerApplyVerdicts);
+        } else {
+            flowSeerApplyVerdicts = flowSeerApplyVerdictsEnabled;
+            log.info("Configured. FlowSeer apply verdicts is {}",
+                    flowSeerApplyVerdicts ? "enabled" : "disabled");
+        }
+
+        flowSeerElephantPriority = Tools.getIntegerProperty(properties, "flowSeerElephantPriority",
+                                                            DEFAULT_FLOWSEER_ELEPHANT_PRIORITY);
+        log.info("Configured. FlowSeer elephant priority is configured to {}",
+                 flowSeerElephantPriority);
+
+        flowSeerElephantQueue = Tools.getIntegerProperty(properties, "flowSeerElephantQueue",
+                                                         DEFAULT_FLOWSEER_ELEPHANT_QUEUE);
+        log.info("Configured. FlowSeer elephant queue is configured to {}", flowSeerElephantQueue);
+
+        String flowSeerClassifierString = Tools.get(properties, "flowSeerClassifier");
+        if (flowSeerClassifierString == null) {
+            log.info("FlowSeer classifier is not configured, " +
+                     "using current value of {}", flowSeerClassifier);
+        } else if (!flowSeerClassifierString.equalsIgnoreCase("remote") &&
+                !flowSeerClassifierString.equalsIgnoreCase("embedded")) {
+            log.warn("Unknown FlowSeer classifier {}, " +
+                     "using current value of {}", flowSeerClassifierString, flowSeerClassifier);
+        } else {
+            flowSeerClassifier = flowSeerClassifierString;
+            log.info("Configured. FlowSeer classifier is configured to {}", flowSeerClassifier);
+        }
+
+        flowSeerGracePeriod = Tools.getIntegerProperty(properties, "flowSeerGracePeriod",
+                                                       DEFAULT_FLOWSEER_GRACE_PERIOD);
+        log.info("Configured. FlowSeer grace period is configured to {}", flowSeerGracePeriod);
     }
 
     /**
@@ -485,6 +851,12 @@ public class ReactiveForwarding {
 
         @Override
         public void process(PacketContext context) {
+            long start = stageLatency.start();
+            processPacket(context);
+            stageLatency.record(StageLatency.Stage.PROCESS, start);
+        }
+
+        private void processPacket(PacketContext context) {
             // Stop processing if the packet has been handled, since we
             // can't do any more to it.
 
@@ -499,61 +871,26 @@ public class ReactiveForwarding {
                 return;
             }
 
-            /* All modifications done below */
-            // getting the packet payload
-            IPacket payload = ethPkt.getPayload();
-
-            String srcIP="", dstIP="";
-            boolean tcp = false, udp = false;
-            int srcPort=0, dstPort=0;
-
-            // get the IP address if it is IPV4 packet
-            if (payload instanceof IPv4)
-            {
-                final IPv4 p = (IPv4) payload;
-                srcIP = IPv4.fromIPv4Address(p.getSourceAddress());
-                dstIP = IPv4.fromIPv4Address(p.getDestinationAddress());
-
-                IPacket payload2 = payload.getPayload();
-
-                if (payload2 instanceof TCP)
-                {
-                    tcp = true;
-                    srcPort = ((TCP) payload2).getSourcePort();
-                    dstPort = ((TCP) payload2).getDestinationPort();
-                }
-                else if (payload2 instanceof UDP)
-                {
-                    udp = true;
-                    srcPort = ((UDP) payload2).getSourcePort();
-                    dstPort = ((UDP) payload2).getDestinationPort();
-                }
-            }
-
-            if (!(srcIP.equals("") || srcIP.equals("0.0.0.0")))
-            {
-                /* Optional info that is being printed */
-                log.info("-------------------Info-------------------");
-                log.info("Device: " + pkt.receivedFrom().toString());
-                log.info("From: " + srcIP + ":" + srcPort + " To: " + dstIP + ":" + dstPort + (tcp ? " TCP" : (udp ? " UDP" : "")));
-                /* End of optional info that is being printed */
-            }
-            /* All modifications done above */
+            // Decide up front whether this packet goes into the trace
+            PacketTrace trace = packetTrace;
+            boolean traced = trace.sample();
 
             MacAddress macAddress = ethPkt.getSourceMAC();
-            ReactiveForwardMetrics macMetrics = null;
+            LocalMacMetrics.Counters macMetrics = null;
             macMetrics = createCounter(macAddress);
             inPacket(macMetrics);
 
             // Bail if this is deemed to be a control packet.
             if (isControlPacket(ethPkt)) {
                 droppedPacket(macMetrics);
+                trace(traced, trace, pkt, null, PacketTrace.Decision.DROPPED);
                 return;
             }
 
             // Skip IPv6 multicast packet when IPv6 forward is disabled.
             if (!ipv6Forwarding && isIpv6Multicast(ethPkt)) {
                 droppedPacket(macMetrics);
+                trace(traced, trace, pkt, null, PacketTrace.Decision.DROPPED);
                 return;
             }
 
@@ -562,43 +899,50 @@ public class ReactiveForwarding {
             // Do not process link-local addresses in any way.
             if (id.mac().isLinkLocal()) {
                 droppedPacket(macMetrics);
+                trace(traced, trace, pkt, null, PacketTrace.Decision.DROPPED);
                 return;
             }
 
             // Do not process IPv4 multicast packets, let mfwd handle them
             if (ignoreIpv4McastPackets && ethPkt.getEtherType() == Ethernet.TYPE_IPV4) {
                 if (id.mac().isMulticast()) {
+                    trace(traced, trace, pkt, null, PacketTrace.Decision.IGNORED);
                     return;
                 }
             }
 
             // Do we know who this is for? If not, flood and bail.
-            Host dst = hostService.getHost(id);
+            long start = stageLatency.start();
+            HostLocation dst = hostLocations.location(id);
+            stageLatency.record(StageLatency.Stage.HOST_LOOKUP, start);
             if (dst == null) {
                 flood(context, macMetrics);
+                trace(traced, trace, pkt, PortNumber.FLOOD, PacketTrace.Decision.FLOODED);
                 return;
             }
 
             // Are we on an edge switch that our destination is on? If so,
             // simply forward out to the destination and bail.
-            if (pkt.receivedFrom().deviceId().equals(dst.location().deviceId())) {
-                if (!context.inPacket().receivedFrom().port().equals(dst.location().port())) {
-                    installRule(context, dst.location().port(), macMetrics);
-                    log.info("Edge switch. Forwarded to destination.");
+            if (pkt.receivedFrom().deviceId().equals(dst.deviceId())) {
+                if (!context.inPacket().receivedFrom().port().equals(dst.port())) {
+                    installRule(context, dst, null, dst.port(), macMetrics);
+                    trace(traced, trace, pkt, dst.port(), PacketTrace.Decision.EDGE_FORWARDED);
+                } else {
+                    trace(traced, trace, pkt, null, PacketTrace.Decision.IGNORED);
                 }
                 return;
             }
 
             // Otherwise, get a set of paths that lead from here to the
             // destination edge switch.
+            start = stageLatency.start();
             Set<Path> paths =
-                    topologyService.getPaths(topologyService.currentTopology(),
-                                             pkt.receivedFrom().deviceId(),
-                                             dst.location().deviceId());
+                    pathCache.getPaths(pkt.receivedFrom().deviceId(), dst.deviceId());
+            stageLatency.record(StageLatency.Stage.PATH_LOOKUP, start);
             if (paths.isEmpty()) {
                 // If there are no paths, flood and bail.
                 flood(context, macMetrics);
-                log.info("Non edge switch. No path found. Flooded and bailed.");
+                trace(traced, trace, pkt, PortNumber.FLOOD, PacketTrace.Decision.NO_PATH);
                 return;
             }
 
@@ -609,14 +953,62 @@ public class ReactiveForwarding {
                 log.warn("Don't know where to go from here {} for {} -> {}",
                          pkt.receivedFrom(), ethPkt.getSourceMAC(), ethPkt.getDestinationMAC());
                 flood(context, macMetrics);
+                trace(traced, trace, pkt, PortNumber.FLOOD, PacketTrace.Decision.NO_FORWARD_PATH);
                 return;
             }
 
             // Otherwise forward and be done with it.
-            installRule(context, path.src().port(), macMetrics);
-            log.info("Normally forwarded.");
+            installRule(context, dst, path, path.src().port(), macMetrics);
+            trace(traced, trace, pkt, path.src().port(), PacketTrace.Decision.FORWARDED);
         }
 
+        private void trace(boolean traced, PacketTrace trace, InboundPacket pkt,
+                           PortNumber outPort, PacketTrace.Decision decision) {
+            if (traced) {
+                trace.record(pkt.receivedFrom().deviceId(), pkt.receivedFrom().port(),
+                             outPort, pkt.parsed(), decision);
+            }
+        }
+
+    }
+
+    // Installs the rule of a flow on the switches of its path after the first
+    // one, egress first so that the flow never reaches a switch without it
+    private void installAlongPath(Path path, HostLocation dst, TrafficSelector selector, boolean includeEgress) {
+        List<Link> links = path.links();
+        int rules = 0;
+
+        if (includeEgress) {
+            Link last = links.get(links.size() - 1);
+            installHop(dst.deviceId(), last.dst().port(), dst.port(), selector);
+            rules++;
+        }
+        for (int i = links.size() - 1; i > 0; i--) {
+            installHop(links.get(i).src().deviceId(), links.get(i - 1).dst().port(),
+                       links.get(i).src().port(), selector);
+            rules++;
+        }
+
+        pathInstalls.incrementAndGet();
+        pathRules.addAndGet(rules);
+    }
+
+    private void installHop(DeviceId deviceId, PortNumber inPort, PortNumber outPort, TrafficSelector selector) {
+        TrafficSelector hopSelector = selector;
+        if (selector.getCriterion(Criterion.Type.IN_PORT) != null) {
+            hopSelector = DefaultTrafficSelector.builder(selector).matchInPort(inPort).build();
+        }
+        TrafficTreatment treatment = DefaultTrafficTreatment.builder()
+                .setOutput(outPort)
+                .build();
+
+        objectiveInstaller.submit(deviceId, hopSelector, DefaultForwardingObjective.builder()
+                .withSelector(hopSelector)
+                .withTreatment(treatment)
+                .withPriority(flowPriority)
+                .withFlag(ForwardingObjective.Flag.VERSATILE)
+                .fromApp(appId)
+                .makeTemporary(flowTimeout));
     }
 
     // Indicates whether this is a control packet, e.g. LLDP, BDDP
@@ -644,7 +1036,7 @@ public class ReactiveForwarding {
     }
 
     // Floods the specified packet if permissible.
-    private void flood(PacketContext context, ReactiveForwardMetrics macMetrics) {
+    private void flood(PacketContext context, LocalMacMetrics.Counters macMetrics) {
         if (topologyService.isBroadcastPoint(topologyService.currentTopology(),
                                              context.inPacket().receivedFrom())) {
             packetOut(context, PortNumber.FLOOD, macMetrics);
@@ -654,20 +1046,22 @@ public class ReactiveForwarding {
     }
 
     // Sends a packet out the specified port.
-    private void packetOut(PacketContext context, PortNumber portNumber, ReactiveForwardMetrics macMetrics) {
+    private void packetOut(PacketContext context, PortNumber portNumber, LocalMacMetrics.Counters macMetrics) {
+        long start = stageLatency.start();
         replyPacket(macMetrics);
         context.treatmentBuilder().setOutput(portNumber);
         context.send();
+        stageLatency.record(StageLatency.Stage.PACKET_OUT, start);
     }
 
     // Install a rule forwarding the packet to the specified port.
-    private void installRule(PacketContext context, PortNumber portNumber, ReactiveForwardMetrics macMetrics) {
+    private void installRule(PacketContext context, HostLocation dst, Path path, PortNumber portNumber,
+                             LocalMacMetrics.Counters macMetrics) {
         //
         // We don't support (yet) buffer IDs in the Flow Service so
         // packet out first.
         //
         Ethernet inPkt = context.inPacket().parsed();
-        TrafficSelector.Builder selectorBuilder = DefaultTrafficSelector.builder();
 
         // If PacketOutOnly or ARP packet than forward directly to output port
         if (packetOutOnly || inPkt.getEtherType() == Ethernet.TYPE_ARP) {
@@ -675,6 +1069,9 @@ public class ReactiveForwarding {
             return;
         }
 
+        long start = stageLatency.start();
+        TrafficSelector.Builder selectorBuilder = DefaultTrafficSelector.builder();
+
         //
         // If matchDstMacOnly
         //    Create flows matching dstMac only
@@ -781,23 +1178,42 @@ public class ReactiveForwarding {
                 .setOutput(portNumber)
                 .build();
 
-        ForwardingObjective forwardingObjective = DefaultForwardingObjective.builder()
-                .withSelector(selectorBuilder.build())
+        TrafficSelector selector = selectorBuilder.build();
+        ForwardingObjective.Builder forwardingObjective = DefaultForwardingObjective.builder()
+                .withSelector(selector)
                 .withTreatment(treatment)
                 .withPriority(flowPriority)
                 .withFlag(ForwardingObjective.Flag.VERSATILE)
                 .fromApp(appId)
-                .makeTemporary(flowTimeout)
-                .add();
+                .makeTemporary(flowTimeout);
+        DeviceId deviceId = context.inPacket().receivedFrom().deviceId();
+        stageLatency.record(StageLatency.Stage.SELECTOR, start);
+
+        // The rule of this flow has been requested already; send the packet on
+        // directly, as the rule may not be in the switch's table yet
+        if (pendingInstalls.isPending(deviceId, selector)) {
+            forwardPacket(macMetrics);
+            packetOut(context, portNumber, macMetrics);
+            return;
+        }
+
+        // FlowSeer may be stopped by the CLI while packets are being processed
+        FlowSeer seer = flowSeer;
+
+        if (installPathRules && path != null) {
+            // FlowSeer samples the flow at the destination's edge switch, so leave that rule to it
+            installAlongPath(path, dst, selector, seer == null);
+        }
 
         // If FlowSeer is active, then we will first read the first k packet data
         // and then install the flow rule into the switch
         boolean flowSeerInstallRule = false;
 
-        if (isFlowSeerActive)
+        if (seer != null)
         {
-            IPacket payload = inPkt.getPayload();
-            flowSeerInstallRule = flowSeer.addPacketData(context, selectorBuilder.build());
+            start = stageLatency.start();
+            flowSeerInstallRule = seer.addPacketData(context, dst, selector, portNumber);
+            stageLatency.record(StageLatency.Stage.FLOWSEER, start);
 
             // If FlowSeer has allowed to install the rule,
             // then we will install the rule into the switch
@@ -805,8 +1221,9 @@ public class ReactiveForwarding {
             if (flowSeerInstallRule)
             {
                 // the following line installs the rule into the switch
-                flowObjectiveService.forward(context.inPacket().receivedFrom().deviceId(),
-                        forwardingObjective);
+                start = stageLatency.start();
+                objectiveInstaller.submit(deviceId, selector, forwardingObjective);
+                stageLatency.record(StageLatency.Stage.OBJECTIVE, start);
             }
             forwardPacket(macMetrics);
             //
@@ -827,8 +1244,9 @@ public class ReactiveForwarding {
         else
         {
             // the following line installs the rule into the switch
-            flowObjectiveService.forward(context.inPacket().receivedFrom().deviceId(),
-                    forwardingObjective);
+            start = stageLatency.start();
+            objectiveInstaller.submit(deviceId, selector, forwardingObjective);
+            stageLatency.record(StageLatency.Stage.OBJECTIVE, start);
             forwardPacket(macMetrics);
             //
             // If packetOutOfppTable
@@ -848,16 +1266,57 @@ public class ReactiveForwarding {
     }
 
 
+    // Reinstalls the rule of a flow predicted to be an elephant flow with the
+    // elephant priority, and queue if configured. Called on the packet-in
+    // thread with the embedded classifier and on the reply thread of a remote
+    // one, never with a FlowSeer lock held. The objective goes through the
+    // installer like those of packet-ins, and is kept apart from the flow's
+    // own rule still waiting in an open batch by its priority and treatment.
+    private class InternalVerdictListener implements VerdictListener {
+        @Override
+        public void verdict(FlowVerdict verdict) {
+            if (!flowSeerApplyVerdicts || !verdict.isElephant()) {
+                return;
+            }
+
+            TrafficTreatment.Builder treatment = DefaultTrafficTreatment.builder();
+            if (flowSeerElephantQueue >= 0) {
+                treatment.setQueue(flowSeerElephantQueue);
+            }
+            treatment.setOutput(verdict.outPort());
+
+            ForwardingObjective.Builder forwardingObjective = DefaultForwardingObjective.builder()
+                    .withSelector(verdict.selector())
+                    .withTreatment(treatment.build())
+                    .withPriority(flowSeerElephantPriority)
+                    .withFlag(ForwardingObjective.Flag.VERSATILE)
+                    .fromApp(appId)
+                    .makeTemporary(flowTimeout);
+            if (!objectiveInstaller.submit(verdict.deviceId(), verdict.selector(), forwardingObjective)) {
+                // the same rule is already waiting, and has marked the flow if it needed to
+                log.debug("Elephant flow {} is already being reinstalled", verdict);
+                return;
+            }
+
+            if (flowSeerElephantPriority > flowPriority) {
+                // the old rule idles out without marking the end of the flow
+                verdict.reinstalled(flowSeerElephantPriority);
+            }
+            log.debug("Reinstalled elephant flow {} with priority {}", verdict, flowSeerElephantPriority);
+        }
+    }
+
     private class InternalTopologyListener implements TopologyListener {
         @Override
         public void event(TopologyEvent event) {
+            pathCache.topologyChanged(event.subject());
             List<Event> reasons = event.reasons();
             if (reasons != null) {
                 reasons.forEach(re -> {
                     if (re instanceof LinkEvent) {
                         LinkEvent le = (LinkEvent) re;
                         if (le.type() == LinkEvent.Type.LINK_REMOVED) {
-                            fixBlackhole(le.subject().src());
+                            blackholeRepairer.linkDown(le.subject().src());
                         }
                     }
                 });
@@ -865,36 +1324,44 @@ public class ReactiveForwarding {
         }
     }
 
-    private void fixBlackhole(ConnectPoint egress) {
-        Set<FlowEntry> rules = getFlowRulesFrom(egress);
+    // Works out the rules leading into a burst of failed links, by device
+    private Map<DeviceId, List<FlowRule>> planRepair(Collection<ConnectPoint> egresses) {
+        RepairPlan plan = new RepairPlan();
+        for (ConnectPoint egress : egresses) {
+            fixBlackhole(egress, plan);
+        }
+        return plan.removals;
+    }
+
+    private void fixBlackhole(ConnectPoint egress, RepairPlan plan) {
+        Collection<FlowRule> rules = installedRules.rulesTo(egress);
         Set<SrcDstPair> pairs = findSrcDstPairs(rules);
 
         Map<DeviceId, Set<Path>> srcPaths = new HashMap<>();
 
         for (SrcDstPair sd : pairs) {
             // get the edge deviceID for the src host
-            Host srcHost = hostService.getHost(HostId.hostId(sd.src));
-            Host dstHost = hostService.getHost(HostId.hostId(sd.dst));
-            if (srcHost != null && dstHost != null) {
-                DeviceId srcId = srcHost.location().deviceId();
-                DeviceId dstId = dstHost.location().deviceId();
+            HostLocation srcLocation = hostLocations.location(HostId.hostId(sd.src));
+            HostLocation dstLocation = hostLocations.location(HostId.hostId(sd.dst));
+            if (srcLocation != null && dstLocation != null) {
+                DeviceId srcId = srcLocation.deviceId();
+                DeviceId dstId = dstLocation.deviceId();
                 log.trace("SRC ID is " + srcId + ", DST ID is " + dstId);
 
-                cleanFlowRules(sd, egress.deviceId());
+                cleanFlowRules(sd, egress.deviceId(), plan);
 
                 Set<Path> shortestPaths = srcPaths.get(srcId);
                 if (shortestPaths == null) {
-                    shortestPaths = topologyService.getPaths(topologyService.currentTopology(),
-                            egress.deviceId(), srcId);
+                    shortestPaths = pathCache.getPaths(egress.deviceId(), srcId);
                     srcPaths.put(srcId, shortestPaths);
                 }
-                backTrackBadNodes(shortestPaths, dstId, sd);
+                backTrackBadNodes(shortestPaths, dstId, sd, plan);
             }
         }
     }
 
     // Backtracks from link down event to remove flows that lead to blackhole
-    private void backTrackBadNodes(Set<Path> shortestPaths, DeviceId dstId, SrcDstPair sd) {
+    private void backTrackBadNodes(Set<Path> shortestPaths, DeviceId dstId, SrcDstPair sd, RepairPlan plan) {
         for (Path p : shortestPaths) {
             List<Link> pathLinks = p.links();
             for (int i = 0; i < pathLinks.size(); i = i + 1) {
@@ -903,57 +1370,38 @@ public class ReactiveForwarding {
 
                 // skipping the first link because this link's src has already been pruned beforehand
                 if (i != 0) {
-                    cleanFlowRules(sd, curDevice);
+                    cleanFlowRules(sd, curDevice, plan);
                 }
 
-                Set<Path> pathsFromCurDevice =
-                        topologyService.getPaths(topologyService.currentTopology(),
-                                                 curDevice, dstId);
+                Set<Path> pathsFromCurDevice = pathCache.getPaths(curDevice, dstId);
                 if (pickForwardPathIfPossible(pathsFromCurDevice, curLink.src().port()) != null) {
                     break;
                 } else {
                     if (i + 1 == pathLinks.size()) {
-                        cleanFlowRules(sd, curLink.dst().deviceId());
+                        cleanFlowRules(sd, curLink.dst().deviceId(), plan);
                     }
                 }
             }
         }
     }
 
-    // Removes flow rules off specified device with specific SrcDstPair
-    private void cleanFlowRules(SrcDstPair pair, DeviceId id) {
+    // Adds the flow rules off specified device with specific SrcDstPair to the plan
+    private void cleanFlowRules(SrcDstPair pair, DeviceId id, RepairPlan plan) {
+        if (!plan.cleaned.computeIfAbsent(id, d -> new HashSet<>()).add(pair)) {
+            return;
+        }
         log.trace("Searching for flow rules to remove from: " + id);
         log.trace("Removing flows w/ SRC=" + pair.src + ", DST=" + pair.dst);
-        for (FlowEntry r : flowRuleService.getFlowEntries(id)) {
-            boolean matchesSrc = false, matchesDst = false;
-            for (Instruction i : r.treatment().allInstructions()) {
-                if (i.type() == Instruction.Type.OUTPUT) {
-                    // if the flow has matching src and dst
-                    for (Criterion cr : r.selector().criteria()) {
-                        if (cr.type() == Criterion.Type.ETH_DST) {
-                            if (((EthCriterion) cr).mac().equals(pair.dst)) {
-                                matchesDst = true;
-                            }
-                        } else if (cr.type() == Criterion.Type.ETH_SRC) {
-                            if (((EthCriterion) cr).mac().equals(pair.src)) {
-                                matchesSrc = true;
-                            }
-                        }
-                    }
-                }
-            }
-            if (matchesDst && matchesSrc) {
-                log.trace("Removed flow rule from device: " + id);
-                flowRuleService.removeFlowRules((FlowRule) r);
-            }
+        Collection<FlowRule> rules = installedRules.rules(id, pair.src, pair.dst);
+        if (!rules.isEmpty()) {
+            plan.removals.computeIfAbsent(id, d -> new ArrayList<>()).addAll(rules);
         }
-
     }
 
     // Returns a set of src/dst MAC pairs extracted from the specified set of flow entries
-    private Set<SrcDstPair> findSrcDstPairs(Set<FlowEntry> rules) {
+    private Set<SrcDstPair> findSrcDstPairs(Collection<FlowRule> rules) {
         ImmutableSet.Builder<SrcDstPair> builder = ImmutableSet.builder();
-        for (FlowEntry r : rules) {
+        for (FlowRule r : rules) {
             MacAddress src = null, dst = null;
             for (Criterion cr : r.selector().criteria()) {
                 if (cr.type() == Criterion.Type.ETH_DST) {
@@ -967,45 +1415,32 @@ public class ReactiveForwarding {
         return builder.build();
     }
 
-    private ReactiveForwardMetrics createCounter(MacAddress macAddress) {
-        ReactiveForwardMetrics macMetrics = null;
-        if (recordMetrics) {
-            macMetrics = metrics.compute(macAddress, (key, existingValue) -> {
-                if (existingValue == null) {
-                    return new ReactiveForwardMetrics(0L, 0L, 0L, 0L, macAddress);
-                } else {
-                    return existingValue;
-                }
-            });
-        }
-        return macMetrics;
+    // Counters are only handed out while metrics are recorded; null otherwise
+    private LocalMacMetrics.Counters createCounter(MacAddress macAddress) {
+        return recordMetrics ? localMetrics.counters(macAddress) : null;
     }
 
-    private void  forwardPacket(ReactiveForwardMetrics macmetrics) {
-        if (recordMetrics) {
+    private void  forwardPacket(LocalMacMetrics.Counters macmetrics) {
+        if (macmetrics != null) {
             macmetrics.incrementForwardedPacket();
-            metrics.put(macmetrics.getMacAddress(), macmetrics);
         }
     }
 
-    private void inPacket(ReactiveForwardMetrics macmetrics) {
-        if (recordMetrics) {
+    private void inPacket(LocalMacMetrics.Counters macmetrics) {
+        if (macmetrics != null) {
             macmetrics.incrementInPacket();
-            metrics.put(macmetrics.getMacAddress(), macmetrics);
         }
     }
 
-    private void replyPacket(ReactiveForwardMetrics macmetrics) {
-        if (recordMetrics) {
-            macmetrics.incremnetReplyPacket();
-            metrics.put(macmetrics.getMacAddress(), macmetrics);
+    private void replyPacket(LocalMacMetrics.Counters macmetrics) {
+        if (macmetrics != null) {
+            macmetrics.incrementReplyPacket();
         }
     }
 
-    private void droppedPacket(ReactiveForwardMetrics macmetrics) {
-        if (recordMetrics) {
+    private void droppedPacket(LocalMacMetrics.Counters macmetrics) {
+        if (macmetrics != null) {
             macmetrics.incrementDroppedPacket();
-            metrics.put(macmetrics.getMacAddress(), macmetrics);
         }
     }
 
@@ -1013,33 +1448,58 @@ public class ReactiveForwarding {
         return metrics;
     }
 
+    /**
+     * Returns the trace of recent packet decisions.
+     *
+     * @return packet trace
+     */
+    public PacketTrace packetTrace() {
+        return packetTrace;
+    }
+
+    /**
+     * Returns the latency histograms of the packet-in stages.
+     *
+     * @return stage latency histograms
+     */
+    public StageLatency stageLatency() {
+        return stageLatency;
+    }
+
+    /**
+     * Prints the counters of the forwarding caches.
+     *
+     * @param out stream to print to
+     */
+    public void printStats(PrintStream out) {
+        pathCache.printStats(out);
+        hostLocations.printStats(out);
+        objectiveInstaller.printStats(out);
+        pendingInstalls.printStats(out);
+        installedRules.printStats(out);
+        blackholeRepairer.printStats(out);
+        out.println("Path-wide installs       : " + pathInstalls.get() + " (" + pathRules.get() +
+                            " rules beyond the first switch)" + (installPathRules ? "" : " (off)"));
+    }
+
     public void printMetric(MacAddress mac) {
+        // write out what this instance counted so far, then print one snapshot of the map
+        localMetrics.flush();
         System.out.println("-----------------------------------------------------------------------------------------");
         System.out.println(" MACADDRESS \t\t\t\t\t\t Metrics");
         if (mac != null) {
             System.out.println(" " + mac + " \t\t\t " + metrics.get(mac));
         } else {
-            for (MacAddress key : metrics.keySet()) {
-                System.out.println(" " + key + " \t\t\t " + metrics.get(key));
+            for (Map.Entry<MacAddress, ReactiveForwardMetrics> entry : metrics.entrySet()) {
+                System.out.println(" " + entry.getKey() + " \t\t\t " + entry.getValue());
             }
         }
     }
 
-    private Set<FlowEntry> getFlowRulesFrom(ConnectPoint egress) {
-        ImmutableSet.Builder<FlowEntry> builder = ImmutableSet.builder();
-        flowRuleService.getFlowEntries(egress.deviceId()).forEach(r -> {
-            if (r.appId() == appId.id()) {
-                r.treatment().allInstructions().forEach(i -> {
-                    if (i.type() == Instruction.Type.OUTPUT) {
-                        if (((Instructions.OutputInstruction) i).port().equals(egress.port())) {
-                            builder.add(r);
-                        }
-                    }
-                });
-            }
-        });
-
-        return builder.build();
+    // Rules to remove for a burst of failed links, and the pairs looked up on each device
+    private final class RepairPlan {
+        final Map<DeviceId, List<FlowRule>> removals = new HashMap<>();
+        final Map<DeviceId, Set<SrcDstPair>> cleaned = new HashMap<>();
     }
 
     // Wrapper class for a source and destination pair of MAC addresses
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import org.apache.karaf.shell.commands.Argument;
+import org.apache.karaf.shell.commands.Command;
+import org.onosproject.cli.AbstractShellCommand;
+
+/**
+ * Shows or resets the latency histograms of the packet-in stages.
+ */
+@Command(scope = "onos", name = "reactive-fwd-latency",
+        description = "Shows the per-stage packet-in latency of reactive fwd app; " +
+                "enable with the recordStageLatency property")
+public class ReactiveForwardingLatencyCommand extends AbstractShellCommand {
+
+    @Argument(index = 0, name = "reset", description = "\"reset\" to clear the histograms",
+            required = false, multiValued = false)
+    String reset = null;
+
+    @Override
+    protected void execute() {
+        StageLatency latency = AbstractShellCommand.get(ReactiveForwarding.class).stageLatency();
+        if (reset == null) {
+            latency.print(System.out);
+        } else if ("reset".equals(reset)) {
+            latency.reset();
+        } else {
+            System.out.println("Error: Unknown argument " + reset + ", expected \"reset\"");
+        }
+    }
+}
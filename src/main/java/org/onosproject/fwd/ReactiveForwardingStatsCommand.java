@@ -0,0 +1,31 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import org.apache.karaf.shell.commands.Command;
+import org.onosproject.cli.AbstractShellCommand;
+
+/**
+ * Shows the counters of the reactive forwarding caches.
+ */
+@Command(scope = "onos", name = "reactive-fwd-stats",
+        description = "Shows the cache and rule installation counters of reactive fwd app")
+public class ReactiveForwardingStatsCommand extends AbstractShellCommand {
+    @Override
+    protected void execute() {
+        AbstractShellCommand.get(ReactiveForwarding.class).printStats(System.out);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import org.apache.karaf.shell.commands.Argument;
+import org.apache.karaf.shell.commands.Command;
+import org.onosproject.cli.AbstractShellCommand;
+
+/**
+ * Shows or clears the trace of recent packet decisions.
+ */
+@Command(scope = "onos", name = "reactive-fwd-trace",
+        description = "Shows the most recent packet decisions of reactive fwd app; " +
+                "enable with the packetTraceSampleRate property")
+public class ReactiveForwardingTraceCommand extends AbstractShellCommand {
+    private static final int DEFAULT_COUNT = 50;
+
+    @Argument(index = 0, name = "count", description = "Number of entries to show, or \"clear\"",
+            required = false, multiValued = false)
+    String count = null;
+
+    @Override
+    protected void execute() {
+        PacketTrace trace = AbstractShellCommand.get(ReactiveForwarding.class).packetTrace();
+        if ("clear".equals(count)) {
+            trace.clear();
+            return;
+        }
+
+        int n = DEFAULT_COUNT;
+        if (count != null) {
+            try {
+                n = Integer.parseInt(count);
+            } catch (NumberFormatException e) {
+                System.out.println("Error: Please enter a number or \"clear\"");
+                return;
+            }
+        }
+        trace.print(System.out, n);
+    }
+}
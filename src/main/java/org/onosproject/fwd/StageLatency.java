@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import java.io.PrintStream;
+
+/**
+ * Latency histograms of the stages a packet-in goes through. A stage is
+ * timed with a start time from {@link #start()} that is handed back to
+ * {@link #record(Stage, long)} when the stage ends. While recording is off
+ * the clock is not read at all, so a disabled stage costs one volatile read.
+ */
+public final class StageLatency {
+
+    /**
+     * Timed stages of packet-in processing.
+     */
+    public enum Stage {
+        /** The whole of the packet processor. */
+        PROCESS("Packet-in total"),
+        /** Resolving the location of the destination host. */
+        HOST_LOOKUP("Host lookup"),
+        /** Looking up the paths to the destination's switch. */
+        PATH_LOOKUP("Path lookup"),
+        /** Building the selector and objective of the rule. */
+        SELECTOR("Selector build"),
+        /** Handing the packet to FlowSeer. */
+        FLOWSEER("FlowSeer packet"),
+        /** Submitting the forwarding objective. */
+        OBJECTIVE("Objective submit"),
+        /** Sending the packet out. */
+        PACKET_OUT("Packet-out");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final Histogram[] histograms = new Histogram[STAGES.length];
+    private volatile boolean enabled;
+
+    public StageLatency() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the start time of a stage.
+     *
+     * @return current time in nanoseconds, or 0 if recording is off
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since a stage started.
+     *
+     * @param stage the stage that ended
+     * @param start time returned by {@link #start()} when the stage began
+     */
+    public void record(Stage stage, long start) {
+        if (start != 0) {
+            histograms[stage.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    public Histogram histogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public void reset() {
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Prints one line per stage with its percentiles in nanoseconds.
+     *
+     * @param out stream to print to
+     */
+    public void print(PrintStream out) {
+        out.println("Stage latency (ns)" + (enabled ? "" : " (off)"));
+        for (Stage stage : STAGES) {
+            out.println(String.format("%-18s: %s", stage.label, histograms[stage.ordinal()].summary(1)));
+        }
+    }
+}
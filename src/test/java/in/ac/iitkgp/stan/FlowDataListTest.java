@@ -0,0 +1,304 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.ac.iitkgp.stan;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.Data;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.Ip4Prefix;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.TCP;
+import org.onlab.packet.TpPort;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreServiceAdapter;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.packet.DefaultInboundPacket;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.PacketContext;
+import org.onosproject.net.packet.PacketContextAdapter;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the flow data list hands every flow over to the classifier
+ * once for testing and once for training, while packet-ins and removals of
+ * the rule of the same flow race each other on several threads.
+ */
+public class FlowDataListTest
+{
+    private static final int K = 3;
+    private static final int FLOWS = 2000;
+    private static final int THREADS = 8;
+    private static final int FIRST_PORT = 1024;
+
+    private static final ApplicationId APP_ID = new DefaultApplicationId(1, "org.onosproject.fwd");
+    private static final DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+    private static final PortNumber IN_PORT = PortNumber.portNumber(1);
+    private static final PortNumber OUT_PORT = PortNumber.portNumber(2);
+    private static final MacAddress SRC_MAC = MacAddress.valueOf("00:00:00:00:00:01");
+    private static final MacAddress DST_MAC = MacAddress.valueOf("00:00:00:00:00:02");
+    private static final int SRC_IP = 0x0a000001;
+    private static final int DST_IP = 0x0a000002;
+
+    private final CountingClassifier classifier = new CountingClassifier();
+    private final ListenerCapture flowRuleService = new ListenerCapture();
+    private FlowSeer flowSeer;
+
+    @Before
+    public void setUp()
+    {
+        flowSeer = new FlowSeer(K, 1, 1, "localhost", 0, 0, FLOWS * 16, 3600, 36000, false,
+                1024, 64, false, false, true, 200,
+                new CoreServiceAdapter()
+                {
+                    @Override
+                    public ApplicationId getAppId(String name)
+                    {
+                        return APP_ID;
+                    }
+                },
+                flowRuleService, LoggerFactory.getLogger(getClass()));
+        flowSeer.setClassifier(classifier);
+        assertTrue("FlowSeer did not start", flowSeer.start());
+
+        // flows are only tested once the classifier has been trained
+        flowSeer.train(new FlowRecord(K));
+    }
+
+    @After
+    public void tearDown()
+    {
+        flowSeer.stop();
+    }
+
+    @Test
+    public void handsEachFlowOverOnce() throws Exception
+    {
+        PacketContext contexts[] = new PacketContext[FLOWS];
+        TrafficSelector selectors[] = new TrafficSelector[FLOWS];
+        FlowRuleEvent removals[] = new FlowRuleEvent[FLOWS];
+        for (int i = 0; i < FLOWS; i++)
+        {
+            Ethernet eth = packet(FIRST_PORT + i);
+            InboundPacket packet = new DefaultInboundPacket(new ConnectPoint(DEVICE, IN_PORT), eth,
+                    ByteBuffer.wrap(eth.serialize()));
+            contexts[i] = new PacketContextAdapter(0, packet, null, false);
+            selectors[i] = selector(FIRST_PORT + i);
+            removals[i] = new FlowRuleEvent(FlowRuleEvent.Type.RULE_REMOVED,
+                    new DefaultFlowEntry(DefaultFlowRule.builder()
+                            .forDevice(DEVICE)
+                            .withSelector(selectors[i])
+                            .withTreatment(DefaultTrafficTreatment.builder().setOutput(OUT_PORT).build())
+                            .withPriority(10)
+                            .fromApp(APP_ID)
+                            .makeTemporary(10)
+                            .build()));
+        }
+
+        // each flow is tracked from its first packet before the race, as a
+        // removal that comes before it has nothing to train
+        FlowDataList flowDataList = flowSeer.getFlowDataList();
+        FlowRuleListener listener = flowRuleService.listener;
+        for (int i = 0; i < FLOWS; i++)
+        {
+            assertFalse(flowDataList.add(contexts[i], selectors[i], OUT_PORT));
+        }
+
+        // all threads meet on each flow in turn; half of them see the
+        // removal of its rule first
+        CyclicBarrier next = new CyclicBarrier(THREADS);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> done = new ArrayList<Future<Void>>();
+        for (int t = 0; t < THREADS; t++)
+        {
+            boolean removalFirst = t % 2 == 1;
+            done.add(pool.submit(() -> {
+                for (int i = 0; i < FLOWS; i++)
+                {
+                    next.await();
+                    if (removalFirst)
+                    {
+                        listener.event(removals[i]);
+                    }
+                    for (int p = 0; p < K; p++)
+                    {
+                        flowDataList.add(contexts[i], selectors[i], OUT_PORT);
+                    }
+                    if (!removalFirst)
+                    {
+                        listener.event(removals[i]);
+                    }
+                }
+                return null;
+            }));
+        }
+        try
+        {
+            for (Future<Void> f : done)
+            {
+                f.get(1, TimeUnit.MINUTES);
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        for (int i = 0; i < FLOWS; i++)
+        {
+            assertEquals("Tests of flow " + i, 1, classifier.tested(FIRST_PORT + i));
+            assertEquals("Trainings of flow " + i, 1, classifier.trained(FIRST_PORT + i));
+        }
+    }
+
+    private static Ethernet packet(int srcPort)
+    {
+        TCP tcp = new TCP();
+        tcp.setSourcePort(srcPort);
+        tcp.setDestinationPort(80);
+        tcp.setPayload(new Data(new byte[64]));
+
+        IPv4 ip = new IPv4();
+        ip.setSourceAddress(SRC_IP);
+        ip.setDestinationAddress(DST_IP);
+        ip.setProtocol(IPv4.PROTOCOL_TCP);
+        ip.setTtl((byte) 64);
+        ip.setPayload(tcp);
+
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(SRC_MAC);
+        eth.setDestinationMACAddress(DST_MAC);
+        eth.setEtherType(Ethernet.TYPE_IPV4);
+        eth.setPayload(ip);
+        return eth;
+    }
+
+    // Selector of the rule the forwarding app installs for a flow
+    private static TrafficSelector selector(int srcPort)
+    {
+        return DefaultTrafficSelector.builder()
+                .matchInPort(IN_PORT)
+                .matchEthSrc(SRC_MAC)
+                .matchEthDst(DST_MAC)
+                .matchEthType(Ethernet.TYPE_IPV4)
+                .matchIPSrc(Ip4Prefix.valueOf(SRC_IP, Ip4Prefix.MAX_MASK_LENGTH))
+                .matchIPDst(Ip4Prefix.valueOf(DST_IP, Ip4Prefix.MAX_MASK_LENGTH))
+                .matchIPProtocol(IPv4.PROTOCOL_TCP)
+                .matchTcpSrc(TpPort.tpPort(srcPort))
+                .matchTcpDst(TpPort.tpPort(80))
+                .build();
+    }
+
+    // Keeps the listener FlowSeer registers for rule removals
+    private static final class ListenerCapture extends FlowRuleServiceAdapter
+    {
+        volatile FlowRuleListener listener;
+
+        @Override
+        public void addListener(FlowRuleListener listener)
+        {
+            this.listener = listener;
+        }
+    }
+
+    // Counts the records of each flow, told apart by source port
+    private static final class CountingClassifier implements Classifier
+    {
+        private final ConcurrentMap<Integer, AtomicInteger> trained = new ConcurrentHashMap<Integer, AtomicInteger>();
+        private final ConcurrentMap<Integer, AtomicInteger> tested = new ConcurrentHashMap<Integer, AtomicInteger>();
+
+        @Override
+        public boolean start(FlowRecord dummyRecord)
+        {
+            return true;
+        }
+
+        @Override
+        public void stop()
+        {
+        }
+
+        @Override
+        public void train(FlowRecord record)
+        {
+            count(trained, record);
+        }
+
+        @Override
+        public void test(FlowRecord record, FlowVerdict verdict)
+        {
+            count(tested, record);
+        }
+
+        int trained(int srcPort)
+        {
+            AtomicInteger n = trained.get(srcPort);
+            return n == null ? 0 : n.get();
+        }
+
+        int tested(int srcPort)
+        {
+            AtomicInteger n = tested.get(srcPort);
+            return n == null ? 0 : n.get();
+        }
+
+        private static void count(ConcurrentMap<Integer, AtomicInteger> counts, FlowRecord record)
+        {
+            counts.computeIfAbsent(record.srcPort, p -> new AtomicInteger()).incrementAndGet();
+        }
+
+        @Override
+        public String describe()
+        {
+            return "counting";
+        }
+
+        @Override
+        public void printStats(PrintStream out)
+        {
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018-present Open Networking Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.fwd;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.MacAddress;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flowobjective.DefaultForwardingObjective;
+import org.onosproject.net.flowobjective.FlowObjectiveServiceAdapter;
+import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests which objectives the installer submits out of an open batch.
+ */
+public class ObjectiveInstallerTest {
+
+    private static final ApplicationId APP_ID = new DefaultApplicationId(1, "org.onosproject.fwd");
+    private static final DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+    private static final TrafficSelector SELECTOR = DefaultTrafficSelector.builder()
+            .matchInPort(PortNumber.portNumber(1))
+            .matchEthSrc(MacAddress.valueOf("00:00:00:00:00:01"))
+            .matchEthDst(MacAddress.valueOf("00:00:00:00:00:02"))
+            .build();
+    // long enough for no batch to be flushed before the test closes the installer
+    private static final int WINDOW_MILLIS = 60000;
+    private static final int BATCH_SIZE = 100;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final RecordingObjectiveService flowObjectiveService = new RecordingObjectiveService();
+    private ObjectiveInstaller installer;
+
+    @Before
+    public void setUp() {
+        installer = new ObjectiveInstaller(flowObjectiveService, new PendingInstallTable(APP_ID, log), log);
+        installer.configure(WINDOW_MILLIS, BATCH_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        installer.close();
+    }
+
+    @Test
+    public void repeatsOfOneRuleAreDropped() {
+        installer.submit(DEVICE, SELECTOR, objective(10, 2));
+        installer.submit(DEVICE, SELECTOR, objective(10, 2));
+        installer.close();
+
+        assertEquals(1, flowObjectiveService.forwarded.size());
+    }
+
+    @Test
+    public void rulesOfAnotherPriorityAreKept() {
+        installer.submit(DEVICE, SELECTOR, objective(10, 2));
+        installer.submit(DEVICE, SELECTOR, objective(20, 2));
+        installer.close();
+
+        List<ForwardingObjective> forwarded = flowObjectiveService.forwarded;
+        assertEquals(2, forwarded.size());
+        assertEquals(10, forwarded.get(0).priority());
+        assertEquals(20, forwarded.get(1).priority());
+    }
+
+    @Test
+    public void rulesWithAnotherTreatmentAreKept() {
+        installer.submit(DEVICE, SELECTOR, objective(10, 2));
+        installer.submit(DEVICE, SELECTOR, objective(10, 3));
+        installer.close();
+
+        List<ForwardingObjective> forwarded = flowObjectiveService.forwarded;
+        assertEquals(2, forwarded.size());
+        assertEquals(objective(10, 3).add().treatment(), forwarded.get(1).treatment());
+    }
+
+    @Test
+    public void elephantRuleJoinsOpenBatch() {
+        // the rule of the flow's k-th packet is still waiting when the
+        // classifier's verdict reinstalls it with the elephant priority
+        assertTrue(installer.submit(DEVICE, SELECTOR, objective(10, 2)));
+        assertTrue(installer.submit(DEVICE, SELECTOR, objective(40000, 2)));
+        assertFalse(installer.submit(DEVICE, SELECTOR, objective(40000, 2)));
+        installer.close();
+
+        List<ForwardingObjective> forwarded = flowObjectiveService.forwarded;
+        assertEquals(2, forwarded.size());
+        assertEquals(40000, forwarded.get(1).priority());
+    }
+
+    private static ForwardingObjective.Builder objective(int priority, long outPort) {
+        return DefaultForwardingObjective.builder()
+                .withSelector(SELECTOR)
+                .withTreatment(DefaultTrafficTreatment.builder().setOutput(PortNumber.portNumber(outPort)).build())
+                .withPriority(priority)
+                .withFlag(ForwardingObjective.Flag.VERSATILE)
+                .fromApp(APP_ID)
+                .makeTemporary(10);
+    }
+
+    // Keeps the objectives handed to the service, in order
+    private static final class RecordingObjectiveService extends FlowObjectiveServiceAdapter {
+        final List<ForwardingObjective> forwarded = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void forward(DeviceId deviceId, ForwardingObjective objective) {
+            forwarded.add(objective);
+        }
+    }
+}